@@ -0,0 +1,71 @@
+package mancala;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark for MancalaLabel.paintComponent drawing the board after the first move into an
+ * offscreen image: the whole board, the whole board with three times the marbles, and only the
+ * area of one pit, as when a move repaints it
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MancalaLabelBenchmark
+{
+    @Param({"board", "crowded", "onePit"})
+    public String scene;
+
+    private MancalaLabel view;
+    private BufferedImage image;
+    private Graphics2D g2;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        MancalaLogic model = new MancalaLogic();
+        view = new MancalaLabel(model);
+        model.addChangeListener(view);
+        view.setBoardLayout(LayoutAssets.getLayout(LayoutAssets.REGULAR));
+        view.setSize(MancalaFrame.FRAME_WIDTH, MancalaFrame.FRAME_HEIGHT);
+        model.fillPitsWithStartingMarbles(scene.equals("crowded") ? 12 : 4);
+        model.move(MancalaLogic.FIRST_PIT_A_INDEX + 2);
+        image = new BufferedImage(MancalaFrame.FRAME_WIDTH, MancalaFrame.FRAME_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        g2 = image.createGraphics();
+        if (scene.equals("onePit"))
+        {
+            g2.setClip(view.getPitRegion(MancalaLogic.FIRST_PIT_A_INDEX + 3));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown()
+    {
+        g2.dispose();
+    }
+
+    @Benchmark
+    public int paintComponent()
+    {
+        view.paintComponent(g2);
+        return image.getRGB(0, 0);
+    }
+}
@@ -0,0 +1,182 @@
+package mancala;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for MancalaLogic. The models have no listeners, so moves make no events.
+ *
+ * move and undo can't be run on one model over and over, since they change the position, so
+ * each of their iterations is one batch of Positions.NUMBER_OF_POSITIONS calls, each on its own
+ * model made ready before the iteration starts: loaded with a mid-game position for move, and
+ * moved once from it for undo. Only the calls are timed. The score is the time of the whole
+ * batch; divide by NUMBER_OF_POSITIONS for one call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MancalaLogicBenchmark
+{
+    private final long[] positions = Positions.midGamePositions();
+    private final MancalaLogic model = new MancalaLogic();
+    private final Random random = new Random(1);
+    private int next;
+
+    /**
+     * Models loaded with the mid-game positions, one move each
+     */
+    @State(Scope.Thread)
+    public static class LoadedModels
+    {
+        final long[] positions = Positions.midGamePositions();
+        final MancalaLogic[] models = new MancalaLogic[Positions.NUMBER_OF_POSITIONS];
+        final int[] pits = new int[Positions.NUMBER_OF_POSITIONS];
+        int next;
+
+        @Setup(Level.Trial)
+        public void create()
+        {
+            for (int i = 0; i < models.length; i++)
+            {
+                models[i] = new MancalaLogic();
+                pits[i] = Positions.firstLegalPit(positions, i * PackedBoard.STATE_LENGTH);
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void load()
+        {
+            for (int i = 0; i < models.length; i++)
+            {
+                models[i].loadPacked(positions, i * PackedBoard.STATE_LENGTH);
+            }
+            next = 0;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 500, batchSize = Positions.NUMBER_OF_POSITIONS)
+    @Measurement(iterations = 500, batchSize = Positions.NUMBER_OF_POSITIONS)
+    public int move(LoadedModels loaded)
+    {
+        int i = loaded.next++;
+        MancalaLogic moved = loaded.models[i];
+        moved.move(loaded.pits[i]);
+        return moved.getPits()[MancalaLogic.MANCALA_A_INDEX];
+    }
+
+    @Benchmark
+    public int loadPacked()
+    {
+        int position = (next++ & (Positions.NUMBER_OF_POSITIONS - 1)) * PackedBoard.STATE_LENGTH;
+        model.loadPacked(positions, position);
+        return model.getPits()[MancalaLogic.MANCALA_A_INDEX];
+    }
+
+    /**
+     * Models that each played one move from a mid-game position, with undos left to take it back
+     */
+    @State(Scope.Thread)
+    public static class MovedModels
+    {
+        final long[] positions = Positions.midGamePositions();
+        final MancalaLogic[] models = new MancalaLogic[Positions.NUMBER_OF_POSITIONS];
+        int next;
+
+        @Setup(Level.Trial)
+        public void create()
+        {
+            for (int i = 0; i < models.length; i++)
+            {
+                models[i] = new MancalaLogic();
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void play()
+        {
+            for (int i = 0; i < models.length; i++)
+            {
+                int position = i * PackedBoard.STATE_LENGTH;
+                models[i].fillPitsWithStartingMarbles(4);   //Gives back the three undos of each player
+                models[i].loadPacked(positions, position);
+                models[i].move(Positions.firstLegalPit(positions, position));
+            }
+            next = 0;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 500, batchSize = Positions.NUMBER_OF_POSITIONS)
+    @Measurement(iterations = 500, batchSize = Positions.NUMBER_OF_POSITIONS)
+    public int undo(MovedModels moved)
+    {
+        MancalaLogic model = moved.models[moved.next++];
+        model.undo();
+        return model.getNumUndosPlayerA() + model.getNumUndosPlayerB();
+    }
+
+    @Benchmark
+    public int moveAndUnmake(StartedGame game)
+    {
+        game.model.move(MancalaLogic.FIRST_PIT_A_INDEX + game.next++ % 6);
+        game.model.unmake();
+        return game.model.getPits()[MancalaLogic.MANCALA_A_INDEX];
+    }
+
+    /**
+     * A model at the start of a 4 marble game
+     */
+    @State(Scope.Thread)
+    public static class StartedGame
+    {
+        final MancalaLogic model = new MancalaLogic();
+        int next;
+
+        @Setup(Level.Trial)
+        public void start()
+        {
+            model.fillPitsWithStartingMarbles(4);
+        }
+    }
+
+    @Benchmark
+    public int randomPlayout()
+    {
+        model.fillPitsWithStartingMarbles(4);
+        int[] pits = model.getPits();
+        while (true)
+        {
+            int first = model.isPlayerATurn() ? MancalaLogic.FIRST_PIT_A_INDEX : MancalaLogic.FIRST_PIT_B_INDEX;
+            int pit = first + random.nextInt(6);
+            for (int k = 0; k < 6 && pits[pit] == 0; k++)
+            {
+                pit = pit == first + 5 ? first : pit + 1;
+            }
+            if (pits[pit] == 0)
+            {
+                return pits[MancalaLogic.MANCALA_A_INDEX];
+            }
+            model.move(pit);
+        }
+    }
+}
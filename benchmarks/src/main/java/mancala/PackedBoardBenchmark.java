@@ -0,0 +1,66 @@
+package mancala;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for PackedBoard, the board the engines search on
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PackedBoardBenchmark
+{
+    private final long[] positions = Positions.midGamePositions();
+    private final long[] start = new long[PackedBoard.STATE_LENGTH];
+    private final long[] board = new long[PackedBoard.STATE_LENGTH];
+    private long random = 1;
+    private int next;
+
+    public PackedBoardBenchmark()
+    {
+        MancalaLogic model = new MancalaLogic();
+        model.fillPitsWithStartingMarbles(4);
+        model.packInto(start, 0);
+    }
+
+    @Benchmark
+    public long move()
+    {
+        int position = (next++ & (Positions.NUMBER_OF_POSITIONS - 1)) * PackedBoard.STATE_LENGTH;
+        PackedBoard.move(positions, position, board, 0, Positions.firstLegalPit(positions, position));
+        return board[1];
+    }
+
+    @Benchmark
+    public long randomPlayout()
+    {
+        PackedBoard.copy(start, 0, board, 0);
+        while (!PackedBoard.isGameOver(board, 0))
+        {
+            random ^= random << 13;
+            random ^= random >>> 7;
+            random ^= random << 17;
+            int first = PackedBoard.isPlayerATurn(board, 0) ? MancalaLogic.FIRST_PIT_A_INDEX : MancalaLogic.FIRST_PIT_B_INDEX;
+            int pit = first + (int) ((random >>> 1) % 6);
+            while (!PackedBoard.isLegal(board, 0, pit))
+            {
+                pit = pit == first + 5 ? first : pit + 1;
+            }
+            PackedBoard.move(board, 0, board, 0, pit);
+        }
+        return board[1];
+    }
+}
@@ -0,0 +1,50 @@
+package mancala;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark for encoding an exported frame as a PNG
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PngEncoderBenchmark
+{
+    private final PngEncoder encoder = new PngEncoder(GameImageExporter.PNG_LEVEL);
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private BufferedImage frame;
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        GameImageExporter exporter = new GameImageExporter(LayoutAssets.REGULAR, BoardGeometry.BOARD_WIDTH, BoardGeometry.BOARD_HEIGHT, 1);
+        frame = exporter.render(GameImageExporter.replay(4, new int[]{MancalaLogic.FIRST_PIT_A_INDEX + 2}).get(1));
+        exporter.shutdown();
+    }
+
+    @Benchmark
+    public int write() throws IOException
+    {
+        out.reset();
+        encoder.write(frame, out);
+        return out.size();
+    }
+}
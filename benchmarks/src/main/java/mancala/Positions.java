@@ -0,0 +1,67 @@
+package mancala;
+
+import java.util.Random;
+
+/**
+ * The mid-game positions the benchmarks move from, the same ones on every run
+ */
+final class Positions
+{
+    static final int NUMBER_OF_POSITIONS = 1024;    //A power of two, so the benchmarks can cycle through them with a mask
+
+    private Positions()
+    {
+    }
+
+    /**
+     * Plays random games from the start of a 4 marble game and keeps a position 10 to 20 moves
+     * in from each, leaving out games that are over by then
+     * @return NUMBER_OF_POSITIONS PackedBoard states, one after the other
+     */
+    static long[] midGamePositions()
+    {
+        long[] positions = new long[NUMBER_OF_POSITIONS * PackedBoard.STATE_LENGTH];
+        long[] board = new long[PackedBoard.STATE_LENGTH];
+        MancalaLogic model = new MancalaLogic();
+        model.fillPitsWithStartingMarbles(4);
+        Random random = new Random(42);
+
+        int count = 0;
+        while (count < NUMBER_OF_POSITIONS)
+        {
+            model.packInto(board, 0);
+            int plies = 10 + random.nextInt(11);
+            for (int ply = 0; ply < plies && !PackedBoard.isGameOver(board, 0); ply++)
+            {
+                int pit;
+                do
+                {
+                    pit = random.nextInt(MancalaLogic.NUMBER_OF_PITS);
+                }
+                while (!PackedBoard.isLegal(board, 0, pit));
+                PackedBoard.move(board, 0, board, 0, pit);
+            }
+            if (!PackedBoard.isGameOver(board, 0))
+            {
+                PackedBoard.copy(board, 0, positions, count++ * PackedBoard.STATE_LENGTH);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Gets the first pit the player whose turn it is can play
+     * @param board the array holding the state
+     * @param offset the index of the state in the array
+     * @return the index of the pit
+     */
+    static int firstLegalPit(long[] board, int offset)
+    {
+        int pit = PackedBoard.isPlayerATurn(board, offset) ? MancalaLogic.FIRST_PIT_A_INDEX : MancalaLogic.FIRST_PIT_B_INDEX;
+        while (!PackedBoard.isLegal(board, offset, pit))
+        {
+            pit++;
+        }
+        return pit;
+    }
+}
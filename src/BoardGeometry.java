@@ -0,0 +1,71 @@
+import java.awt.geom.Ellipse2D;
+
+/**
+ * Where the pits are on the board, in normalized board coordinates: x and width are fractions
+ * of the board's width, y and height fractions of its height, so the same numbers work at any
+ * size. The board keeps the shape of the board images, BOARD_WIDTH by BOARD_HEIGHT. Sizes that
+ * aren't part of the board art, like the fonts and the space between a pit and its text, are
+ * in units of a board drawn BOARD_WIDTH pixels wide, and are scaled with the board.
+ */
+public final class BoardGeometry
+{
+    public static final int BOARD_WIDTH = 1152;
+    public static final int BOARD_HEIGHT = 658;
+    public static final double MIN_SCALE = 0.25;
+    public static final int SCALE_STEPS = 64;   //Scales are rounded down to a multiple of 1/SCALE_STEPS
+
+    /*
+    This block of code is the x, y, width and height of each pit, indexed like MancalaLogic's pits
+     */
+    private static final double[][] PITS = {
+            {0.015625, 0.231003, 0.076389, 0.617021},   //Mancala B
+            {0.125000, 0.627660, 0.109375, 0.221884},   //A1
+            {0.255208, 0.627660, 0.109375, 0.221884},
+            {0.385417, 0.627660, 0.109375, 0.221884},
+            {0.515625, 0.627660, 0.109375, 0.221884},
+            {0.645833, 0.627660, 0.109375, 0.221884},
+            {0.776042, 0.627660, 0.109375, 0.221884},   //A6
+            {0.914931, 0.231003, 0.076389, 0.617021},   //Mancala A
+            {0.776042, 0.243161, 0.109375, 0.221884},   //B1
+            {0.645833, 0.243161, 0.109375, 0.221884},
+            {0.515625, 0.243161, 0.109375, 0.221884},
+            {0.385417, 0.243161, 0.109375, 0.221884},
+            {0.255208, 0.243161, 0.109375, 0.221884},
+            {0.125000, 0.243161, 0.109375, 0.221884},   //B6
+    };
+
+    private BoardGeometry()
+    {
+    }
+
+    /**
+     * Gets the biggest scale at which the board fits in an area. The scale is rounded down to a
+     * step, so resizing the window only goes through a few scales that each need their own images
+     * @param width the width of the area
+     * @param height the height of the area
+     * @return the number of pixels for each unit of a board BOARD_WIDTH wide
+     */
+    public static double fitScale(int width, int height)
+    {
+        double scale = Math.min(width / (double) BOARD_WIDTH, height / (double) BOARD_HEIGHT);
+        return Math.max(MIN_SCALE, Math.floor(scale * SCALE_STEPS) / SCALE_STEPS);
+    }
+
+    /**
+     * Gets a pit as an ellipse on a board drawn at a scale. The ellipse is rounded to whole
+     * pixels, so the pits line up with the board image the same way at every scale
+     * @param index the index of the pit
+     * @param x the x coordinate of the board's top left corner
+     * @param y the y coordinate of the board's top left corner
+     * @param scale the scale of the board
+     * @return the pit as an ellipse
+     */
+    public static Ellipse2D.Double getPit(int index, double x, double y, double scale)
+    {
+        double width = BOARD_WIDTH * scale;
+        double height = BOARD_HEIGHT * scale;
+        double[] pit = PITS[index];
+        return new Ellipse2D.Double(x + Math.round(pit[0] * width), y + Math.round(pit[1] * height),
+                Math.round(pit[2] * width), Math.round(pit[3] * height));
+    }
+}
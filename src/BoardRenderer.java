@@ -0,0 +1,433 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Draws the board, the marbles and the text of a state of the game, for a view of a given size.
+ * The board is scaled to fit the size and centered in it. The board image, the pit labels and the
+ * marble image are drawn once for each scale, in the pixels of the graphics drawn to, and kept
+ * for the last few scales.
+ *
+ * The renderer is not a Swing component and starts no timers, so it can draw into images on any
+ * thread, such as the threads of GameImageExporter. Each renderer is only used from one thread
+ * at a time. MancalaLabel draws with one on the event dispatch thread.
+ */
+public class BoardRenderer
+{
+    public static final int LAYER_CACHE_SIZE = 3;           //The number of scales whose images are kept
+    public static final Color DEFAULT_BACKGROUND = new Color(238, 238, 238);    //The background of a Swing panel
+    private static final Font LABEL_FONT = new Font("TimesRoman", Font.PLAIN, 20);
+    private static final String[] COUNT_STRINGS = new String[MancalaLogic.NUMBER_OF_PITS * 4 + 1];
+    private static final int TEXT_HEIGHT = 26;  //Enough for the ascent and descent of the label font
+    private static final int COUNT_WIDTH = 40;  //Enough for a two digit marble count
+
+    static
+    {
+        for (int i = 0; i < COUNT_STRINGS.length; i++)
+        {
+            COUNT_STRINGS[i] = String.valueOf(i);
+        }
+    }
+
+    private final MarbleSpriteCache sprites;
+    private final Rectangle2D[] boardPitBounds;   //The bounding box of each pit on a board BOARD_WIDTH wide
+    private final Ellipse2D.Double[] pits;      //An array of the pits as ellipses
+    private final Rectangle2D[] pitBounds;      //The bounding box of each pit
+    private final LinkedHashMap<Long, Layers> layers;   //The images drawn for each scale, least recently used first
+    private final AffineTransform layerTransform = new AffineTransform();
+    private final Rectangle2D.Double layerBox = new Rectangle2D.Double();
+    private Layout layout;
+    private Color background = DEFAULT_BACKGROUND;
+    private Layers lastLayers;          //The images used for the last paint
+    private int width;
+    private int height;
+    private double boardScale;          //The number of pixels for each unit of a board BOARD_WIDTH wide
+    private int boardX;                 //The top left corner of the board
+    private int boardY;
+    private Font labelFont;
+    private Rectangle[] pitRegions;     //The area of each pit with its marbles and marble count
+    private Point[] countPoints;        //Where the marble count of each pit is drawn
+    private Point turnPointA;           //Where player A's turn and undo text is drawn
+    private Point turnPointB;
+    private Rectangle turnRegionA;      //The area of player A's turn and undo text
+    private Rectangle turnRegionB;
+
+    /**
+     * Constructor that sets the renderer up for a board BOARD_WIDTH by BOARD_HEIGHT
+     * @param sprites the cache of the marble images of the pits
+     */
+    public BoardRenderer(MarbleSpriteCache sprites)
+    {
+        this.sprites = sprites;
+        pits = new Ellipse2D.Double[MancalaLogic.NUMBER_OF_PITS];
+        pitBounds = new Rectangle2D[MancalaLogic.NUMBER_OF_PITS];
+        boardPitBounds = new Rectangle2D[MancalaLogic.NUMBER_OF_PITS];
+        for (int i = 0; i < MancalaLogic.NUMBER_OF_PITS; i++)
+        {
+            boardPitBounds[i] = BoardGeometry.getPit(i, 0, 0, 1).getBounds2D();
+        }
+        layers = new LinkedHashMap<>(LAYER_CACHE_SIZE * 2, 0.75f, true);
+        setSize(BoardGeometry.BOARD_WIDTH, BoardGeometry.BOARD_HEIGHT);
+    }
+
+    /**
+     * Sets the layout of the board and marbles
+     * @param layout the layout of the board and marbles
+     */
+    public void setLayout(Layout layout)
+    {
+        this.layout = layout;
+        layers.clear();     //The images are drawn again with the new board
+        lastLayers = null;
+    }
+
+    /**
+     * Sets the color around the board
+     * @param background the color
+     */
+    public void setBackground(Color background)
+    {
+        if (!background.equals(this.background))
+        {
+            this.background = background;
+            layers.clear();
+            lastLayers = null;
+        }
+    }
+
+    /**
+     * Sets up each pit on the board as an ellipse, and where the text goes, for the board
+     * scaled to fit a view of a size
+     * @param width the width of the view
+     * @param height the height of the view
+     */
+    public void setSize(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        boardScale = BoardGeometry.fitScale(width, height);
+        boardX = Math.max(0, (int) ((width - BoardGeometry.BOARD_WIDTH * boardScale) / 2));
+        boardY = Math.max(0, (int) ((height - BoardGeometry.BOARD_HEIGHT * boardScale) / 2));
+        labelFont = boardScale == 1 ? LABEL_FONT : LABEL_FONT.deriveFont((float) (LABEL_FONT.getSize2D() * boardScale));
+        for (int i = 0; i < MancalaLogic.NUMBER_OF_PITS; i++)
+        {
+            pits[i] = BoardGeometry.getPit(i, boardX, boardY, boardScale);
+        }
+
+        /*
+        This block of code finds where each marble count is drawn and the area repainted when a pit changes
+         */
+        countPoints = new Point[MancalaLogic.NUMBER_OF_PITS];
+        pitRegions = new Rectangle[MancalaLogic.NUMBER_OF_PITS];
+        for (int i = 0; i < MancalaLogic.NUMBER_OF_PITS; i++)
+        {
+            Rectangle2D boundingBox = pits[i].getBounds2D();
+            pitBounds[i] = boundingBox;
+            if (i >= MancalaLogic.FIRST_PIT_A_INDEX && i <= MancalaLogic.LAST_PIT_A_INDEX)
+            {
+                countPoints[i] = new Point((int) (boundingBox.getCenterX() - 12 * boardScale), (int) (boundingBox.getMinY() - 50 * boardScale));
+            }
+            else if (i >= MancalaLogic.FIRST_PIT_B_INDEX && i <= MancalaLogic.LAST_PIT_B_INDEX)
+            {
+                countPoints[i] = new Point((int) (boundingBox.getCenterX() - 12 * boardScale), (int) boundingBox.getMaxY());
+            }
+            else if (i == MancalaLogic.MANCALA_A_INDEX)
+            {
+                countPoints[i] = new Point((int) (boundingBox.getMinX() - 50 * boardScale), (int) (boundingBox.getCenterY() - 20 * boardScale));
+            }
+            else
+            {
+                countPoints[i] = new Point((int) (boundingBox.getMaxX() + 20 * boardScale), (int) (boundingBox.getCenterY() - 20 * boardScale));
+            }
+            pitRegions[i] = boundingBox.getBounds().union(textRegion(countPoints[i], COUNT_WIDTH));
+        }
+
+        int turnX = boardX + (int) ((BoardGeometry.BOARD_WIDTH / 2 - 35) * boardScale);
+        turnPointA = new Point(turnX, boardY + (int) ((BoardGeometry.BOARD_HEIGHT - 60) * boardScale));
+        turnPointB = new Point(turnX, boardY + (int) (60 * boardScale));
+        turnRegionA = textRegion(turnPointA, 220);
+        turnRegionB = textRegion(turnPointB, 220);
+    }
+
+    /**
+     * Gets the area of a line of text of the label font
+     * @param baseline where the text is drawn
+     * @param width the width of the text on a board BOARD_WIDTH wide
+     */
+    private Rectangle textRegion(Point baseline, int width)
+    {
+        int top = (int) Math.floor(baseline.y - TEXT_HEIGHT * boardScale);
+        return new Rectangle(baseline.x, top, (int) Math.ceil(width * boardScale),
+                (int) Math.ceil(baseline.y + 8 * boardScale) - top);
+    }
+
+    /**
+     * Draws a whole frame: the background, then the board of a state of the game as it is,
+     * with the marbles of pit i scattered by seed i
+     * @param g2 the graphics to draw with, covering the renderer's size
+     * @param state the state of the game to draw
+     */
+    public void paintFrame(Graphics2D g2, BoardSnapshot state)
+    {
+        g2.setColor(background);
+        g2.fillRect(0, 0, width, height);
+        paint(g2, null, state, null, null, false);
+    }
+
+    /**
+     * Draws the board, marbles, and text. Only the pits inside the area being repainted are drawn.
+     * While a move is animated, the pits show the marbles dropped so far.
+     *
+     * The images are drawn in the pixels of the graphics, which are smaller than the view's pixels
+     * on a HiDPI screen, so they are drawn without scaling. The text is drawn in the view's pixels
+     * @param g2 the graphics to draw with
+     * @param clip the area being repainted, or null for all of it
+     * @param state the state of the game to draw
+     * @param seeds the seed that scatters the marbles of each pit, or null to use the index of the pit
+     * @param animation the animation of the move to the state, or null
+     * @param resizing true while the view is being resized, so the images of the last scale are stretched
+     * @return the number of marbles drawn
+     */
+    public int paint(Graphics2D g2, Rectangle clip, BoardSnapshot state, int[] seeds, SowingAnimation animation, boolean resizing)
+    {
+        int marblesDrawn = 0;
+        boolean animating = animation != null && animation.isRunning();
+
+        /*
+        This block of code draws the board, the pit labels and the marbles in the pixels of the images.
+        While the window is being resized, the images of the last scale are stretched to fit
+         */
+        AffineTransform transform = g2.getTransform();
+        double screenScale = transform.getScaleX();
+        Layers scaled = getLayers(boardScale * screenScale, g2.getDeviceConfiguration(), resizing);
+        double layerPixels = scaled.scale / boardScale;     //The pixels of the images in each pixel of the view
+        double stretch = screenScale / layerPixels;
+        layerTransform.setTransform(stretch, 0, 0, stretch, transform.getTranslateX(), transform.getTranslateY());
+        g2.setTransform(layerTransform);
+        g2.drawImage(scaled.background, (int) Math.round(boardX * layerPixels), (int) Math.round(boardY * layerPixels), null);
+        for (int i = 0; i < MancalaLogic.NUMBER_OF_PITS; i++)
+        {
+            if (clip == null || clip.intersects(pitRegions[i]))
+            {
+                //The marbles are scattered over the pit's size on a board BOARD_WIDTH wide, so they look the same at every scale
+                layerBox.setRect(pitBounds[i].getX() * layerPixels, pitBounds[i].getY() * layerPixels,
+                        boardPitBounds[i].getWidth() * scaled.scale, boardPitBounds[i].getHeight() * scaled.scale);
+                int count = animating ? animation.getCount(i) : state.getPit(i);
+                sprites.drawPit(g2, scaled.marble, scaled.scale, i, count, seeds == null ? i : seeds[i], layerBox);
+                marblesDrawn += count;
+            }
+        }
+        if (animating)
+        {
+            animation.drawMarble(g2, scaled.marble, layerPixels);
+        }
+        g2.setTransform(transform);
+
+        /*
+        This block of code draws the text for the player labels
+         */
+        g2.setFont(labelFont);
+        if (clip == null || clip.intersects(turnRegionA) || clip.intersects(turnRegionB))
+        {
+            int undoX = turnPointA.x + (int) (85 * boardScale);
+            if (state.isPlayerATurn())
+            {
+                g2.setColor(Color.RED);
+                g2.drawString("Player A", turnPointA.x, turnPointA.y);
+                g2.setColor(layout.getFontColor());
+                g2.drawString("Player B", turnPointB.x, turnPointB.y);
+            }
+            else
+            {
+                g2.setColor(Color.RED);
+                g2.drawString("Player B", turnPointB.x, turnPointB.y);
+                g2.setColor(layout.getFontColor());
+                g2.drawString("Player A", turnPointA.x, turnPointA.y);
+            }
+            g2.drawString("Undos left: " + state.getNumUndosPlayerA(), undoX, turnPointA.y);
+            g2.drawString("Undos left: " + state.getNumUndosPlayerB(), undoX, turnPointB.y);
+        }
+
+        /*
+        This block of code draws the marble count of the pits being repainted
+         */
+        g2.setColor(layout.getFontColor());
+        for (int i = 0; i < MancalaLogic.NUMBER_OF_PITS; i++)
+        {
+            if (clip == null || clip.intersects(pitRegions[i]))
+            {
+                int count = animating ? animation.getCount(i) : state.getPit(i);
+                g2.drawString(count < COUNT_STRINGS.length ? COUNT_STRINGS[count] : String.valueOf(count), countPoints[i].x, countPoints[i].y);
+            }
+        }
+        return marblesDrawn;
+    }
+
+    /**
+     * Gets the images for a scale, drawing them if they aren't kept. While the view is still
+     * being resized, the images of the last scale are used instead, so dragging the edge of the
+     * window doesn't scale the board image at every step
+     * @param scale the number of screen pixels for each unit of a board BOARD_WIDTH wide
+     * @param configuration the configuration of the graphics drawn to, for images that draw fast on it
+     * @param resizing true while the view is being resized
+     */
+    private Layers getLayers(double scale, GraphicsConfiguration configuration, boolean resizing)
+    {
+        long key = Math.round(scale * BoardGeometry.SCALE_STEPS * 16);
+        Layers scaled = layers.get(key);
+        if (scaled == null)
+        {
+            if (lastLayers != null && resizing)
+            {
+                return lastLayers;
+            }
+            scaled = new Layers(scale, configuration);
+            layers.put(key, scaled);
+            Iterator<Layers> oldest = layers.values().iterator();
+            while (layers.size() > LAYER_CACHE_SIZE)
+            {
+                oldest.next();
+                oldest.remove();
+            }
+        }
+        lastLayers = scaled;
+        return scaled;
+    }
+
+    /**
+     * Gets the array of pits as ellipses
+     * @return the array of pits as ellipses
+     */
+    public Ellipse2D.Double[] getPits()
+    {
+        return pits;
+    }
+
+    /**
+     * Gets the bounding box of each pit
+     */
+    public Rectangle2D[] getPitBounds()
+    {
+        return pitBounds;
+    }
+
+    /**
+     * Gets the area repainted when the number of marbles in a pit changes
+     * @param i the index of the pit
+     * @return the area of the pit, its marbles and its marble count
+     */
+    public Rectangle getPitRegion(int i)
+    {
+        return pitRegions[i];
+    }
+
+    /**
+     * Gets the area of player A's turn and undo text
+     */
+    public Rectangle getTurnRegionA()
+    {
+        return turnRegionA;
+    }
+
+    /**
+     * Gets the area of player B's turn and undo text
+     */
+    public Rectangle getTurnRegionB()
+    {
+        return turnRegionB;
+    }
+
+    /**
+     * Gets the number of pixels for each unit of a board BOARD_WIDTH wide
+     */
+    public double getBoardScale()
+    {
+        return boardScale;
+    }
+
+    /**
+     * Gets the x coordinate of the board's top left corner
+     */
+    public int getBoardX()
+    {
+        return boardX;
+    }
+
+    /**
+     * Gets the y coordinate of the board's top left corner
+     */
+    public int getBoardY()
+    {
+        return boardY;
+    }
+
+    /**
+     * The images of the board at one scale: everything that doesn't change during a game (the
+     * board and the pit labels), and the marble
+     */
+    private class Layers
+    {
+        final double scale;
+        final BufferedImage background;
+        final Image marble;
+
+        Layers(double scale, GraphicsConfiguration configuration)
+        {
+            this.scale = scale;
+            int width = (int) Math.round(BoardGeometry.BOARD_WIDTH * scale);
+            int height = (int) Math.round(BoardGeometry.BOARD_HEIGHT * scale);
+            Image board;
+            if (scale == 1)
+            {
+                board = new ImageIcon(layout.getBoardImage()).getImage();   //ImageIcon waits for the board to load
+                marble = layout.getMarbleImage();
+            }
+            else
+            {
+                board = layout.getBoardImage(width, height);
+                marble = layout.getMarbleImage((int) Math.round(Layout.MARBLE_WIDTH * scale), (int) Math.round(Layout.MARBLE_HEIGHT * scale));
+            }
+
+            background = configuration != null
+                    ? configuration.createCompatibleImage(width, height)
+                    : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2 = background.createGraphics();
+            g2.setColor(BoardRenderer.this.background);
+            g2.fillRect(0, 0, width, height);
+            g2.drawImage(board, 0, 0, null);
+
+            /*
+            This block of code draws the pit labels on a board BOARD_WIDTH wide, scaled to the image
+             */
+            g2.scale(scale, scale);
+            g2.setFont(LABEL_FONT);
+            g2.setColor(layout.getFontColor());
+            for (int i = 0; i < MancalaLogic.NUMBER_OF_PITS; i++)
+            {
+                Rectangle2D boundingBox = boardPitBounds[i];
+                if (i >= MancalaLogic.FIRST_PIT_A_INDEX && i <= MancalaLogic.LAST_PIT_A_INDEX)
+                {
+                    g2.drawString("A" + i, (int) boundingBox.getCenterX() - 20, (int) boundingBox.getMaxY() + 5);
+                }
+                else if (i >= MancalaLogic.FIRST_PIT_B_INDEX && i <= MancalaLogic.LAST_PIT_B_INDEX)
+                {
+                    g2.drawString("B" + (i - 7), (int) boundingBox.getCenterX() - 20, (int) boundingBox.getMinY() - 50);
+                }
+                else if (i == MancalaLogic.MANCALA_A_INDEX)
+                {
+                    g2.drawString("Mancala A", (int) boundingBox.getMinX() - 20, (int) boundingBox.getMaxY() + 3);
+                }
+                else
+                {
+                    g2.drawString("Mancala B", (int) boundingBox.getMinX(), (int) boundingBox.getMinY() - 40);
+                }
+            }
+            g2.dispose();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * An unchangeable copy of the state of the game at one moment, which the view and the other
+ * Swing code read instead of the model, so they never see the model halfway through a move
+ */
+public final class BoardSnapshot
+{
+    private final int[] pits;
+    private final boolean playerATurn;
+    private final int numUndosPlayerA;
+    private final int numUndosPlayerB;
+    private final boolean playerAWon;
+    private final boolean playerBWon;
+    private final long version;
+    private final int invalidTurns;
+    private final int movedPit;
+    private final int failures;
+    private final String failure;
+
+    /**
+     * Constructor that copies the state of the model
+     * @param model the model to copy
+     * @param version the number of commands played on the model so far
+     * @param invalidTurns the number of invalid turns played so far
+     */
+    public BoardSnapshot(MancalaLogic model, long version, int invalidTurns)
+    {
+        this(model, version, invalidTurns, SearchEngine.NO_MOVE);
+    }
+
+    /**
+     * Constructor that copies the state of the model right after one move
+     * @param model the model to copy
+     * @param version the number of commands played on the model so far
+     * @param invalidTurns the number of invalid turns played so far
+     * @param movedPit the pit played to reach this state from the snapshot before it, or SearchEngine.NO_MOVE
+     */
+    public BoardSnapshot(MancalaLogic model, long version, int invalidTurns, int movedPit)
+    {
+        this(model, version, invalidTurns, movedPit, 0, null);
+    }
+
+    /**
+     * Constructor that copies the state of the model right after one move, with the commands
+     * that failed so far
+     * @param model the model to copy
+     * @param version the number of commands played on the model so far
+     * @param invalidTurns the number of invalid turns played so far
+     * @param movedPit the pit played to reach this state from the snapshot before it, or SearchEngine.NO_MOVE
+     * @param failures the number of commands that failed so far
+     * @param failure the message of the last command that failed, or null
+     */
+    public BoardSnapshot(MancalaLogic model, long version, int invalidTurns, int movedPit, int failures, String failure)
+    {
+        pits = model.getPits().clone();
+        playerATurn = model.isPlayerATurn();
+        numUndosPlayerA = model.getNumUndosPlayerA();
+        numUndosPlayerB = model.getNumUndosPlayerB();
+        playerAWon = model.playerAWon();
+        playerBWon = model.playerBWon();
+        this.version = version;
+        this.invalidTurns = invalidTurns;
+        this.movedPit = movedPit;
+        this.failures = failures;
+        this.failure = failure;
+    }
+
+    /**
+     * Gets the number of marbles in a pit
+     * @param index the index of the pit
+     * @return the number of marbles in the pit
+     */
+    public int getPit(int index)
+    {
+        return pits[index];
+    }
+
+    /**
+     * Gets a copy of the number of marbles in each pit
+     * @return a new array holding the number of marbles in each pit
+     */
+    public int[] getPits()
+    {
+        return pits.clone();
+    }
+
+    /**
+     * Checks which is the player's turn
+     * @return true if it's player A's turn, false if it's player B's turn
+     */
+    public boolean isPlayerATurn()
+    {
+        return playerATurn;
+    }
+
+    /**
+     * Gets the number of undos for player A
+     */
+    public int getNumUndosPlayerA()
+    {
+        return numUndosPlayerA;
+    }
+
+    /**
+     * Gets the number of undos for player B
+     */
+    public int getNumUndosPlayerB()
+    {
+        return numUndosPlayerB;
+    }
+
+    /**
+     * Checks if player A won the game
+     */
+    public boolean playerAWon()
+    {
+        return playerAWon;
+    }
+
+    /**
+     * Checks if player B won the game
+     */
+    public boolean playerBWon()
+    {
+        return playerBWon;
+    }
+
+    /**
+     * Checks if the game is over
+     */
+    public boolean isGameOver()
+    {
+        return playerAWon || playerBWon;
+    }
+
+    /**
+     * Gets the number of commands played on the model when the snapshot was taken, so a newer
+     * snapshot always has a bigger version
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Gets the number of invalid turns played when the snapshot was taken
+     */
+    public int getInvalidTurns()
+    {
+        return invalidTurns;
+    }
+
+    /**
+     * Gets the pit played to reach this state from the snapshot with the version before it
+     * @return the index of the pit, or SearchEngine.NO_MOVE if the state was reached some other
+     * way, such as an undo or a new game
+     */
+    public int getMovedPit()
+    {
+        return movedPit;
+    }
+
+    /**
+     * Gets the number of commands that failed when the snapshot was taken, such as a computer
+     * move that couldn't be chosen
+     */
+    public int getFailures()
+    {
+        return failures;
+    }
+
+    /**
+     * Gets the message of the last command that failed
+     * @return the message, or null if no command failed
+     */
+    public String getFailure()
+    {
+        return failure;
+    }
+}
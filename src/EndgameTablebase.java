@@ -0,0 +1,415 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An endgame table that holds the exact outcome of every position with at most a given
+ * number of marbles left in pits A1-A6 and B1-B6, under the rules of MancalaLogic.move
+ * (including the sweep into the mancalas at the end of the game).
+ *
+ * The marbles already in the mancalas never move again, so the outcome of a position only
+ * depends on the twelve pits. Each entry is one byte: the most the player to move can gain
+ * over the opponent from the marbles still in play. The position with player B to move is
+ * the same as the mirrored position with player A to move, so only one side is stored.
+ *
+ * Positions are indexed by how many marbles are in play, then by the rank of the twelve pit
+ * counts among all the ways to share that many marbles between twelve pits. The table is
+ * generated from the positions with the fewest marbles up, in parallel, and probed through a
+ * MappedByteBuffer so it's never loaded onto the heap.
+ */
+public class EndgameTablebase
+{
+    public static final int MAX_SEEDS = 24;     //The most marbles in play that still fit in one mapped file
+    public static final int UNKNOWN = Integer.MIN_VALUE;
+
+    private static final int MAGIC = 0x4D544231;   //"MTB1"
+    private static final int HEADER_BYTES = 8;
+    private static final int PITS = 12;
+    private static final int PITS_PER_SIDE = 6;
+    private static final byte NOT_SOLVED = Byte.MIN_VALUE;
+    private static final int POSITIONS_PER_TASK = 1 << 15;
+
+    /*
+    BINOMIAL[n][k] is n choose k, for the ranks of the pit counts
+     */
+    private static final long[][] BINOMIAL = new long[MAX_SEEDS + PITS + 1][PITS + 1];
+
+    static
+    {
+        for (int n = 0; n < BINOMIAL.length; n++)
+        {
+            BINOMIAL[n][0] = 1;
+            for (int k = 1; k <= Math.min(n, PITS); k++)
+            {
+                BINOMIAL[n][k] = BINOMIAL[n - 1][k - 1] + (k <= n - 1 ? BINOMIAL[n - 1][k] : 0);
+            }
+        }
+    }
+
+    private final MappedByteBuffer buffer;
+    private final int maxSeeds;
+
+    private EndgameTablebase(MappedByteBuffer buffer, int maxSeeds)
+    {
+        this.buffer = buffer;
+        this.maxSeeds = maxSeeds;
+    }
+
+    /**
+     * Opens a generated table file
+     * @param file the table file
+     * @return the table, probed straight from the mapped file
+     * @throws IOException if the file can't be read or isn't a table file
+     */
+    public static EndgameTablebase open(Path file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (channel.size() < HEADER_BYTES || buffer.getInt(0) != MAGIC)
+            {
+                throw new IOException("Not an endgame table: " + file);
+            }
+            int maxSeeds = buffer.getInt(4);
+            if (maxSeeds < 0 || maxSeeds > MAX_SEEDS || channel.size() != fileSize(maxSeeds))
+            {
+                throw new IOException("Endgame table has the wrong size: " + file);
+            }
+            return new EndgameTablebase(buffer, maxSeeds);
+        }
+    }
+
+    /**
+     * Gets the most marbles in play the table covers
+     */
+    public int getMaxSeeds()
+    {
+        return maxSeeds;
+    }
+
+    /**
+     * Looks up the outcome of a position
+     * @param board the array holding the state
+     * @param offset the index of the state in the array
+     * @return the most the player to move can gain over the opponent from the marbles in play,
+     * or UNKNOWN if there are more marbles in play than the table covers
+     */
+    public int probe(long[] board, int offset)
+    {
+        boolean playerATurn = PackedBoard.isPlayerATurn(board, offset);
+        int ownFirstPit = playerATurn ? MancalaLogic.FIRST_PIT_A_INDEX : MancalaLogic.FIRST_PIT_B_INDEX;
+        int opponentFirstPit = playerATurn ? MancalaLogic.FIRST_PIT_B_INDEX : MancalaLogic.FIRST_PIT_A_INDEX;
+
+        /*
+        This block of code ranks the pit counts from the side of the player to move without
+        copying them: the rank adds up "position of the j-th divider choose j + 1"
+         */
+        long rank = 0;
+        int position = -1;
+        for (int j = 0; j < PITS - 1; j++)
+        {
+            int pit = j < PITS_PER_SIDE ? ownFirstPit + j : opponentFirstPit + j - PITS_PER_SIDE;
+            position += PackedBoard.get(board, offset, pit) + 1;
+            if (position - j > maxSeeds)
+            {
+                return UNKNOWN;
+            }
+            rank += BINOMIAL[position][j + 1];
+        }
+        int seeds = position - (PITS - 2) + PackedBoard.get(board, offset, opponentFirstPit + PITS_PER_SIDE - 1);
+        if (seeds > maxSeeds)
+        {
+            return UNKNOWN;
+        }
+        return buffer.get((int) (HEADER_BYTES + layerOffset(seeds) + rank));
+    }
+
+    /**
+     * Generates a table file for all the positions with at most maxSeeds marbles in play
+     * @param file the file to write
+     * @param maxSeeds the most marbles in play to cover, up to MAX_SEEDS
+     * @param threads the number of threads to generate with
+     * @throws IOException if the file can't be written
+     */
+    public static void generate(Path file, int maxSeeds, int threads) throws IOException
+    {
+        if (maxSeeds < 0 || maxSeeds > MAX_SEEDS)
+        {
+            throw new IllegalArgumentException("The table can cover 0 to " + MAX_SEEDS + " marbles: " + maxSeeds);
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileSize(maxSeeds));
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, maxSeeds);
+
+            /*
+            Each layer only needs the layers with fewer marbles, which are finished before it starts.
+            Positions in the same layer that depend on each other are solved on demand
+             */
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try
+            {
+                for (int seeds = 0; seeds <= maxSeeds; seeds++)
+                {
+                    int start = (int) (HEADER_BYTES + layerOffset(seeds));
+                    int size = (int) BINOMIAL[seeds + PITS - 1][PITS - 1];
+                    for (int i = 0; i < size; i++)
+                    {
+                        buffer.put(start + i, NOT_SOLVED);
+                    }
+                    pool.invoke(new LayerTask(buffer, seeds, 0, size));
+                }
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+            buffer.force();
+        }
+    }
+
+    /**
+     * Generates a table file
+     * @param args the file to write, the most marbles in play (16 by default) and the number
+     * of threads (all the cores by default)
+     * @throws IOException if the file can't be written
+     */
+    public static void main(String[] args) throws IOException
+    {
+        Path file = Paths.get(args.length > 0 ? args[0] : "endgame.tb");
+        int maxSeeds = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        long start = System.nanoTime();
+        generate(file, maxSeeds, threads);
+        long millis = (System.nanoTime() - start) / 1000000;
+        System.out.println("Wrote " + (fileSize(maxSeeds) - HEADER_BYTES) + " positions with up to " + maxSeeds
+                + " marbles in play to " + file + " in " + millis + " ms on " + threads + " threads");
+    }
+
+    /**
+     * Gets the number of positions with fewer marbles in play than seeds
+     */
+    private static long layerOffset(int seeds)
+    {
+        return BINOMIAL[seeds + PITS - 1][PITS];
+    }
+
+    private static long fileSize(int maxSeeds)
+    {
+        return HEADER_BYTES + layerOffset(maxSeeds + 1);
+    }
+
+    /**
+     * Solves a range of the positions with the same number of marbles in play
+     */
+    private static class LayerTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final MappedByteBuffer buffer;
+        private final int seeds;
+        private final int from;
+        private final int to;
+
+        LayerTask(MappedByteBuffer buffer, int seeds, int from, int to)
+        {
+            this.buffer = buffer;
+            this.seeds = seeds;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from > POSITIONS_PER_TASK)
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new LayerTask(buffer, seeds, from, middle), new LayerTask(buffer, seeds, middle, to));
+                return;
+            }
+
+            Solver solver = new Solver(buffer);
+            int[] dividers = new int[PITS - 1];
+            int[] counts = new int[PITS];
+            unrank(from, dividers);
+            for (int rank = from; rank < to; rank++)
+            {
+                countsFromDividers(dividers, seeds, counts);
+                solver.solve(counts, seeds);
+                nextDividers(dividers, seeds);
+            }
+        }
+    }
+
+    /**
+     * Solves positions by looking one move ahead into the positions already in the table
+     */
+    private static class Solver
+    {
+        private final MappedByteBuffer buffer;
+        private final long[] boards = new long[2 * PackedBoard.STATE_LENGTH];
+        private final int[] pits = new int[MancalaLogic.NUMBER_OF_PITS];
+
+        Solver(MappedByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        /**
+         * Gets the outcome of a position, solving it first if it isn't in the table yet
+         * @param counts the marbles in the pits of the player to move, then the opponent's pits
+         * @param seeds the number of marbles in play
+         */
+        int solve(int[] counts, int seeds)
+        {
+            int index = (int) (HEADER_BYTES + layerOffset(seeds) + rank(counts));
+            byte known = buffer.get(index);
+            if (known != NOT_SOLVED)
+            {
+                return known;
+            }
+
+            int value = compute(counts);
+            buffer.put(index, (byte) value);
+            return value;
+        }
+
+        private int compute(int[] counts)
+        {
+            int ownSum = 0;
+            int opponentSum = 0;
+            for (int i = 0; i < PITS_PER_SIDE; i++)
+            {
+                ownSum += counts[i];
+                opponentSum += counts[i + PITS_PER_SIDE];
+            }
+            if (ownSum == 0 || opponentSum == 0)
+            {
+                return ownSum - opponentSum;    //The game is over and the remaining marbles are swept
+            }
+
+            int best = Integer.MIN_VALUE;
+            int[] next = new int[PITS];
+            for (int pit = MancalaLogic.FIRST_PIT_A_INDEX; pit <= MancalaLogic.LAST_PIT_A_INDEX; pit++)
+            {
+                if (counts[pit - 1] == 0)
+                {
+                    continue;
+                }
+
+                /*
+                The player to move is put on side A of a board with empty mancalas, so the mancalas
+                after the move hold exactly what it gained. The board is filled again for each pit,
+                since solving the next position reuses it
+                 */
+                for (int i = 0; i < PITS_PER_SIDE; i++)
+                {
+                    pits[MancalaLogic.FIRST_PIT_A_INDEX + i] = counts[i];
+                    pits[MancalaLogic.FIRST_PIT_B_INDEX + i] = counts[i + PITS_PER_SIDE];
+                }
+                pits[MancalaLogic.MANCALA_A_INDEX] = 0;
+                pits[MancalaLogic.MANCALA_B_INDEX] = 0;
+                PackedBoard.pack(pits, true, boards, 0);
+                int flags = PackedBoard.move(boards, 0, boards, PackedBoard.STATE_LENGTH, pit);
+                int gain = PackedBoard.mancalaDifference(boards, PackedBoard.STATE_LENGTH);
+
+                int value;
+                if ((flags & PackedBoard.GAME_OVER) != 0)
+                {
+                    value = gain;
+                }
+                else
+                {
+                    boolean extraTurn = (flags & PackedBoard.EXTRA_TURN) != 0;
+                    for (int i = 0; i < PITS_PER_SIDE; i++)
+                    {
+                        int a = PackedBoard.get(boards, PackedBoard.STATE_LENGTH, MancalaLogic.FIRST_PIT_A_INDEX + i);
+                        int b = PackedBoard.get(boards, PackedBoard.STATE_LENGTH, MancalaLogic.FIRST_PIT_B_INDEX + i);
+                        next[i] = extraTurn ? a : b;
+                        next[i + PITS_PER_SIDE] = extraTurn ? b : a;
+                    }
+                    int nextValue = solve(next, PackedBoard.marblesInPlay(boards, PackedBoard.STATE_LENGTH));
+                    value = extraTurn ? gain + nextValue : gain - nextValue;
+                }
+                best = Math.max(best, value);
+            }
+            return best;
+        }
+    }
+
+    /**
+     * Ranks pit counts among all the ways to share the same number of marbles between twelve pits.
+     * Writing the marbles as stars and the pits as separated by eleven dividers, the rank is the
+     * rank of the set of divider positions
+     */
+    private static long rank(int[] counts)
+    {
+        long rank = 0;
+        int position = -1;
+        for (int j = 0; j < PITS - 1; j++)
+        {
+            position += counts[j] + 1;
+            rank += BINOMIAL[position][j + 1];
+        }
+        return rank;
+    }
+
+    /**
+     * Finds the divider positions of a rank
+     */
+    private static void unrank(long rank, int[] dividers)
+    {
+        for (int j = PITS - 2; j >= 0; j--)
+        {
+            int position = j;
+            while (BINOMIAL[position + 1][j + 1] <= rank)
+            {
+                position++;
+            }
+            rank -= BINOMIAL[position][j + 1];
+            dividers[j] = position;
+        }
+    }
+
+    /**
+     * Moves the divider positions to the next rank
+     */
+    private static void nextDividers(int[] dividers, int seeds)
+    {
+        int lastPosition = seeds + PITS - 2;
+        for (int j = 0; j < PITS - 1; j++)
+        {
+            int limit = j == PITS - 2 ? lastPosition : dividers[j + 1] - 1;
+            if (dividers[j] < limit)
+            {
+                dividers[j]++;
+                for (int i = 0; i < j; i++)
+                {
+                    dividers[i] = i;
+                }
+                return;
+            }
+        }
+    }
+
+    private static void countsFromDividers(int[] dividers, int seeds, int[] counts)
+    {
+        int previous = -1;
+        for (int j = 0; j < PITS - 1; j++)
+        {
+            counts[j] = dividers[j] - previous - 1;
+            previous = dividers[j];
+        }
+        counts[PITS - 1] = seeds + PITS - 2 - previous;
+    }
+}
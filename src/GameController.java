@@ -0,0 +1,370 @@
+import javax.swing.*;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs every change to the model on one model thread. Clicks, undos and new games are put on a
+ * queue as commands, and the model thread plays them one at a time, followed by the computer's
+ * moves when it has the turn, so the model needs no locks and a long command (like the computer
+ * searching) never blocks Swing.
+ *
+ * After each command the model thread takes a BoardSnapshot and publishes it on a GameEventBus,
+ * which the model thread doesn't wait on. Change listeners get the snapshots on the event dispatch
+ * thread through one subscription, which sets getSnapshot and then calls every listener in the same
+ * event, so the view, the dialogs and the clicks always agree on the board. If several commands
+ * finish before the event dispatch thread gets to them, only the newest snapshot is delivered, so
+ * a burst of changes is painted once. Spectators and other
+ * observers subscribe to the bus with the executor and queue they need.
+ *
+ * With a MoveJournal, every new game, accepted move and undo is appended to the journal on the
+ * model thread, and the snapshot of a command is only published once its records are on the disk.
+ *
+ * A command or computer move that throws doesn't stop the model thread: the exception is printed,
+ * and the snapshot counts the failure and carries its message, so the view can tell the players.
+ */
+public class GameController
+{
+    private final MancalaLogic model;   //Only used on the model thread
+    private final ExecutorService modelThread;
+    private final GameEventBus events = new GameEventBus("Game events");
+    private final CopyOnWriteArrayList<ChangeListener> listeners = new CopyOnWriteArrayList<>();   //Called by deliver
+    private final long[] board = new long[PackedBoard.STATE_LENGTH];
+    private MovePolicy computerPolicy;  //null when two humans are playing
+    private boolean computerPlaysA;
+    private long version;
+    private int invalidTurns;
+    private int failures;
+    private String failure;     //The message of the last command that failed
+    private int movedPit = SearchEngine.NO_MOVE;    //The pit played by the command being run, if it was one move
+    private MoveJournal journal;    //null when the game isn't saved
+    private int session;
+    private long journalSequence;   //The sequence of the last record appended
+    private volatile BoardSnapshot snapshot;    //The newest snapshot delivered to the event dispatch thread
+
+    /**
+     * Constructor that initializes the instance variables. The model is only used from the
+     * model thread from now on
+     * @param model the model
+     */
+    public GameController(MancalaLogic model)
+    {
+        this.model = model;
+        modelThread = Executors.newSingleThreadExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "Model thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshot = new BoardSnapshot(model, 0, 0);
+        events.subscribe(this::deliver, SwingUtilities::invokeLater, GameEventBus.Overflow.COALESCE, 1);
+    }
+
+    /**
+     * Plays a turn for the player whose turn it is, unless it's the computer's turn
+     * @param index the index of the pit the player clicked on
+     */
+    public void move(int index)
+    {
+        execute(() ->
+        {
+            if (isComputerTurn())
+            {
+                return;     //The click was made before the last turn reached the screen
+            }
+            model.move(index);
+            if (model.turnInvalid())
+            {
+                invalidTurns++;
+            }
+            else
+            {
+                movedPit = index;
+                journal(MoveJournal.MOVE, index);
+            }
+        });
+    }
+
+    /**
+     * Undos the last move if the player who played it has undos left. Against the computer, the
+     * human's last move is taken back instead, see undoHumanMove
+     */
+    public void undo()
+    {
+        execute(() ->
+        {
+            if (computerPolicy != null)
+            {
+                undoHumanMove();
+                return;
+            }
+            int undosLeft = model.getNumUndosPlayerA() + model.getNumUndosPlayerB();
+            model.undo();
+            if (model.getNumUndosPlayerA() + model.getNumUndosPlayerB() < undosLeft)
+            {
+                journal(MoveJournal.UNDO, 0);   //Only undos that took back a move are saved
+            }
+        });
+    }
+
+    /**
+     * Takes back the human's last move against the computer, with the computer's moves played
+     * since, as one of the human's undos. The computer's moves don't use its undos. The human
+     * then has the turn, so the computer doesn't play its moves again until the human moves
+     */
+    private void undoHumanMove()
+    {
+        boolean humanPlaysA = !computerPlaysA;
+        int computerMoves = model.getMovesSince(humanPlaysA);
+        int undosLeft = humanPlaysA ? model.getNumUndosPlayerA() : model.getNumUndosPlayerB();
+        if (computerMoves < 0 || undosLeft == 0)
+        {
+            return;
+        }
+        for (int i = 0; i < computerMoves; i++)
+        {
+            model.unmake();
+            journal(MoveJournal.TAKE_BACK, 0);
+        }
+        model.undo();
+        journal(MoveJournal.UNDO, 0);
+    }
+
+    /**
+     * Starts a new game
+     * @param numberOfStartingMarbles the number of starting marbles
+     */
+    public void newGame(int numberOfStartingMarbles)
+    {
+        execute(() ->
+        {
+            model.fillPitsWithStartingMarbles(numberOfStartingMarbles);
+            journal(MoveJournal.NEW_GAME, numberOfStartingMarbles);
+        });
+    }
+
+    /**
+     * Lets the computer play one of the players. From then on, whenever a command leaves the turn
+     * to the computer, the model thread plays the computer's move right after it, and clicks
+     * during the computer's turn are ignored
+     * @param policy the policy that chooses the computer's moves, or null for two human players
+     * @param playsA true if the computer is player A
+     */
+    public void setComputerPlayer(MovePolicy policy, boolean playsA)
+    {
+        execute(() ->
+        {
+            if (computerPolicy != null && computerPolicy != policy)
+            {
+                computerPolicy.close();     //The controller owns the policies it was given
+            }
+            computerPolicy = policy;
+            computerPlaysA = playsA;
+        });
+    }
+
+    /**
+     * Plays a list of moves as one command, as fast as the model can play them
+     * @param moves the indices of the pits to play
+     */
+    public void replay(int[] moves)
+    {
+        execute(() ->
+        {
+            for (int pit : moves)
+            {
+                model.move(pit);
+                if (!model.turnInvalid())
+                {
+                    journal(MoveJournal.MOVE, pit);
+                }
+            }
+        });
+    }
+
+    /**
+     * Saves the game in a journal from now on. If the journal has a game for the session, that
+     * game is played on the model first, so a game lost when the process died continues
+     * @param journal the journal
+     * @param session the session of this game in the journal
+     */
+    public void setJournal(MoveJournal journal, int session)
+    {
+        execute(() ->
+        {
+            journal.replay(session, model);
+            this.journal = journal;
+            this.session = session;
+        });
+    }
+
+    private void journal(int operation, int argument)
+    {
+        if (journal != null)
+        {
+            journalSequence = journal.append(session, operation, argument);
+        }
+    }
+
+    /**
+     * Waits until the records of the command are on the disk. If the journal fails, the game goes
+     * on without being saved
+     */
+    private void syncJournal()
+    {
+        if (journal == null)
+        {
+            return;
+        }
+        try
+        {
+            journal.sync(journalSequence);
+        }
+        catch (IOException e)
+        {
+            System.err.println("The game is no longer saved: " + e);
+            journal = null;
+        }
+    }
+
+    /**
+     * Puts a command on the queue of the model thread. The command may use the model, and a
+     * snapshot is published when it's done. The computer then plays if the command left it the turn.
+     * If the command or the computer's move throws, the failure is in the snapshot published after it
+     * @param command the command
+     */
+    public void execute(Runnable command)
+    {
+        modelThread.execute(() ->
+        {
+            movedPit = SearchEngine.NO_MOVE;
+            try
+            {
+                command.run();
+            }
+            catch (RuntimeException e)
+            {
+                fail("The command failed", e);
+            }
+            syncJournal();
+            version++;
+            publish(new BoardSnapshot(model, version, invalidTurns, movedPit, failures, failure));
+
+            /*
+            This block of code plays the computer's turns, showing each one as it's played.
+            The policy searches here on the model thread, so the board can't change during the search.
+            If the computer can't move, it tries again after the next command
+             */
+            while (isComputerTurn())
+            {
+                int pit;
+                try
+                {
+                    model.packInto(board, 0);
+                    pit = computerPolicy.chooseMove(board, 0);
+                    if (pit == SearchEngine.NO_MOVE)
+                    {
+                        break;
+                    }
+                    model.move(pit);
+                    journal(MoveJournal.MOVE, pit);
+                }
+                catch (RuntimeException e)
+                {
+                    fail("The computer couldn't move", e);
+                    pit = SearchEngine.NO_MOVE;
+                }
+                syncJournal();
+                version++;
+                publish(new BoardSnapshot(model, version, invalidTurns, pit, failures, failure));
+                if (pit == SearchEngine.NO_MOVE)
+                {
+                    break;
+                }
+            }
+        });
+    }
+
+    /**
+     * Counts a command that threw, so the next snapshot tells the players
+     */
+    private void fail(String message, RuntimeException e)
+    {
+        e.printStackTrace();
+        failures++;
+        failure = message + ": " + e;
+    }
+
+    private boolean isComputerTurn()
+    {
+        return computerPolicy != null && model.isPlayerATurn() == computerPlaysA && !model.playerAWon() && !model.playerBWon();
+    }
+
+    /**
+     * Gets the newest snapshot delivered to the event dispatch thread
+     */
+    public BoardSnapshot getSnapshot()
+    {
+        return snapshot;
+    }
+
+    /**
+     * Adds a listener that gets each delivered snapshot as the source of its ChangeEvent,
+     * on the event dispatch thread
+     * @param listener the change listener to be added
+     */
+    public void addChangeListener(ChangeListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    /**
+     * Sets the snapshot and calls the listeners with it, on the event dispatch thread
+     */
+    private void deliver(ChangeEvent event)
+    {
+        snapshot = (BoardSnapshot) event.getSource();
+        for (ChangeListener listener : listeners)
+        {
+            listener.stateChanged(event);
+        }
+    }
+
+    /**
+     * Gets the bus the snapshots are published on, for observers that subscribe off the event
+     * dispatch thread
+     */
+    public GameEventBus getEvents()
+    {
+        return events;
+    }
+
+    /**
+     * Stops the model thread and the event bus once the commands on the queue are done, and
+     * closes the computer's policy
+     */
+    public void shutdown()
+    {
+        modelThread.execute(() ->
+        {
+            if (computerPolicy != null)
+            {
+                computerPolicy.close();
+                computerPolicy = null;
+            }
+            events.close();
+        });
+        modelThread.shutdown();
+    }
+
+    /**
+     * Publishes a snapshot without waiting for the listeners
+     */
+    private void publish(BoardSnapshot newSnapshot)
+    {
+        events.publish(newSnapshot);
+    }
+}
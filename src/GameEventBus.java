@@ -0,0 +1,355 @@
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands the snapshots of a game to its observers, such as views and spectators, without making
+ * the player who moved wait for them. publish only puts the snapshot's ChangeEvent on a queue, so
+ * it takes the same time with one observer or thousands. A dispatcher thread takes the events off
+ * that queue in batches and copies them to the queue of each subscription, and each subscription
+ * delivers its events in order on its own executor, one task for all the events waiting.
+ *
+ * The queue of a subscription is bounded, so a slow observer can't hold on to the events of the
+ * whole game. When it's full, its Overflow decides what is lost: COALESCE keeps only the newest
+ * snapshot, which is all a view painting the board needs, while DROP_OLDEST and DROP_NEWEST keep
+ * a window of the events, for observers that want every move while they keep up. A subscription
+ * counts the events it lost.
+ *
+ * Subscriptions are kept in a CopyOnWriteArrayList, so observers can subscribe and cancel from
+ * any thread, even from inside a listener, while events are being dispatched. Listeners that
+ * block should get their own executor, since the shared one has only a few threads.
+ */
+public class GameEventBus implements Closeable
+{
+    public static final int DEFAULT_CAPACITY = 64;
+    public static final int MAX_BATCH = 256;    //Events taken off a queue at once
+    public static final int PUBLISHED_CAPACITY = 4096;  //Events waiting for the dispatcher before the oldest are dropped
+
+    /**
+     * What a subscription does with an event when its queue is full
+     */
+    public enum Overflow
+    {
+        COALESCE,       //Keeps only the newest event
+        DROP_OLDEST,    //Drops the oldest event waiting to make room
+        DROP_NEWEST     //Drops the new event
+    }
+
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final ArrayBlockingQueue<ChangeEvent> published = new ArrayBlockingQueue<>(PUBLISHED_CAPACITY);
+    private final String name;
+    private final Thread dispatcher;
+    private final AtomicLong numberPublished = new AtomicLong();
+    private final AtomicLong numberDropped = new AtomicLong();     //Dropped before the dispatcher got to them
+    private ExecutorService sharedExecutor;     //null until a subscription uses it, guarded by this
+    private volatile boolean closed;
+
+    /**
+     * A listener's place on the bus, with its queue of events waiting to be delivered
+     */
+    public class Subscription
+    {
+        private final ChangeListener listener;
+        private final Executor executor;
+        private final Overflow overflow;
+        private final ChangeEvent[] queue;      //A ring of the events waiting, guarded by this
+        private final ChangeEvent[] delivering; //Only used by the task delivering
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final Runnable deliverTask = this::deliver;
+        private int head;
+        private int size;
+        private long dropped;
+        private long delivered;
+        private volatile boolean cancelled;
+
+        private Subscription(ChangeListener listener, Executor executor, Overflow overflow, int capacity)
+        {
+            this.listener = listener;
+            this.executor = executor;
+            this.overflow = overflow;
+            queue = new ChangeEvent[overflow == Overflow.COALESCE ? 1 : capacity];
+            delivering = new ChangeEvent[Math.min(queue.length, MAX_BATCH)];
+        }
+
+        /**
+         * Puts a batch of events on the queue and schedules their delivery, unless it's scheduled.
+         * Called on the dispatcher thread
+         */
+        private void offer(List<ChangeEvent> events)
+        {
+            synchronized (this)
+            {
+                int first = 0;
+                if (overflow == Overflow.COALESCE)
+                {
+                    first = events.size() - 1;  //The older events of the batch are replaced right away
+                    dropped += first;
+                }
+                for (int i = first; i < events.size(); i++)
+                {
+                    if (size == queue.length)
+                    {
+                        dropped++;
+                        if (overflow == Overflow.DROP_NEWEST)
+                        {
+                            continue;
+                        }
+                        queue[head] = null;
+                        head = (head + 1) % queue.length;
+                        size--;
+                    }
+                    queue[(head + size) % queue.length] = events.get(i);
+                    size++;
+                }
+            }
+            schedule();
+        }
+
+        private void schedule()
+        {
+            if (!cancelled && scheduled.compareAndSet(false, true))
+            {
+                executor.execute(deliverTask);
+            }
+        }
+
+        /**
+         * Delivers the events waiting, at most MAX_BATCH of them, then schedules itself again
+         * if more came in meanwhile. Runs on the subscription's executor, one task at a time
+         */
+        private void deliver()
+        {
+            int count;
+            synchronized (this)
+            {
+                count = Math.min(size, delivering.length);
+                for (int i = 0; i < count; i++)
+                {
+                    delivering[i] = queue[head];
+                    queue[head] = null;
+                    head = (head + 1) % queue.length;
+                }
+                size -= count;
+            }
+            for (int i = 0; i < count; i++)
+            {
+                if (!cancelled)
+                {
+                    try
+                    {
+                        listener.stateChanged(delivering[i]);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        //One failed event shouldn't stop the observer from getting the next ones
+                        System.err.println("A game event listener failed:");
+                        e.printStackTrace();
+                    }
+                }
+                delivering[i] = null;
+            }
+            scheduled.set(false);   //Before looking for more, so an event offered meanwhile isn't missed
+            boolean more;
+            synchronized (this)
+            {
+                delivered += count;
+                more = size > 0;
+            }
+            if (more)
+            {
+                schedule();
+            }
+        }
+
+        /**
+         * Stops delivering events to the listener. Events already being delivered may still arrive
+         */
+        public void cancel()
+        {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        /**
+         * Gets the number of events dropped or coalesced because the queue was full
+         */
+        public synchronized long getDropped()
+        {
+            return dropped;
+        }
+
+        /**
+         * Gets the number of events delivered to the listener
+         */
+        public synchronized long getDelivered()
+        {
+            return delivered;
+        }
+
+        /**
+         * Gets the number of events waiting to be delivered
+         */
+        public synchronized int getWaiting()
+        {
+            return size;
+        }
+    }
+
+    /**
+     * Constructor that starts the dispatcher thread. The shared executor is only started once a
+     * subscription uses it
+     * @param name the name of the bus, given to its threads
+     */
+    public GameEventBus(String name)
+    {
+        this.name = name;
+        dispatcher = new Thread(this::dispatch, name + " dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    /**
+     * Subscribes a listener that gets its events on the shared executor, with a queue of
+     * DEFAULT_CAPACITY events that drops the oldest when it's full
+     * @param listener the listener, which gets each BoardSnapshot as the source of its ChangeEvent
+     * @return the subscription
+     */
+    public Subscription subscribe(ChangeListener listener)
+    {
+        return subscribe(listener, getSharedExecutor(), Overflow.DROP_OLDEST, DEFAULT_CAPACITY);
+    }
+
+    private synchronized ExecutorService getSharedExecutor()
+    {
+        if (sharedExecutor == null)
+        {
+            sharedExecutor = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), runnable ->
+            {
+                Thread thread = new Thread(runnable, name + " listener");
+                thread.setDaemon(true);
+                return thread;
+            });
+            if (closed)
+            {
+                sharedExecutor.shutdown();
+            }
+        }
+        return sharedExecutor;
+    }
+
+    /**
+     * Subscribes a listener
+     * @param listener the listener, which gets each BoardSnapshot as the source of its ChangeEvent
+     * @param executor runs the deliveries, such as SwingUtilities::invokeLater for a view
+     * @param overflow what is lost when the queue is full
+     * @param capacity the number of events that can wait, ignored by COALESCE
+     * @return the subscription
+     */
+    public Subscription subscribe(ChangeListener listener, Executor executor, Overflow overflow, int capacity)
+    {
+        if (capacity < 1)
+        {
+            throw new IllegalArgumentException("A subscription needs room for an event");
+        }
+        Subscription subscription = new Subscription(listener, executor, overflow, capacity);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Publishes a snapshot to the subscriptions. Never blocks: if the dispatcher is
+     * PUBLISHED_CAPACITY events behind, the oldest of them is dropped
+     * @param snapshot the snapshot
+     */
+    public void publish(BoardSnapshot snapshot)
+    {
+        if (closed || subscriptions.isEmpty())
+        {
+            return;
+        }
+        ChangeEvent event = new ChangeEvent(snapshot);  //Shared by every subscription
+        while (!published.offer(event))
+        {
+            if (published.poll() != null)
+            {
+                numberDropped.incrementAndGet();
+            }
+        }
+        numberPublished.incrementAndGet();
+    }
+
+    /**
+     * Takes the published events in batches and hands them to every subscription
+     */
+    private void dispatch()
+    {
+        List<ChangeEvent> batch = new ArrayList<>(MAX_BATCH);
+        while (!closed)
+        {
+            try
+            {
+                batch.add(published.take());
+            }
+            catch (InterruptedException e)
+            {
+                return;     //The bus was closed
+            }
+            published.drainTo(batch, MAX_BATCH - 1);
+            for (Subscription subscription : subscriptions)
+            {
+                subscription.offer(batch);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Gets the number of subscriptions
+     */
+    public int getSubscriptions()
+    {
+        return subscriptions.size();
+    }
+
+    /**
+     * Gets the number of events published while there were subscriptions
+     */
+    public long getPublished()
+    {
+        return numberPublished.get();
+    }
+
+    /**
+     * Gets the number of events dropped before they got to the subscriptions
+     */
+    public long getDropped()
+    {
+        return numberDropped.get();
+    }
+
+    /**
+     * Stops the dispatcher and the shared executor. Events not yet dispatched are dropped
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        dispatcher.interrupt();
+        synchronized (this)
+        {
+            if (sharedExecutor != null)
+            {
+                sharedExecutor.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,268 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Draws the states of a game into PNG images without a window, for thumbnails and for looking
+ * through a game frame by frame. It works with java.awt.headless=true.
+ *
+ * Each thread has its own BoardRenderer, image and PngEncoder, made once and used for every frame it
+ * draws, so a frame allocates little. The threads take the next frame from a shared counter,
+ * draw it and encode it, so the encoding, which takes most of the time, is spread over the cores.
+ * Frames are drawn like the game draws them, with the marbles scattered the same way every time,
+ * so exporting a game again gives the same images.
+ *
+ * Usage: java -Djava.awt.headless=true GameImageExporter directory [marbles 3 or 4] [width height]
+ * [threads] [layout] [moves], where moves are the indices of the pits played, separated by commas.
+ * Without moves a random game is exported.
+ */
+public class GameImageExporter
+{
+    public static final int PNG_LEVEL = Deflater.BEST_SPEED;   //The frames are simple, so harder compression saves little
+    private static final int FILE_BUFFER_BYTES = 64 * 1024;
+
+    private final Worker[] workers;
+    private final ExecutorService pool;
+    private long framesExported;
+    private long exportNanos;
+
+    /**
+     * Constructor that makes the renderer and image of each thread
+     * @param layoutName one of LayoutAssets.LAYOUT_NAMES
+     * @param width the width of the images
+     * @param height the height of the images
+     * @param threads the number of threads that draw and encode frames
+     */
+    public GameImageExporter(String layoutName, int width, int height, int threads)
+    {
+        Layout layout = LayoutAssets.getLayout(layoutName);
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; i++)
+        {
+            workers[i] = new Worker(layout, width, height);
+        }
+        pool = Executors.newFixedThreadPool(threads, runnable ->
+        {
+            Thread thread = new Thread(runnable, "Image exporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Plays a game and keeps the state after each move. Invalid moves are left out
+     * @param marbles the number of starting marbles
+     * @param moves the indices of the pits played
+     * @return the starting state followed by the state after each move
+     */
+    public static List<BoardSnapshot> replay(int marbles, int[] moves)
+    {
+        MancalaLogic model = new MancalaLogic();
+        model.fillPitsWithStartingMarbles(marbles);
+        List<BoardSnapshot> states = new ArrayList<>();
+        states.add(new BoardSnapshot(model, 0, 0));
+        for (int pit : moves)
+        {
+            model.move(pit);
+            if (!model.turnInvalid())
+            {
+                states.add(new BoardSnapshot(model, states.size(), 0, pit));
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Draws one state into a new image, such as a thumbnail
+     * @param state the state of the game
+     * @return the image
+     */
+    public synchronized BufferedImage render(BoardSnapshot state)
+    {
+        BufferedImage frame = workers[0].render(state);
+        BufferedImage copy = new BufferedImage(frame.getWidth(), frame.getHeight(), frame.getType());
+        Graphics2D g2 = copy.createGraphics();
+        g2.drawImage(frame, 0, 0, null);
+        g2.dispose();
+        return copy;
+    }
+
+    /**
+     * Writes a PNG image of each state, named prefix-0000.png, prefix-0001.png and so on
+     * @param states the states of the game, in order
+     * @param directory the directory the images are written to, made if it doesn't exist
+     * @param prefix the start of the name of each image
+     * @throws IOException if an image can't be written
+     */
+    public synchronized void export(List<BoardSnapshot> states, File directory, String prefix) throws IOException
+    {
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Cannot make directory " + directory);
+        }
+        long start = System.nanoTime();
+        AtomicInteger next = new AtomicInteger();
+        List<Future<?>> running = new ArrayList<>();
+        for (Worker worker : workers)
+        {
+            running.add(pool.submit(() ->
+            {
+                for (int i = next.getAndIncrement(); i < states.size(); i = next.getAndIncrement())
+                {
+                    worker.write(states.get(i), new File(directory, String.format("%s-%04d.png", prefix, i)));
+                }
+                return null;
+            }));
+        }
+
+        try
+        {
+            for (Future<?> worker : running)
+            {
+                worker.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while exporting", e);
+        }
+        catch (ExecutionException e)
+        {
+            next.set(states.size());    //Stops the other threads
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+        finally
+        {
+            exportNanos += System.nanoTime() - start;
+        }
+        framesExported += states.size();
+    }
+
+    /**
+     * Gets the number of frames written by export per second, over all the calls so far
+     */
+    public double getFramesPerSecond()
+    {
+        return exportNanos == 0 ? 0 : framesExported * 1e9 / exportNanos;
+    }
+
+    /**
+     * Stops the threads
+     */
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    /**
+     * The renderer, image and PNG encoder of one thread. The renderer isn't a Swing component,
+     * so drawing a frame starts no timers and doesn't count as the game's first frame painted
+     */
+    private static class Worker
+    {
+        private final BoardRenderer renderer = new BoardRenderer(new MarbleSpriteCache(MancalaLabel.SPRITE_CACHE_BYTES));
+        private final BufferedImage frame;
+        private final Graphics2D g2;
+        private final PngEncoder encoder = new PngEncoder(PNG_LEVEL);
+
+        Worker(Layout layout, int width, int height)
+        {
+            renderer.setLayout(layout);
+            renderer.setSize(width, height);
+            frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            g2 = frame.createGraphics();
+        }
+
+        BufferedImage render(BoardSnapshot state)
+        {
+            renderer.paintFrame(g2, state);
+            return frame;
+        }
+
+        void write(BoardSnapshot state, File file) throws IOException
+        {
+            render(state);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), FILE_BUFFER_BYTES))
+            {
+                encoder.write(frame, out);
+            }
+        }
+    }
+
+    /**
+     * Exports the frames of a game
+     * @param args see the class comment
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: java -Djava.awt.headless=true GameImageExporter directory [marbles 3 or 4] [width height] [threads] [layout] [moves]");
+            return;
+        }
+        File directory = new File(args[0]);
+        int marbles = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int width = args.length > 3 ? Integer.parseInt(args[2]) : BoardGeometry.BOARD_WIDTH;
+        int height = args.length > 3 ? Integer.parseInt(args[3]) : BoardGeometry.BOARD_HEIGHT;
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        String layoutName = args.length > 5 ? args[5] : LayoutAssets.REGULAR;
+
+        int[] moves;
+        if (args.length > 6)
+        {
+            String[] pits = args[6].split(",");
+            moves = new int[pits.length];
+            for (int i = 0; i < pits.length; i++)
+            {
+                moves[i] = Integer.parseInt(pits[i].trim());
+            }
+        }
+        else
+        {
+            moves = randomGame(marbles, System.nanoTime());
+        }
+
+        List<BoardSnapshot> states = replay(marbles, moves);
+        GameImageExporter exporter = new GameImageExporter(layoutName, width, height, threads);
+        exporter.export(states, directory, "frame");    //The first export warms up the drawing and encoding
+        long start = System.nanoTime();
+        exporter.export(states, directory, "frame");
+        long elapsed = System.nanoTime() - start;
+        exporter.shutdown();
+        System.out.printf("Exported %d frames of %dx%d to %s with %d threads: %.0f frames/second%n",
+                states.size(), width, height, directory, threads, states.size() * 1e9 / elapsed);
+    }
+
+    /**
+     * Plays a game of random moves
+     */
+    private static int[] randomGame(int marbles, long seed)
+    {
+        MancalaLogic model = new MancalaLogic();
+        model.fillPitsWithStartingMarbles(marbles);
+        MovePolicy policy = new RandomPolicy(seed);
+        long[] board = new long[PackedBoard.STATE_LENGTH];
+        List<Integer> moves = new ArrayList<>();
+        while (!model.playerAWon() && !model.playerBWon())
+        {
+            model.packInto(board, 0);
+            int pit = policy.chooseMove(board, 0);
+            model.move(pit);
+            moves.add(pit);
+        }
+        return moves.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
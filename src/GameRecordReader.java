@@ -0,0 +1,315 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the games written by GameRecordWriter. The file is memory mapped and read in place,
+ * a window of WINDOW_BYTES at a time, and each game and event is handed to a Visitor, so scanning
+ * a file of millions of games makes no object for a game or a move and runs at the speed the
+ * file can be read. A reader is used by one thread.
+ */
+public class GameRecordReader implements Closeable
+{
+    public static final int WINDOW_BYTES = 1 << 30;
+    private static final int MAX_GAME_HEADER_BYTES = 6;
+
+    /**
+     * Gets the games of a file, one event at a time
+     */
+    public interface Visitor
+    {
+        /**
+         * Called at the start of each game
+         * @param marbles the number of starting marbles
+         * @param layout the index of the layout in LayoutAssets.LAYOUT_NAMES
+         * @param result GameRecordWriter.UNFINISHED, A_WON, B_WON or DRAW
+         * @param events the number of moves and undos in the game
+         * @return false to skip the events of the game, which then isn't ended either
+         */
+        boolean startGame(int marbles, int layout, int result, int events);
+
+        /**
+         * Called for each move of a game
+         * @param index the index of the pit played
+         */
+        void move(int index);
+
+        /**
+         * Called for each undo of a game
+         */
+        void undo();
+
+        /**
+         * Called after the last event of a game
+         */
+        void endGame();
+    }
+
+    private final FileChannel channel;
+    private final long size;
+
+    /**
+     * Constructor that opens a file and checks its header
+     * @param file the file written by GameRecordWriter
+     * @throws IOException if the file can't be read or isn't a file of games
+     */
+    public GameRecordReader(Path file) throws IOException
+    {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(GameRecordWriter.FILE_HEADER_BYTES);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0)
+        {
+        }
+        if (header.position() < GameRecordWriter.FILE_HEADER_BYTES || header.getInt(0) != GameRecordWriter.MAGIC)
+        {
+            channel.close();
+            throw new IOException(file + " is not a file of games");
+        }
+        if (header.get(4) != GameRecordWriter.FORMAT_VERSION)
+        {
+            channel.close();
+            throw new IOException(file + " has games of version " + header.get(4));
+        }
+    }
+
+    /**
+     * Reads every game of the file
+     * @param visitor gets the games and their events
+     * @return the number of games read
+     * @throws IOException if the file can't be read or a game is cut off or damaged
+     */
+    public long scan(Visitor visitor) throws IOException
+    {
+        long games = 0;
+        long base = GameRecordWriter.FILE_HEADER_BYTES;   //Where the window starts in the file
+        MappedByteBuffer window = map(base);
+        int position = 0;
+        while (base + position < size)
+        {
+            /*
+            This block of code moves the window up to the game when the game might not fit in it
+             */
+            if (window.limit() - position < MAX_GAME_HEADER_BYTES && base + window.limit() < size)
+            {
+                base += position;
+                window = map(base);
+                position = 0;
+            }
+
+            int start = position;
+            int header = window.get(position++) & 0xFF;
+            int events = 0;
+            for (int shift = 0; ; shift += 7)
+            {
+                if (position == window.limit() || shift > 28)
+                {
+                    throw new IOException("Game at byte " + (base + start) + " is cut off");
+                }
+                int b = window.get(position++);
+                events |= (b & 0x7F) << shift;
+                if (b >= 0)
+                {
+                    break;
+                }
+            }
+            int bytes = (events + 1) >>> 1;
+            if (window.limit() - position < bytes)
+            {
+                if (base + start + (position - start) + bytes > size)
+                {
+                    throw new IOException("Game at byte " + (base + start) + " is cut off");
+                }
+                if (start == 0)
+                {
+                    throw new IOException("Game at byte " + base + " is longer than a window");
+                }
+                base += start;
+                window = map(base);
+                position -= start;
+            }
+
+            games++;
+            if (visitor.startGame(GameRecordWriter.getMarbles(header), GameRecordWriter.getLayout(header),
+                    GameRecordWriter.getResult(header), events))
+            {
+                for (int i = 0; i < events; i++)
+                {
+                    int b = window.get(position + (i >>> 1));
+                    int event = (i & 1) == 0 ? b >>> 4 & 0xF : b & 0xF;
+                    if (event == GameRecordWriter.UNDO)
+                    {
+                        visitor.undo();
+                    }
+                    else if (event >= MancalaLogic.FIRST_PIT_A_INDEX && event <= MancalaLogic.LAST_PIT_B_INDEX && event != MancalaLogic.MANCALA_A_INDEX)
+                    {
+                        visitor.move(event);
+                    }
+                    else
+                    {
+                        throw new IOException("Game at byte " + (base + start) + " has a move from pit " + event);
+                    }
+                }
+                visitor.endGame();
+            }
+            position += bytes;
+        }
+        return games;
+    }
+
+    private MappedByteBuffer map(long offset) throws IOException
+    {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_BYTES, size - offset));
+    }
+
+    /**
+     * Gets the size of the file in bytes
+     */
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Closes the file
+     * @throws IOException if the file can't be closed
+     */
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     * A visitor that replays each game on a MancalaLogic, and counts the finished games whose
+     * replay doesn't end with the result that was written
+     */
+    public static class Replayer implements Visitor
+    {
+        private final MancalaLogic model = new MancalaLogic();
+        private int result;
+        private long moves;
+        private long mismatches;
+        private final long[] results = new long[4];
+
+        @Override
+        public boolean startGame(int marbles, int layout, int result, int events)
+        {
+            model.fillPitsWithStartingMarbles(marbles);
+            this.result = result;
+            return true;
+        }
+
+        @Override
+        public void move(int index)
+        {
+            model.move(index);
+            moves++;
+        }
+
+        @Override
+        public void undo()
+        {
+            model.undo();
+        }
+
+        @Override
+        public void endGame()
+        {
+            int replayed = GameRecordWriter.resultOf(model);
+            results[replayed]++;
+            if (result != GameRecordWriter.UNFINISHED && replayed != result)
+            {
+                mismatches++;
+            }
+        }
+
+        /**
+         * Gets the model, which holds the last game replayed once endGame is called
+         */
+        public MancalaLogic getModel()
+        {
+            return model;
+        }
+
+        /**
+         * Gets the number of moves replayed
+         */
+        public long getMoves()
+        {
+            return moves;
+        }
+
+        /**
+         * Gets the number of games whose replay ended with a different result than was written
+         */
+        public long getMismatches()
+        {
+            return mismatches;
+        }
+
+        /**
+         * Gets the number of games replayed with a result
+         * @param result GameRecordWriter.UNFINISHED, A_WON, B_WON or DRAW
+         */
+        public long getGames(int result)
+        {
+            return results[result];
+        }
+    }
+
+    /**
+     * Scans a file of games, only counting them and their moves, then replays every game
+     * Usage: java GameRecordReader file
+     * @param args see above
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: java GameRecordReader file");
+            return;
+        }
+        try (GameRecordReader reader = new GameRecordReader(Paths.get(args[0])))
+        {
+            long[] events = new long[1];
+            long start = System.nanoTime();
+            long games = reader.scan(new Visitor()
+            {
+                public boolean startGame(int marbles, int layout, int result, int count)
+                {
+                    events[0] += count;
+                    return true;
+                }
+
+                public void move(int index)
+                {
+                }
+
+                public void undo()
+                {
+                }
+
+                public void endGame()
+                {
+                }
+            });
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Scanned %d games, %d events, %.1f MB in %.2f s: %.0f MB/s%n",
+                    games, events[0], reader.getSize() / 1e6, seconds, reader.getSize() / 1e6 / seconds);
+
+            Replayer replayer = new Replayer();
+            start = System.nanoTime();
+            reader.scan(replayer);
+            seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Replayed %d moves in %.2f s: A won %d, B won %d, draws %d, unfinished %d, %d mismatches%n",
+                    replayer.getMoves(), seconds, replayer.getGames(GameRecordWriter.A_WON), replayer.getGames(GameRecordWriter.B_WON),
+                    replayer.getGames(GameRecordWriter.DRAW), replayer.getGames(GameRecordWriter.UNFINISHED), replayer.getMismatches());
+        }
+    }
+}
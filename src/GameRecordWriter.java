@@ -0,0 +1,275 @@
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes played games to a stream in a compact binary format, to archive and analyze many games.
+ *
+ * A file starts with FILE_HEADER_BYTES bytes: the magic number "MNCL", the format version and
+ * three reserved bytes. Then come the games, one after the other:
+ *   one byte: the starting marbles in bits 0-3, the index of the layout in LayoutAssets.LAYOUT_NAMES
+ *             in bits 4-5 and the result in bits 6-7
+ *   the number of events, as an unsigned varint (7 bits a byte, low bits first)
+ *   the events, two to a byte, the first in the high four bits: the index of the pit played
+ *   (1-6 or 8-13) or UNDO. An odd number of events leaves the last low four bits 0
+ * A typical game of 40 moves takes 22 bytes. Replaying the events with MancalaLogic.move and
+ * MancalaLogic.undo after MancalaLogic.fillPitsWithStartingMarbles rebuilds the game exactly.
+ *
+ * A game is written with startGame, then move and undo as it is played, then endGame. The events
+ * are kept in an array that is reused for every game, so writing allocates nothing after the first
+ * games. A writer is used by one thread.
+ */
+public class GameRecordWriter implements Closeable
+{
+    public static final int MAGIC = 0x4D4E434C;     //"MNCL"
+    public static final int FORMAT_VERSION = 1;
+    public static final int FILE_HEADER_BYTES = 8;
+    public static final int UNDO = 0xF;
+    public static final int MAX_MARBLES = 0xF;
+
+    /*
+    These are the results a game can have
+     */
+    public static final int UNFINISHED = 0;
+    public static final int A_WON = 1;
+    public static final int B_WON = 2;
+    public static final int DRAW = 3;
+
+    private static final int LAYOUT_SHIFT = 4;
+    private static final int RESULT_SHIFT = 6;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private final OutputStream out;
+    private final byte[] header = new byte[6];  //The game's header byte and at most five bytes of varint
+    private byte[] events = new byte[64];       //The events of the game being written, two to a byte
+    private int numberOfEvents;
+    private int marbles;
+    private int layout;
+    private boolean writing;
+    private long games;
+
+    /**
+     * Constructor that writes the header of the file
+     * @param out the stream the games are written to
+     * @throws IOException if the stream can't be written
+     */
+    public GameRecordWriter(OutputStream out) throws IOException
+    {
+        this.out = out;
+        byte[] fileHeader = new byte[FILE_HEADER_BYTES];
+        fileHeader[0] = (byte) (MAGIC >>> 24);
+        fileHeader[1] = (byte) (MAGIC >>> 16);
+        fileHeader[2] = (byte) (MAGIC >>> 8);
+        fileHeader[3] = (byte) MAGIC;
+        fileHeader[4] = FORMAT_VERSION;
+        out.write(fileHeader);
+    }
+
+    /**
+     * Constructor that writes the games to a new file
+     * @param fileName the name of the file
+     * @throws IOException if the file can't be made
+     */
+    public GameRecordWriter(String fileName) throws IOException
+    {
+        this(new BufferedOutputStream(new FileOutputStream(fileName), BUFFER_BYTES));
+    }
+
+    /**
+     * Starts a game. A game that was started and not ended is dropped
+     * @param marbles the number of starting marbles, from 1 to MAX_MARBLES
+     * @param layout the index of the layout in LayoutAssets.LAYOUT_NAMES
+     */
+    public void startGame(int marbles, int layout)
+    {
+        if (marbles < 1 || marbles > MAX_MARBLES)
+        {
+            throw new IllegalArgumentException("Cannot record " + marbles + " starting marbles");
+        }
+        if (layout < 0 || layout >= LayoutAssets.LAYOUT_NAMES.length)
+        {
+            throw new IllegalArgumentException("No layout " + layout);
+        }
+        this.marbles = marbles;
+        this.layout = layout;
+        numberOfEvents = 0;
+        writing = true;
+    }
+
+    /**
+     * Adds a move to the game being written
+     * @param index the index of the pit played
+     */
+    public void move(int index)
+    {
+        if (index == MancalaLogic.MANCALA_A_INDEX || index < MancalaLogic.FIRST_PIT_A_INDEX || index > MancalaLogic.LAST_PIT_B_INDEX)
+        {
+            throw new IllegalArgumentException("Pit " + index + " can't be played");
+        }
+        addEvent(index);
+    }
+
+    /**
+     * Adds an undo to the game being written. Only undos that took back a move should be added,
+     * since replaying the game counts each one against the player's undos
+     */
+    public void undo()
+    {
+        addEvent(UNDO);
+    }
+
+    private void addEvent(int event)
+    {
+        if (!writing)
+        {
+            throw new IllegalStateException("No game was started");
+        }
+        int i = numberOfEvents >> 1;
+        if (i == events.length)
+        {
+            events = Arrays.copyOf(events, events.length * 2);
+        }
+        if ((numberOfEvents & 1) == 0)
+        {
+            events[i] = (byte) (event << 4);
+        }
+        else
+        {
+            events[i] |= (byte) event;
+        }
+        numberOfEvents++;
+    }
+
+    /**
+     * Ends the game being written and writes it to the stream
+     * @param result UNFINISHED, A_WON, B_WON or DRAW
+     * @throws IOException if the stream can't be written
+     */
+    public void endGame(int result) throws IOException
+    {
+        if (!writing)
+        {
+            throw new IllegalStateException("No game was started");
+        }
+        writing = false;
+        header[0] = (byte) (marbles | layout << LAYOUT_SHIFT | (result & 3) << RESULT_SHIFT);
+        int length = 1;
+        int count = numberOfEvents;
+        while (count >= 0x80)
+        {
+            header[length++] = (byte) (count | 0x80);
+            count >>>= 7;
+        }
+        header[length++] = (byte) count;
+        out.write(header, 0, length);
+        out.write(events, 0, (numberOfEvents + 1) >> 1);
+        games++;
+    }
+
+    /**
+     * Gets the number of games written
+     */
+    public long getGames()
+    {
+        return games;
+    }
+
+    /**
+     * Gets the result of a game to write with endGame
+     * @param model the game
+     * @return UNFINISHED, A_WON, B_WON or DRAW
+     */
+    public static int resultOf(MancalaLogic model)
+    {
+        if (model.playerAWon())
+        {
+            return model.playerBWon() ? DRAW : A_WON;
+        }
+        return model.playerBWon() ? B_WON : UNFINISHED;
+    }
+
+    /**
+     * Gets the starting marbles from the header byte of a game
+     */
+    static int getMarbles(int header)
+    {
+        return header & MAX_MARBLES;
+    }
+
+    /**
+     * Gets the layout from the header byte of a game
+     */
+    static int getLayout(int header)
+    {
+        return header >>> LAYOUT_SHIFT & 3;
+    }
+
+    /**
+     * Gets the result from the header byte of a game
+     */
+    static int getResult(int header)
+    {
+        return header >>> RESULT_SHIFT & 3;
+    }
+
+    /**
+     * Writes the games still buffered and closes the stream
+     * @throws IOException if the stream can't be written
+     */
+    @Override
+    public void close() throws IOException
+    {
+        out.close();
+    }
+
+    /**
+     * Writes games of random moves, with an undo now and then, to try out the format
+     * Usage: java GameRecordWriter file [games] [marbles 3 or 4] [seed]
+     * @param args see above
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: java GameRecordWriter file [games] [marbles 3 or 4] [seed]");
+            return;
+        }
+        int numberOfGames = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int marbles = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+
+        MancalaLogic model = new MancalaLogic();
+        MovePolicy policy = new RandomPolicy(seed);
+        long[] board = new long[PackedBoard.STATE_LENGTH];
+        long start = System.nanoTime();
+        try (GameRecordWriter writer = new GameRecordWriter(args[0]))
+        {
+            for (int game = 0; game < numberOfGames; game++)
+            {
+                model.fillPitsWithStartingMarbles(marbles);
+                writer.startGame(marbles, game % LayoutAssets.LAYOUT_NAMES.length);
+                for (int ply = 0; !model.playerAWon() && !model.playerBWon(); ply++)
+                {
+                    if (ply % 16 == 15)
+                    {
+                        int undos = model.getNumUndosPlayerA() + model.getNumUndosPlayerB();
+                        model.undo();
+                        if (model.getNumUndosPlayerA() + model.getNumUndosPlayerB() < undos)
+                        {
+                            writer.undo();
+                        }
+                    }
+                    model.packInto(board, 0);
+                    int pit = policy.chooseMove(board, 0);
+                    model.move(pit);
+                    writer.move(pit);
+                }
+                writer.endGame(resultOf(model));
+            }
+        }
+        System.out.printf("Wrote %d games to %s in %.1f s%n", numberOfGames, args[0], (System.nanoTime() - start) / 1e9);
+    }
+}
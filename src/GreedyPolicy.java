@@ -0,0 +1,40 @@
+/**One of the move policies (concrete class) following strategy pattern: plays the pit that
+ * gains the most right away, taking an extra turn whenever one is there
+ * */
+
+public class GreedyPolicy implements MovePolicy {
+    private static final int EXTRA_TURN_BONUS = 100;  //More than a move can gain, so an extra turn always wins
+    private final long[] after = new long[PackedBoard.STATE_LENGTH];    //The state after each pit tried
+
+    /**Plays the pit that ends in the player's mancala, or else the one that gains the most marbles*/
+    @Override
+    public int chooseMove(long[] board, int offset)
+    {
+        boolean playerATurn = PackedBoard.isPlayerATurn(board, offset);
+        int first = playerATurn ? MancalaLogic.FIRST_PIT_A_INDEX : MancalaLogic.FIRST_PIT_B_INDEX;
+        int before = PackedBoard.mancalaDifference(board, offset);
+
+        int bestPit = SearchEngine.NO_MOVE;
+        int bestGain = Integer.MIN_VALUE;
+        for (int pit = first + 5; pit >= first; pit--)
+        {
+            int flags = PackedBoard.move(board, offset, after, 0, pit);
+            if (flags == PackedBoard.ILLEGAL_MOVE)
+            {
+                continue;
+            }
+            int gain = PackedBoard.mancalaDifference(after, 0) - before;
+            gain = playerATurn ? gain : -gain;
+            if ((flags & PackedBoard.EXTRA_TURN) != 0 && (flags & PackedBoard.GAME_OVER) == 0)
+            {
+                gain += EXTRA_TURN_BONUS;
+            }
+            if (gain > bestGain)
+            {
+                bestGain = gain;
+                bestPit = pit;
+            }
+        }
+        return bestPit;
+    }
+}
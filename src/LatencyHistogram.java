@@ -0,0 +1,135 @@
+import java.util.Arrays;
+
+/**
+ * Counts times in buckets to report their percentiles without keeping every time. There is one
+ * bucket for each of the first 8 microseconds, then four for each power of two microseconds, so
+ * a percentile is within a quarter of its value, and BUCKETS buckets reach past an hour.
+ * Recording a time is a few shifts and an increment, and allocates nothing.
+ * A histogram is used by one thread.
+ */
+public class LatencyHistogram
+{
+    public static final int BUCKETS = 128;
+
+    private final long[] buckets = new long[BUCKETS];
+    private long count;
+    private long maxNanos;
+    private long totalNanos;
+
+    /**
+     * Counts a time
+     * @param nanos the time in nanoseconds
+     */
+    public void record(long nanos)
+    {
+        buckets[bucket(nanos)]++;
+        count++;
+        maxNanos = Math.max(maxNanos, nanos);
+        totalNanos += nanos;
+    }
+
+    /**
+     * Adds the times of another histogram to this one
+     * @param other the other histogram
+     */
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            buckets[i] += other.buckets[i];
+        }
+        count += other.count;
+        maxNanos = Math.max(maxNanos, other.maxNanos);
+        totalNanos += other.totalNanos;
+    }
+
+    /**
+     * Forgets every time counted
+     */
+    public void reset()
+    {
+        Arrays.fill(buckets, 0);
+        count = 0;
+        maxNanos = 0;
+        totalNanos = 0;
+    }
+
+    /**
+     * Gets the number of times counted
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Gets a percentile of the times, as the end of the bucket it's in
+     * @param percentile the percentile, from 0 to 100
+     * @return the time in milliseconds, or 0 if nothing was counted
+     */
+    public double getMillis(double percentile)
+    {
+        if (count == 0)
+        {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += buckets[i];
+            if (seen >= rank)
+            {
+                return Math.min(bucketEndMillis(i), getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    /**
+     * Gets the longest time counted
+     * @return the time in milliseconds
+     */
+    public double getMaxMillis()
+    {
+        return maxNanos / 1e6;
+    }
+
+    /**
+     * Gets the average of the times
+     * @return the time in milliseconds, or 0 if nothing was counted
+     */
+    public double getMeanMillis()
+    {
+        return count == 0 ? 0 : totalNanos / 1e6 / count;
+    }
+
+    /**
+     * Gets the bucket of a time
+     */
+    private static int bucket(long nanos)
+    {
+        long micros = Math.max(0, nanos / 1000);
+        if (micros < 8)
+        {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int quarter = (int) (micros >> (exponent - 2)) & 3;
+        return Math.min(BUCKETS - 1, 8 + (exponent - 3) * 4 + quarter);
+    }
+
+    /**
+     * Gets the end of a bucket in milliseconds
+     */
+    private static double bucketEndMillis(int bucket)
+    {
+        if (bucket < 8)
+        {
+            return (bucket + 1) / 1000.0;
+        }
+        int exponent = 3 + (bucket - 8) / 4;
+        int quarter = (bucket - 8) % 4;
+        return ((long) (4 + quarter + 1) << (exponent - 2)) / 1000.0;
+    }
+}
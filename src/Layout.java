@@ -13,4 +13,11 @@ public interface Layout {
     Image getMarbleImage();
     Image getBoardImage();
     Color getFontColor();
+
+    /*
+    These scale the layout's images to other sizes, for bigger windows and HiDPI screens.
+    The images are new each time, so the caller keeps them
+     */
+    Image getMarbleImage(int width, int height);
+    Image getBoardImage(int width, int height);
 }
@@ -0,0 +1,173 @@
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The images of the layouts, each read and scaled only once, and one shared Layout of each kind.
+ * The images are read from the classpath (from the working directory if they're not on it) and
+ * scaled ahead of time into images in the screen's format, so drawing them needs no scaling
+ * or conversion. Layouts only hold these images and a font color, so they can be shared.
+ * Everything here can be used from any thread. preload starts reading all the layouts on
+ * background threads, and getLayout then waits only for the layout it asks for.
+ */
+public class LayoutAssets
+{
+    /*
+    These are the names of the known layouts
+     */
+    public static final String REGULAR = "Regular";
+    public static final String TURTLE = "Turtle";
+    public static final String[] LAYOUT_NAMES = {REGULAR, TURTLE};
+
+    private static final ConcurrentHashMap<String, Layout> layouts = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, BufferedImage> images = new ConcurrentHashMap<>();   //Keyed by file name and size
+    private static final ConcurrentHashMap<String, SoftReference<BufferedImage>> sources = new ConcurrentHashMap<>();  //Dropped when memory runs low
+
+    private static CompletableFuture<Void> preloading;
+
+    private LayoutAssets()
+    {
+    }
+
+    /**
+     * Starts reading and scaling the images of all the known layouts on background threads,
+     * one thread for each layout. Calling it again does nothing
+     * @return a future that completes when all the layouts are ready
+     */
+    public static synchronized CompletableFuture<Void> preload()
+    {
+        if (preloading == null)
+        {
+            ExecutorService loader = Executors.newFixedThreadPool(LAYOUT_NAMES.length, runnable ->
+            {
+                Thread thread = new Thread(runnable, "Layout loader");
+                thread.setDaemon(true);     //Loading never keeps the game from closing
+                return thread;
+            });
+            CompletableFuture<?>[] layoutsLoaded = new CompletableFuture<?>[LAYOUT_NAMES.length];
+            for (int i = 0; i < LAYOUT_NAMES.length; i++)
+            {
+                String name = LAYOUT_NAMES[i];
+                layoutsLoaded[i] = CompletableFuture.runAsync(() ->
+                {
+                    getLayout(name);
+                    StartupTimer.mark(name + " layout loaded");
+                }, loader);
+            }
+            preloading = CompletableFuture.allOf(layoutsLoaded).whenComplete((result, e) -> loader.shutdown());
+        }
+        return preloading;
+    }
+
+    /**
+     * Gets the shared layout with a name, making it the first time. If another thread is
+     * already making it, this waits for that thread instead of reading the images again
+     * @param name one of LAYOUT_NAMES
+     * @return the layout
+     */
+    public static Layout getLayout(String name)
+    {
+        return layouts.computeIfAbsent(name, LayoutAssets::createLayout);
+    }
+
+    /**
+     * Gets an image read from a file and scaled to a size, reading it the first time
+     * @param fileName the name of the image file
+     * @param width the width to scale to
+     * @param height the height to scale to
+     * @return the scaled image, or null if it can't be read
+     */
+    public static BufferedImage getImage(String fileName, int width, int height)
+    {
+        return images.computeIfAbsent(fileName + "@" + width + "x" + height, key -> renderImage(fileName, width, height));
+    }
+
+    /**
+     * Scales the image in a file to a size that isn't kept, such as the board at the size of a
+     * resized window. The image read from the file is kept while there's memory for it, so a
+     * new size usually costs only the scaling
+     * @param fileName the name of the image file
+     * @param width the width to scale to
+     * @param height the height to scale to
+     * @return a new scaled image, or null if it can't be read
+     */
+    public static BufferedImage renderImage(String fileName, int width, int height)
+    {
+        try
+        {
+            SoftReference<BufferedImage> reference = sources.get(fileName);
+            BufferedImage source = reference != null ? reference.get() : null;
+            if (source == null)
+            {
+                source = read(fileName);
+                sources.put(fileName, new SoftReference<>(source));
+            }
+            return scale(source, width, height);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Cannot load image " + fileName);
+            return null;
+        }
+    }
+
+    private static Layout createLayout(String name)
+    {
+        if (name.equals(REGULAR))
+        {
+            return new RegularLayout();
+        }
+        if (name.equals(TURTLE))
+        {
+            return new TurtleLayout();
+        }
+        throw new IllegalArgumentException("Unknown layout: " + name);
+    }
+
+    /**
+     * Reads an image from the classpath, or from the working directory if it's not on the classpath
+     */
+    private static BufferedImage read(String fileName) throws IOException
+    {
+        URL url = LayoutAssets.class.getResource("/" + fileName);
+        BufferedImage image = url != null ? ImageIO.read(url) : ImageIO.read(new File(fileName));
+        if (image == null)
+        {
+            throw new IOException("Not an image: " + fileName);
+        }
+        return image;
+    }
+
+    /**
+     * Scales an image into an image in the screen's format
+     */
+    private static BufferedImage scale(BufferedImage image, int width, int height)
+    {
+        int transparency = image.getColorModel().getTransparency();
+        BufferedImage scaled;
+        if (GraphicsEnvironment.isHeadless())
+        {
+            scaled = new BufferedImage(width, height, transparency == Transparency.OPAQUE
+                    ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        }
+        else
+        {
+            scaled = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                    .getDefaultConfiguration().createCompatibleImage(width, height, transparency);
+        }
+
+        Graphics2D g2 = scaled.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2.drawImage(image, 0, 0, width, height, null);
+        g2.dispose();
+        return scaled;
+    }
+}
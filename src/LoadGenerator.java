@@ -0,0 +1,616 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Puts load on a MancalaServer to measure how many players a host can serve. It opens a
+ * connection for each simulated player, on one thread with a NIO selector, and each player plays
+ * both sides of its own game: it sends a move, waits for the new state, thinks, and plays again.
+ * Moves are chosen at random from the pits MancalaLogic.turnIsValid allows that have marbles,
+ * on a copy of the state the server sent, and an undo is sent instead at the given rate.
+ * Finished games are ended and a new one is started.
+ *
+ * The time from sending a move to getting its state is kept in LatencyHistograms. Every interval
+ * a line with the moves per second, the p50, p99 and p99.9 round trip and the errors is printed,
+ * and at the end the totals after the warmup are printed and written as JSON, so runs can be
+ * scripted and compared. The exit code is 1 if there were errors or the p99 was over --max-p99.
+ *
+ * Usage: java LoadGenerator [--host host] [--port port] [--local loops] [--journal directory]
+ * [--players n] [--seconds s] [--warmup s] [--think ms] [--undo rate] [--marbles n]
+ * [--interval s] [--seed n] [--max-p99 ms] [--out file]
+ * With --local (the default when no port is given) a server is started in this process on a
+ * free loopback port, saving to the journal if one is given.
+ */
+public class LoadGenerator
+{
+    public static final int MAX_PENDING_CONNECTS = 256;  //Connections opened at once while ramping up
+    private static final int READ_BUFFER_BYTES = 512;
+    private static final int MAX_ERRORS_PRINTED = 10;
+
+    /*
+    These are the requests a player can be waiting for
+     */
+    private static final int NONE = 0;
+    private static final int NEW_GAME = 1;
+    private static final int MOVE = 2;
+    private static final int UNDO = 3;
+
+    private static final byte[][] MOVE_COMMANDS = new byte[MancalaLogic.NUMBER_OF_PITS][];
+    private static final byte[] UNDO_COMMAND = "UNDO\n".getBytes(StandardCharsets.US_ASCII);
+
+    static
+    {
+        for (int i = 0; i < MancalaLogic.NUMBER_OF_PITS; i++)
+        {
+            MOVE_COMMANDS[i] = ("MOVE " + i + "\n").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private String host = "127.0.0.1";
+    private int port;
+    private int localLoops = 1;
+    private String journalDirectory;
+    private int players = 1000;
+    private double seconds = 10;
+    private double warmupSeconds = 2;
+    private double thinkMillis = 0;
+    private double undoRate = 0.02;
+    private int marbles = 4;
+    private double intervalSeconds = 1;
+    private long seed = 1;
+    private double maxP99Millis = Double.MAX_VALUE;
+    private String resultFile;
+
+    private final Random random = new Random();
+    private final long[] board = new long[PackedBoard.STATE_LENGTH];
+    private final int[] legalPits = new int[MancalaLogic.NUMBER_OF_PITS];
+    private byte[] newGameCommand;      //Ends the finished game's session and starts another
+    private byte[] firstGameCommand;
+
+    /*
+    These are the counts of the interval being measured and of the whole run after the warmup
+     */
+    private final LatencyHistogram intervalMoves = new LatencyHistogram();
+    private final LatencyHistogram totalMoves = new LatencyHistogram();
+    private final LatencyHistogram totalUndos = new LatencyHistogram();
+    private final LatencyHistogram totalNewGames = new LatencyHistogram();
+    private long intervalErrors;
+    private long errors;
+    private long rejectedUndos;
+    private long disconnects;
+    private long gamesFinished;
+    private int connected;
+    private final List<String> intervals = new ArrayList<>();   //One JSON object per interval
+
+    /**
+     * One simulated player with its connection and the last state of its game
+     */
+    private static class Player
+    {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        ByteBuffer out = ByteBuffer.allocate(64);
+        final MancalaLogic copy = new MancalaLogic();
+        final int[] pits = new int[MancalaLogic.NUMBER_OF_PITS];
+        boolean playerATurn;
+        boolean gameOver;
+        boolean inSession;
+        int request = NONE;
+        long sentNanos;
+        long nextNanos;     //When the player plays next, while thinking
+
+        Player(SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * Reads the options from the command line
+     * @param args see the class comment
+     */
+    private void parse(String[] args)
+    {
+        for (int i = 0; i < args.length; i += 2)
+        {
+            if (i + 1 == args.length)
+            {
+                throw new IllegalArgumentException("Missing value for option " + args[i]);
+            }
+            String value = args[i + 1];
+            switch (args[i])
+            {
+                case "--host": host = value; break;
+                case "--port": port = Integer.parseInt(value); break;
+                case "--local": localLoops = Integer.parseInt(value); port = 0; break;
+                case "--journal": journalDirectory = value; break;
+                case "--players": players = Integer.parseInt(value); break;
+                case "--seconds": seconds = Double.parseDouble(value); break;
+                case "--warmup": warmupSeconds = Double.parseDouble(value); break;
+                case "--think": thinkMillis = Double.parseDouble(value); break;
+                case "--undo": undoRate = Double.parseDouble(value); break;
+                case "--marbles": marbles = Integer.parseInt(value); break;
+                case "--interval": intervalSeconds = Double.parseDouble(value); break;
+                case "--seed": seed = Long.parseLong(value); break;
+                case "--max-p99": maxP99Millis = Double.parseDouble(value); break;
+                case "--out": resultFile = value; break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        random.setSeed(seed);
+        firstGameCommand = ("NEW " + marbles + "\n").getBytes(StandardCharsets.US_ASCII);
+        newGameCommand = ("END\n" + "NEW " + marbles + "\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Runs the players against the server until the time is up
+     * @return true if there were no errors and the p99 was under the limit
+     */
+    private boolean run() throws IOException
+    {
+        MancalaServer server = null;
+        MoveJournal journal = null;
+        if (port == 0)
+        {
+            journal = journalDirectory == null ? null : new MoveJournal(Paths.get(journalDirectory));
+            server = new MancalaServer(0, localLoops, journal);
+            server.start();
+            port = server.getPort();
+        }
+        System.out.printf("%d players against %s:%d for %.0f s after a %.0f s warmup, think %.0f ms, undo rate %.3f%n",
+                players, host, port, seconds, warmupSeconds, thinkMillis, undoRate);
+
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        Selector selector = Selector.open();
+        PriorityQueue<Player> thinking = new PriorityQueue<>((a, b) -> Long.compare(a.nextNanos, b.nextNanos));
+        int opened = 0;
+        int pendingConnects = 0;
+        long start = System.nanoTime();
+        long measureStart = start + (long) (warmupSeconds * 1e9);
+        long end = measureStart + (long) (seconds * 1e9);
+        long intervalNanos = (long) (intervalSeconds * 1e9);
+        long intervalStart = start;
+        boolean measuring = false;
+
+        while (true)
+        {
+            long now = System.nanoTime();
+            if (now >= end)
+            {
+                break;
+            }
+
+            /*
+            This block of code opens more connections, a few at a time so the server's backlog isn't flooded
+             */
+            while (opened < players && pendingConnects < MAX_PENDING_CONNECTS)
+            {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Player player = new Player(channel);
+                if (channel.connect(address))
+                {
+                    connected(player, selector);
+                }
+                else
+                {
+                    channel.register(selector, SelectionKey.OP_CONNECT, player);
+                    pendingConnects++;
+                }
+                opened++;
+            }
+
+            if (!measuring && now >= measureStart)
+            {
+                measuring = true;   //The warmup is over, so what was counted so far is dropped
+                totalMoves.reset();
+                totalUndos.reset();
+                totalNewGames.reset();
+                intervalMoves.reset();
+                intervals.clear();
+                errors = 0;
+                intervalErrors = 0;
+                rejectedUndos = 0;
+                disconnects = 0;
+                gamesFinished = 0;
+                intervalStart = now;
+            }
+            if (now - intervalStart >= intervalNanos)
+            {
+                report((now - start) / 1e9, (now - intervalStart) / 1e9, measuring);
+                intervalStart = now;
+            }
+
+            long wait = Math.min(end, intervalStart + intervalNanos) - now;
+            if (!thinking.isEmpty())
+            {
+                wait = Math.min(wait, thinking.peek().nextNanos - now);
+            }
+            if (wait > 1000000)
+            {
+                selector.select(wait / 1000000);
+            }
+            else
+            {
+                selector.selectNow();
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext())
+            {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Player player = (Player) key.attachment();
+                if (!key.isValid())
+                {
+                    continue;
+                }
+                if (key.isConnectable())
+                {
+                    pendingConnects--;
+                    try
+                    {
+                        player.channel.finishConnect();
+                        connected(player, selector);
+                    }
+                    catch (IOException e)
+                    {
+                        error("Connect failed: " + e);
+                        key.cancel();
+                        player.channel.close();
+                    }
+                    continue;
+                }
+                if (key.isWritable())
+                {
+                    flush(player, key);
+                }
+                if (key.isValid() && key.isReadable())
+                {
+                    read(player, key, thinking);
+                }
+            }
+
+            now = System.nanoTime();
+            while (!thinking.isEmpty() && thinking.peek().nextNanos <= now)
+            {
+                play(thinking.poll(), selector);
+            }
+        }
+
+        double measuredSeconds = (System.nanoTime() - measureStart) / 1e9;
+        for (SelectionKey key : selector.keys())
+        {
+            key.channel().close();
+        }
+        selector.close();
+        if (server != null)
+        {
+            server.close();
+        }
+        if (journal != null)
+        {
+            journal.close();
+        }
+        return summarize(measuredSeconds);
+    }
+
+    private void connected(Player player, Selector selector) throws IOException
+    {
+        connected++;
+        player.channel.register(selector, SelectionKey.OP_READ, player);
+        player.gameOver = true;     //The first request starts a game
+        play(player, selector);
+    }
+
+    /**
+     * Sends the player's next request: a new game when its game is over, an undo at the undo
+     * rate, or a move from one of the pits it may play
+     */
+    private void play(Player player, Selector selector)
+    {
+        byte[] command;
+        if (player.gameOver)
+        {
+            player.request = NEW_GAME;
+            command = player.inSession ? newGameCommand : firstGameCommand;
+            player.inSession = true;
+        }
+        else if (random.nextDouble() < undoRate)
+        {
+            player.request = UNDO;
+            command = UNDO_COMMAND;
+        }
+        else
+        {
+            PackedBoard.pack(player.pits, player.playerATurn, board, 0);
+            player.copy.loadPacked(board, 0);
+            int numberOfLegalPits = 0;
+            for (int i = 0; i < MancalaLogic.NUMBER_OF_PITS; i++)
+            {
+                if (player.copy.turnIsValid(i) && player.pits[i] > 0)
+                {
+                    legalPits[numberOfLegalPits++] = i;
+                }
+            }
+            if (numberOfLegalPits == 0)
+            {
+                player.request = NEW_GAME;
+                command = newGameCommand;
+            }
+            else
+            {
+                player.request = MOVE;
+                command = MOVE_COMMANDS[legalPits[random.nextInt(numberOfLegalPits)]];
+            }
+        }
+
+        player.sentNanos = System.nanoTime();
+        if (player.out.remaining() < command.length)
+        {
+            ByteBuffer bigger = ByteBuffer.allocate(player.out.capacity() * 2 + command.length);
+            player.out.flip();
+            player.out = bigger.put(player.out);
+        }
+        player.out.put(command);
+        flush(player, player.channel.keyFor(selector));
+    }
+
+    private void flush(Player player, SelectionKey key)
+    {
+        try
+        {
+            player.out.flip();
+            player.channel.write(player.out);
+            player.out.compact();
+            key.interestOps(player.out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+        catch (IOException e)
+        {
+            disconnected(player, key, e.toString());
+        }
+    }
+
+    private void read(Player player, SelectionKey key, PriorityQueue<Player> thinking)
+    {
+        try
+        {
+            if (player.channel.read(player.in) < 0)
+            {
+                disconnected(player, key, "closed by the server");
+                return;
+            }
+        }
+        catch (IOException e)
+        {
+            disconnected(player, key, e.toString());
+            return;
+        }
+
+        byte[] bytes = player.in.array();
+        int lineStart = 0;
+        for (int i = 0; i < player.in.position(); i++)
+        {
+            if (bytes[i] == '\n')
+            {
+                answer(player, bytes, lineStart, i, key, thinking);
+                lineStart = i + 1;
+            }
+        }
+        if (lineStart == 0 && !player.in.hasRemaining())
+        {
+            disconnected(player, key, "line too long");
+            return;
+        }
+        System.arraycopy(bytes, lineStart, bytes, 0, player.in.position() - lineStart);
+        player.in.position(player.in.position() - lineStart);
+    }
+
+    /**
+     * Handles a line from the server. A state or an error ends the request the player was waiting for
+     */
+    private void answer(Player player, byte[] bytes, int start, int end, SelectionKey key, PriorityQueue<Player> thinking)
+    {
+        long roundTrip = System.nanoTime() - player.sentNanos;
+        if (startsWith(bytes, start, end, "SESSION"))
+        {
+            return;     //The state of the new game follows
+        }
+        if (startsWith(bytes, start, end, "STATE"))
+        {
+            readState(player, bytes, start, end);
+        }
+        else if (player.request == UNDO && startsWith(bytes, start, end, "ERROR nothing to undo"))
+        {
+            rejectedUndos++;
+        }
+        else
+        {
+            error("Player got " + new String(bytes, start, end - start, StandardCharsets.US_ASCII)
+                    + " for request " + player.request);
+        }
+
+        switch (player.request)
+        {
+            case MOVE:
+                intervalMoves.record(roundTrip);
+                totalMoves.record(roundTrip);
+                break;
+            case UNDO:
+                totalUndos.record(roundTrip);
+                break;
+            case NEW_GAME:
+                totalNewGames.record(roundTrip);
+                break;
+            default:
+                return;     //A state the player didn't ask for
+        }
+        if (player.gameOver && player.request != NEW_GAME)
+        {
+            gamesFinished++;
+        }
+        player.request = NONE;
+        if (thinkMillis > 0)
+        {
+            player.nextNanos = System.nanoTime() + (long) (thinkMillis * 1e6 * (0.5 + random.nextDouble()));
+            thinking.add(player);
+        }
+        else
+        {
+            play(player, key.selector());
+        }
+    }
+
+    /**
+     * Reads "STATE session version turn result undosA undosB pit0 ... pit13" into the player
+     */
+    private static void readState(Player player, byte[] bytes, int start, int end)
+    {
+        int field = 0;
+        int value = 0;
+        for (int i = start; i <= end; i++)
+        {
+            byte b = i < end ? bytes[i] : (byte) ' ';
+            if (b != ' ')
+            {
+                if (field == 3)
+                {
+                    player.playerATurn = b == 'A';
+                }
+                else if (field == 4)
+                {
+                    player.gameOver = b != '-';
+                }
+                value = value * 10 + (b - '0');
+                continue;
+            }
+            if (field >= 7 && field < 7 + MancalaLogic.NUMBER_OF_PITS)
+            {
+                player.pits[field - 7] = value;
+            }
+            field++;
+            value = 0;
+        }
+    }
+
+    private static boolean startsWith(byte[] bytes, int start, int end, String prefix)
+    {
+        if (end - start < prefix.length())
+        {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++)
+        {
+            if (bytes[start + i] != prefix.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void disconnected(Player player, SelectionKey key, String reason)
+    {
+        disconnects++;
+        connected--;
+        error("Player disconnected: " + reason);
+        key.cancel();
+        try
+        {
+            player.channel.close();
+        }
+        catch (IOException e)
+        {
+            //The connection is gone either way
+        }
+    }
+
+    private void error(String message)
+    {
+        if (errors < MAX_ERRORS_PRINTED)
+        {
+            System.err.println(message);
+        }
+        errors++;
+        intervalErrors++;
+    }
+
+    /**
+     * Prints the counts of the interval that just ended and keeps them for the result file
+     */
+    private void report(double time, double elapsed, boolean measuring)
+    {
+        double movesPerSecond = intervalMoves.getCount() / elapsed;
+        System.out.printf(Locale.ROOT, "%6.1f s%s %5d players %9.0f moves/s  p50 %7.3f ms  p99 %7.3f ms  p99.9 %7.3f ms  errors %d%n",
+                time, measuring ? " " : "*", connected, movesPerSecond, intervalMoves.getMillis(50),
+                intervalMoves.getMillis(99), intervalMoves.getMillis(99.9), intervalErrors);
+        if (measuring)
+        {
+            intervals.add(String.format(Locale.ROOT,
+                    "{\"time\": %.1f, \"players\": %d, \"movesPerSecond\": %.1f, \"p50\": %.3f, \"p99\": %.3f, \"p999\": %.3f, \"errors\": %d}",
+                    time, connected, movesPerSecond, intervalMoves.getMillis(50), intervalMoves.getMillis(99),
+                    intervalMoves.getMillis(99.9), intervalErrors));
+        }
+        intervalMoves.reset();
+        intervalErrors = 0;
+    }
+
+    /**
+     * Prints the totals after the warmup and writes the result file
+     * @return true if the run passed
+     */
+    private boolean summarize(double measuredSeconds) throws IOException
+    {
+        boolean passed = errors == 0 && totalMoves.getMillis(99) <= maxP99Millis && totalMoves.getCount() > 0;
+        System.out.printf(Locale.ROOT, "Moves: %d, %.0f/s, round trip p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms%n",
+                totalMoves.getCount(), totalMoves.getCount() / measuredSeconds, totalMoves.getMillis(50),
+                totalMoves.getMillis(99), totalMoves.getMillis(99.9), totalMoves.getMaxMillis());
+        System.out.printf(Locale.ROOT, "Undos: %d (%d rejected), p99 %.3f ms; new games: %d, p99 %.3f ms; games finished: %d%n",
+                totalUndos.getCount(), rejectedUndos, totalUndos.getMillis(99), totalNewGames.getCount(),
+                totalNewGames.getMillis(99), gamesFinished);
+        System.out.printf("Errors: %d, disconnects: %d. %s%n", errors, disconnects, passed ? "Passed" : "FAILED");
+
+        if (resultFile != null)
+        {
+            String json = String.format(Locale.ROOT, "{%n"
+                            + "  \"players\": %d,%n  \"seconds\": %.1f,%n  \"thinkMillis\": %.1f,%n  \"undoRate\": %.3f,%n"
+                            + "  \"moves\": %d,%n  \"movesPerSecond\": %.1f,%n"
+                            + "  \"p50\": %.3f,%n  \"p99\": %.3f,%n  \"p999\": %.3f,%n  \"max\": %.3f,%n"
+                            + "  \"undos\": %d,%n  \"rejectedUndos\": %d,%n  \"newGames\": %d,%n"
+                            + "  \"errors\": %d,%n  \"disconnects\": %d,%n  \"passed\": %b,%n"
+                            + "  \"intervals\": [%n    %s%n  ]%n}%n",
+                    players, measuredSeconds, thinkMillis, undoRate, totalMoves.getCount(),
+                    totalMoves.getCount() / measuredSeconds, totalMoves.getMillis(50), totalMoves.getMillis(99),
+                    totalMoves.getMillis(99.9), totalMoves.getMaxMillis(), totalUndos.getCount(), rejectedUndos,
+                    totalNewGames.getCount(), errors, disconnects, passed, String.join(",\n    ", intervals));
+            Files.write(Paths.get(resultFile), json.getBytes(StandardCharsets.UTF_8));
+            System.out.println("Results written to " + resultFile);
+        }
+        return passed;
+    }
+
+    /**
+     * Runs a load test
+     * @param args see the class comment
+     */
+    public static void main(String[] args) throws IOException
+    {
+        LoadGenerator generator = new LoadGenerator();
+        generator.parse(args);
+        System.exit(generator.run() ? 0 : 1);
+    }
+}
@@ -4,9 +4,15 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 /**
- * Controller class that connects the model and view class
+ * Controller class that connects the model and view class.
+ * Run with -Dmancala.journal=directory to save the game in a MoveJournal in that directory,
+ * so a game that was cut off by the process dying continues the next time the game starts
  * @author Trevor O'Neil, Phillip Nguyen, Kunda Wu
  * @copyright	05/04/2019
  * @version		1.0
@@ -18,9 +24,17 @@ public class MancalaFrame extends JFrame {
      */
     public static final int FRAME_WIDTH = 1152;
     public static final int FRAME_HEIGHT = 658;
+    public static final long COMPUTER_MOVE_MILLIS = 100;   //Time the computer opponent can think per move
+    public static final int COMPUTER_TABLE_MEGABYTES = 16;
+    public static final int COMPUTER_TREE_MEGABYTES = 64;
+    public static final int JOURNAL_SESSION = 0;    //The session of the game in the journal
 
-    private MancalaLogic model;
+    private GameController controller;  //Plays all the changes to the model on the model thread
     private MancalaLabel view;
+    private int seenInvalidTurns;
+    private int seenFailures;
+    private boolean computerPlays;
+    private boolean computerPlaysA;
 
     /**
      * Constructor that initializes the instance variables
@@ -29,7 +43,7 @@ public class MancalaFrame extends JFrame {
      */
     public MancalaFrame(MancalaLogic model, MancalaLabel view)
     {
-        this.model = model;
+        this.controller = new GameController(model);
         this.view = view;
 
         initialize();
@@ -37,15 +51,20 @@ public class MancalaFrame extends JFrame {
 
     private void initialize() {
 
-        model.addChangeListener(view);   //Adds the view's change listener to the model
-        model.fillPitsWithStartingMarbles(0);
+        controller.addChangeListener(view);   //Adds the view's change listener to the controller
+        controller.addChangeListener(e -> showResultOfTurn((BoardSnapshot) e.getSource()));
+        boolean restored = openJournal();
+        if (!restored)
+        {
+            controller.newGame(0);
+        }
 
 
         JButton undoButton = new JButton("Undo");
 
         undoButton.addActionListener(e ->
         {
-            model.undo();
+            controller.undo();
         });
 
         JButton quitButton = new JButton("Quit");
@@ -58,28 +77,28 @@ public class MancalaFrame extends JFrame {
         JButton regular3 = new JButton("Regular layout [3]");
 
         regular3.addActionListener(e -> {
-            view.setBoardLayout(new RegularLayout());
-            model.fillPitsWithStartingMarbles(3);
+            view.setBoardLayout(LayoutAssets.getLayout(LayoutAssets.REGULAR));
+            controller.newGame(3);
         });
 
         JButton turtle3 = new JButton("Turtle layout [3]");
 
         turtle3.addActionListener(e -> {
-            view.setBoardLayout(new TurtleLayout());
-            model.fillPitsWithStartingMarbles(3);
+            view.setBoardLayout(LayoutAssets.getLayout(LayoutAssets.TURTLE));
+            controller.newGame(3);
         });
 
         JButton regular4 = new JButton("Regular layout [4]");
         JButton turtle4 = new JButton("Turtle layout [4]");
 
         regular4.addChangeListener(e -> {
-            view.setBoardLayout(new RegularLayout());
-            model.fillPitsWithStartingMarbles(4);
+            view.setBoardLayout(LayoutAssets.getLayout(LayoutAssets.REGULAR));
+            controller.newGame(4);
         });
 
         turtle4.addChangeListener(e -> {
-            view.setBoardLayout(new TurtleLayout());
-            model.fillPitsWithStartingMarbles(4);
+            view.setBoardLayout(LayoutAssets.getLayout(LayoutAssets.TURTLE));
+            controller.newGame(4);
         });
 
         view.add(undoButton);
@@ -88,16 +107,68 @@ public class MancalaFrame extends JFrame {
         view.add(turtle3);
         view.add(turtle4);
         view.add(quitButton);
-        view.setBoardLayout(new RegularLayout());
+        view.setBoardLayout(LayoutAssets.getLayout(LayoutAssets.REGULAR));
 
         this.add(view);
-        this.addMouseListener(new Listener());
-        this.setSize(FRAME_WIDTH, FRAME_HEIGHT);
-        this.setResizable(false);
+        view.addMouseListener(new Listener());    //Clicks are in the view's coordinates, like the pits
+        this.pack();
+        this.setMinimumSize(new Dimension(FRAME_WIDTH / 2, FRAME_HEIGHT / 2));
         this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        this.addWindowListener(new WindowAdapter()
+        {
+            @Override
+            public void windowClosing(WindowEvent e)
+            {
+                dispose();      //Runs before the frame exits, so the computer's threads are stopped
+            }
+        });
         this.setVisible(true);
-        showSetMarblesWindow();
+        StartupTimer.mark("frame shown");
+        if (!restored)
+        {
+            showSetMarblesWindow();     //A restored game keeps its marbles
+        }
+        StartupTimer.mark("marbles chosen");
         showSetLayoutWindow();
+        StartupTimer.mark("layout chosen");
+        showSetOpponentWindow();
+        StartupTimer.mark("opponent chosen");
+    }
+
+    /**
+     * Closes the window and shuts down the controller, which closes the computer's policy and
+     * stops its search threads
+     */
+    @Override
+    public void dispose()
+    {
+        super.dispose();
+        controller.shutdown();
+    }
+
+    /**
+     * Opens the journal named by the mancala.journal property and continues the game saved in it
+     * @return true if a game was restored from the journal
+     */
+    private boolean openJournal()
+    {
+        String directory = System.getProperty("mancala.journal");
+        if (directory == null)
+        {
+            return false;
+        }
+        try
+        {
+            MoveJournal journal = new MoveJournal(Paths.get(directory));
+            boolean restored = journal.getStartingMarbles(JOURNAL_SESSION) > 0;
+            controller.setJournal(journal, JOURNAL_SESSION);
+            return restored;
+        }
+        catch (IOException e)
+        {
+            System.err.println("The game can't be saved: " + e);
+            return false;
+        }
     }
 
     /**
@@ -139,7 +210,7 @@ public class MancalaFrame extends JFrame {
             System.exit(0);
         }
 
-        model.fillPitsWithStartingMarbles(numberOfMarbles);
+        controller.newGame(numberOfMarbles);
     }
 
     /**
@@ -168,11 +239,71 @@ public class MancalaFrame extends JFrame {
         {
             if (regularLayout.isSelected())
             {
-                view.setBoardLayout(new RegularLayout());
+                view.setBoardLayout(LayoutAssets.getLayout(LayoutAssets.REGULAR));
             }
             else
             {
-                view.setBoardLayout(new TurtleLayout());
+                view.setBoardLayout(LayoutAssets.getLayout(LayoutAssets.TURTLE));
+            }
+        }
+        else
+        {
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Shows the window to choose whether a player is played by the computer
+     */
+    private void showSetOpponentWindow()
+    {
+        JPanel setOpponentPanel = new JPanel();
+        JRadioButton twoPlayers = new JRadioButton("Two players");
+        JRadioButton computerA = new JRadioButton("Computer is Player A");
+        JRadioButton computerB = new JRadioButton("Computer is Player B");
+
+        //ButtonGroup is so only one radio button can be selected
+        ButtonGroup group = new ButtonGroup();
+        group.add(twoPlayers);
+        group.add(computerA);
+        group.add(computerB);
+        twoPlayers.setSelected(true);
+
+        setOpponentPanel.add(twoPlayers);
+        setOpponentPanel.add(computerA);
+        setOpponentPanel.add(computerB);
+
+        JRadioButton searchPlayer = new JRadioButton("Minimax search");
+        JRadioButton monteCarloPlayer = new JRadioButton("Monte Carlo tree search");
+        ButtonGroup playerGroup = new ButtonGroup();
+        playerGroup.add(searchPlayer);
+        playerGroup.add(monteCarloPlayer);
+        searchPlayer.setSelected(true);
+
+        setOpponentPanel.add(searchPlayer);
+        setOpponentPanel.add(monteCarloPlayer);
+
+        int choice = JOptionPane.showOptionDialog(this, setOpponentPanel,
+                "Opponent", JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE, null, null, null);
+
+        if (choice == JOptionPane.OK_OPTION)
+        {
+            if (computerA.isSelected() || computerB.isSelected())
+            {
+                MovePolicy policy;
+                if (searchPlayer.isSelected())
+                {
+                    policy = new SearchPolicy(SearchEngine.MAX_DEPTH, COMPUTER_MOVE_MILLIS, COMPUTER_TABLE_MEGABYTES);
+                }
+                else
+                {
+                    policy = new MonteCarloPolicy(Runtime.getRuntime().availableProcessors(), COMPUTER_TREE_MEGABYTES,
+                            0, COMPUTER_MOVE_MILLIS, System.nanoTime());
+                }
+                computerPlays = true;
+                computerPlaysA = computerA.isSelected();
+                controller.setComputerPlayer(policy, computerPlaysA);  //The computer starts if it's Player A
             }
         }
         else
@@ -181,6 +312,71 @@ public class MancalaFrame extends JFrame {
         }
     }
 
+    /**
+     * Tells the players about the turn that was just played: shows an error if it was invalid
+     * or failed, and who won if the game is over
+     * @param snapshot the state of the game after the turn
+     */
+    private void showResultOfTurn(BoardSnapshot snapshot)
+    {
+        if (snapshot.getFailures() != seenFailures)
+        {
+            seenFailures = snapshot.getFailures();
+            JOptionPane.showMessageDialog(this, snapshot.getFailure(), "Error", JOptionPane.ERROR_MESSAGE);
+        }
+        if (snapshot.getInvalidTurns() != seenInvalidTurns)
+        {
+            seenInvalidTurns = snapshot.getInvalidTurns();
+            JDialog error = new JDialog();
+            error.add(new JLabel("Turn is invalid"));
+            error.setModalityType(Dialog.ModalityType.APPLICATION_MODAL);
+            error.setLayout(new GridLayout(2, 2));
+            JButton ok = new JButton("Okay");
+            ok.addActionListener(new ActionListener() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    error.dispose();
+                }
+            });
+            error.add(ok);
+            error.pack();
+            error.setVisible(true);
+        }
+        checkForWinner(snapshot);
+    }
+
+    /**
+     * Shows who won if the game is over
+     */
+    private void checkForWinner(BoardSnapshot snapshot)
+    {
+        if (snapshot.playerAWon() || snapshot.playerBWon())
+        {
+            int choice;
+            if (snapshot.playerAWon() && snapshot.playerBWon())
+            {
+                choice = JOptionPane.showOptionDialog(MancalaFrame.this, "Both are winners",
+                        null, JOptionPane.OK_CANCEL_OPTION,
+                        JOptionPane.PLAIN_MESSAGE, null, new String[]{"Done"}, null);
+            }
+            else if (snapshot.playerAWon())
+            {
+                choice = JOptionPane.showOptionDialog(MancalaFrame.this, "Player A won",
+                        null, JOptionPane.OK_CANCEL_OPTION,
+                        JOptionPane.PLAIN_MESSAGE, null, new String[]{"Done"}, null);
+            } else {
+                choice = JOptionPane.showOptionDialog(MancalaFrame.this, "Player B won",
+                        null, JOptionPane.OK_CANCEL_OPTION,
+                        JOptionPane.PLAIN_MESSAGE, null, new String[]{"Done"}, null);
+            }
+
+            if (choice == JOptionPane.OK_OPTION)
+            {
+                System.exit(0);
+            }
+        }
+    }
+
     /**
      * MouseListener class that listens when the user clicks on a pit
      */
@@ -189,55 +385,17 @@ public class MancalaFrame extends JFrame {
         @Override
         public void mousePressed(MouseEvent e) {
 
-
-            for (int i = 0; i < view.getPits().length; i++)
+            BoardSnapshot snapshot = controller.getSnapshot();
+            if (computerPlays && snapshot.isPlayerATurn() == computerPlaysA && !snapshot.isGameOver())
             {
-                if (view.getPits()[i].contains(e.getPoint()))
-                {
-                    model.move(i);
-                    if (model.turnInvalid()) {
-                        JDialog error = new JDialog();
-                        error.add(new JLabel("Turn is invalid"));
-                        error.setModalityType(Dialog.ModalityType.APPLICATION_MODAL);
-                        error.setLayout(new GridLayout(2, 2));
-                        JButton ok = new JButton("Okay");
-                        ok.addActionListener(new ActionListener() {
-                            @Override
-                            public void actionPerformed(ActionEvent e) {
-                                error.dispose();
-                            }
-                        });
-                        error.add(ok);
-                        error.pack();
-                        error.setVisible(true);
-                    }
-                }
+                return;     //Clicks are ignored while the computer is thinking
+            }
 
-                if (model.playerAWon() || model.playerBWon())
-                {
-                    int choice;
-                    if (model.playerAWon() && model.playerBWon())
-                    {
-                        choice = JOptionPane.showOptionDialog(MancalaFrame.this, "Both are winners",
-                                null, JOptionPane.OK_CANCEL_OPTION,
-                                JOptionPane.PLAIN_MESSAGE, null, new String[]{"Done"}, null);
-                    }
-                    else if (model.playerAWon())
-                    {
-                        choice = JOptionPane.showOptionDialog(MancalaFrame.this, "Player A won",
-                                null, JOptionPane.OK_CANCEL_OPTION,
-                                JOptionPane.PLAIN_MESSAGE, null, new String[]{"Done"}, null);
-                    } else {
-                        choice = JOptionPane.showOptionDialog(MancalaFrame.this, "Player B won",
-                                null, JOptionPane.OK_CANCEL_OPTION,
-                                JOptionPane.PLAIN_MESSAGE, null, new String[]{"Done"}, null);
-                    }
-
-                    if (choice == JOptionPane.OK_OPTION)
-                    {
-                        System.exit(0);
-                    }
-                }
+            int pit = view.getPitAt(e.getPoint());
+            if (pit != PitHitMap.NO_PIT)
+            {
+                view.getMetrics().clicked(snapshot.getVersion());   //Does nothing unless the metrics are on
+                controller.move(pit);   //The result is shown when the model thread sends the new snapshot
             }
         }
     }
@@ -2,12 +2,15 @@ import javax.swing.*;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.KeyEvent;
 import java.awt.geom.Ellipse2D;
-import java.awt.geom.Rectangle2D;
-import java.util.Random;
 
 /**
- * The view class that deals with the visual aspects of the game
+ * The view class that deals with the visual aspects of the game. The board is drawn by a
+ * BoardRenderer, scaled to fit the view and centered in it, at the resolution of the screen.
+ * The view keeps the Swing side: the state shown, the animation, and the resizing.
+ * F3 shows the paint metrics over the board, and -Dmancala.metrics=true shows them from the start
  * @author Trevor O'Neil, Phillip Nguyen, Kunda Wu
  * @copyright	05/04/2019
  * @version		1.0
@@ -18,83 +21,99 @@ public class MancalaLabel extends JPanel implements ChangeListener
      *
      */
     private static final long serialVersionUID = 1L;
-    private Layout layout;  //The game can have different layouts (different board, marbles)
-    private MancalaLogic model;    //Need a Model instance variable to access the data from it
-    private int[] numMarblesInPits;
-    private Ellipse2D.Double[] pits;    //An array of the pits as ellipses
-    private int[] seeds;
+    public static final long SPRITE_CACHE_BYTES = 16 * 1024 * 1024;
+    public static final int RESIZE_SETTLE_MILLIS = 200;     //Time without resizing before the images are drawn for the new scale
+    public static final int OVERLAY_REFRESH_MILLIS = 500;
+    private static final Color OVERLAY_BACKGROUND = new Color(0, 0, 0, 160);
+    private static final Font OVERLAY_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    private static final Rectangle OVERLAY_REGION = new Rectangle(8, 40, 420, 90);
+    private static final PitHitMap HIT_MAP = boardHitMap();    //The pits of a board BOARD_WIDTH wide, for every scale
+    private BoardRenderer renderer;     //Draws the board, and knows where the pits and text are at the view's size
+    private BoardSnapshot snapshot;    //The state of the game being drawn
+    private BoardSnapshot queued;      //The newest snapshot that came while a move was animated
+    private int[] seeds;    //A pit's marbles are scattered again when its seed changes
+    private int[] seenMarblesInPits;    //The number of marbles in each pit at the last change
+    private MarbleSpriteCache sprites;
+    private Timer resizeSettled;        //Runs from the last resize until the size has settled
+    private SowingAnimation animation;
+    private PaintMetrics metrics;
+    private Timer overlayRefresh;       //Repaints the metrics overlay while it's shown
+    private boolean seenPlayerATurn;
+    private int seenUndosPlayerA;
+    private int seenUndosPlayerB;
 
     /**
      * Constructor that initializes the instance variables
-     * @param model the model to access data from
+     * @param model the model whose state is drawn first
      */
     public MancalaLabel(MancalaLogic model)
     {
-        this.model = model;
-        pits = new Ellipse2D.Double[MancalaLogic.NUMBER_OF_PITS];
-        numMarblesInPits = model.getPits();
+        snapshot = new BoardSnapshot(model, 0, 0);
         seeds = new int[MancalaLogic.NUMBER_OF_PITS];
+        seenMarblesInPits = snapshot.getPits();
+        sprites = new MarbleSpriteCache(SPRITE_CACHE_BYTES);
+        renderer = new BoardRenderer(sprites);
+        renderer.setBackground(getBackground());
+        animation = new SowingAnimation(this, this::showQueuedSnapshot);
+        resizeSettled = new Timer(RESIZE_SETTLE_MILLIS, e -> repaint());
+        resizeSettled.setRepeats(false);
+        metrics = new PaintMetrics(sprites);
+        overlayRefresh = new Timer(OVERLAY_REFRESH_MILLIS, e -> repaint(OVERLAY_REGION));
+        getInputMap(WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0), "toggleMetrics");
+        getActionMap().put("toggleMetrics", new AbstractAction()
+        {
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                setMetricsOverlayVisible(!overlayRefresh.isRunning());
+            }
+        });
+        if (Boolean.getBoolean("mancala.metrics"))
+        {
+            setMetricsOverlayVisible(true);
+        }
+        seenPlayerATurn = snapshot.isPlayerATurn();
+        seenUndosPlayerA = snapshot.getNumUndosPlayerA();
+        seenUndosPlayerB = snapshot.getNumUndosPlayerB();
 
         for (int i = 0; i < seeds.length; i++)
         {
             seeds[i] = i;
         }
 
-        setPits();
+        setPreferredSize(new Dimension(BoardGeometry.BOARD_WIDTH, BoardGeometry.BOARD_HEIGHT));
+        animation.setPits(renderer.getPitBounds(), renderer.getBoardScale());
     }
 
     /**
-     * Sets up each pit on the board as an ellipse and stores it in the pits array
+     * Sets up the pits again when the view changes size
      */
-    private void setPits()
+    @Override
+    public void setBounds(int x, int y, int width, int height)
     {
-        /*
-        This block of code is for coordinates and dimensions of the mancala pits
-         */
-        int mancalaHeight = 406;
-        int mancalaWidth = 88;
-        Point mancalaBStartingPoint = new Point(18, 152);
-        Point mancalaAStartingPoint = new Point(1054, 152);
-
-        /*
-        This block of code is for the coordinates and dimensions of the regular pits
-         */
-        int pitWidth = 126;
-        int pitHeight = 146;
-        Point pitBStartingPoint = new Point(894, 160);
-        Point pitAStartingPoint = new Point(144, 413);
-        int differenceInXCoord = 150;
-
-        int translate = 0; //Scaler is just for moving the x coordinates to the next pit
-        for (int i = 0; i < MancalaLogic.NUMBER_OF_PITS; i++)
+        boolean resized = width != getWidth() || height != getHeight();
+        super.setBounds(x, y, width, height);
+        if (resized && width > 0 && height > 0)
         {
-            if (i == MancalaLogic.MANCALA_B_INDEX) //If it's at the mancala B pit
-            {
-                pits[i] = new Ellipse2D.Double(mancalaBStartingPoint.x, mancalaBStartingPoint.y, mancalaWidth, mancalaHeight);
-            }
-            else if (i == MancalaLogic.MANCALA_A_INDEX)    //If it's at the mancala A pit
-            {
-                pits[i] = new Ellipse2D.Double(mancalaAStartingPoint.x, mancalaAStartingPoint.y, mancalaWidth, mancalaHeight);
-            }
-            else if (i >= MancalaLogic.FIRST_PIT_B_INDEX && i <= MancalaLogic.LAST_PIT_B_INDEX)   //If it's at the regular pits for player B
-            {
-                pits[i] = new Ellipse2D.Double(pitBStartingPoint.x - differenceInXCoord * (translate - 1), pitBStartingPoint.y, pitWidth, pitHeight);
-            }
-            else    //If it's at the regular pits for player A
-            {
-                pits[i] = new Ellipse2D.Double(pitAStartingPoint.x + differenceInXCoord * (translate - 1), pitAStartingPoint.y, pitWidth, pitHeight);
-            }
-
-            if (i == MancalaLogic.LAST_PIT_A_INDEX || i == MancalaLogic.LAST_PIT_B_INDEX) //If we reach the last regular pit for player A or B, reset the scaler
-            {
-                translate = 0;
-            }
-            else
-            {
-                translate++;
-            }
+            renderer.setSize(width, height);
+            animation.setPits(renderer.getPitBounds(), renderer.getBoardScale());
+            resizeSettled.restart();
+            repaint();
         }
+    }
 
+    /**
+     * Makes the hit map of a board BOARD_WIDTH wide. Clicks are scaled to that board, so resizing
+     * the view doesn't make the map again
+     */
+    private static PitHitMap boardHitMap()
+    {
+        Ellipse2D.Double[] boardPits = new Ellipse2D.Double[MancalaLogic.NUMBER_OF_PITS];
+        for (int i = 0; i < boardPits.length; i++)
+        {
+            boardPits[i] = BoardGeometry.getPit(i, 0, 0, 1);
+        }
+        return new PitHitMap(boardPits, BoardGeometry.BOARD_WIDTH, BoardGeometry.BOARD_HEIGHT);
     }
 
     /**
@@ -102,7 +121,15 @@ public class MancalaLabel extends JPanel implements ChangeListener
      * @return the array of pits as ellipses
      */
     public Ellipse2D.Double[] getPits() {
-        return pits;
+        return renderer.getPits();
+    }
+
+    /**
+     * Gets the cache of the marble images of the pits
+     * @return the cache of the marble images of the pits
+     */
+    public MarbleSpriteCache getSpriteCache() {
+        return sprites;
     }
 
     /**
@@ -111,126 +138,172 @@ public class MancalaLabel extends JPanel implements ChangeListener
      */
     public void setBoardLayout(Layout layout)
     {
-        this.layout = layout;
+        renderer.setLayout(layout);
         repaint();
     }
 
     /**
-     * Draws the board, marbles, and text
-     * @param g
+     * Gets the pit under a point
+     * @param point the point in the view's coordinates
+     * @return the index of the pit, or PitHitMap.NO_PIT if the point isn't on a pit
      */
-    @Override
-    protected void paintComponent(Graphics g)
+    public int getPitAt(Point point)
     {
-        super.paintComponent(g);
-        Graphics2D g2 = (Graphics2D) g;
+        double scale = renderer.getBoardScale();
+        return HIT_MAP.pitAt((int) Math.floor((point.x - renderer.getBoardX()) / scale),
+                (int) Math.floor((point.y - renderer.getBoardY()) / scale));
+    }
+
+    /**
+     * Gets the area repainted when the number of marbles in a pit changes
+     * @param i the index of the pit
+     * @return the area of the pit, its marbles and its marble count
+     */
+    public Rectangle getPitRegion(int i)
+    {
+        return renderer.getPitRegion(i);
+    }
 
-        g2.drawImage(layout.getBoardImage(), 0, 0, this);   //Draws the board
+    /**
+     * Gets the metrics of the painting, which measure only while they're on
+     * @return the metrics of the painting
+     */
+    public PaintMetrics getMetrics() {
+        return metrics;
+    }
 
-        /*
-        This block of code draws the text for the player labels
-         */
-        g2.setFont(new Font("TimesRoman", Font.PLAIN, 20));
-        if (model.isPlayerATurn())
+    /**
+     * Shows or hides the paint metrics over the board. Showing them turns them on
+     * @param visible true to show the metrics
+     */
+    public void setMetricsOverlayVisible(boolean visible)
+    {
+        metrics.setEnabled(visible);
+        if (visible)
         {
-            g2.setColor(Color.RED);
-            g2.drawString("Player A", (MancalaFrame.FRAME_WIDTH / 2) - 35, MancalaFrame.FRAME_HEIGHT - 60);
-            g2.setColor(layout.getFontColor());
-            g2.drawString("Player B", (MancalaFrame.FRAME_WIDTH / 2) - 35, 60);
+            overlayRefresh.start();
         }
         else
         {
-            g2.setColor(Color.RED);
-            g2.drawString("Player B", (MancalaFrame.FRAME_WIDTH / 2) - 35, 60);
-            g2.setColor(layout.getFontColor());
-            g2.drawString("Player A", (MancalaFrame.FRAME_WIDTH / 2) - 35, MancalaFrame.FRAME_HEIGHT - 60);
+            overlayRefresh.stop();
         }
-        g2.drawString("Undos left: " + model.getNumUndosPlayerA(), (MancalaFrame.FRAME_WIDTH / 2) + 50, MancalaFrame.FRAME_HEIGHT - 60);
-        g2.drawString("Undos left: " + model.getNumUndosPlayerB(), (MancalaFrame.FRAME_WIDTH / 2) + 50, 60);
-
-        /*
-        This block of code draws the marbles, marble count, and pit labels
-         */
-        Random rand = new Random();
-        for (int i = 0; i < numMarblesInPits.length; i++)
-        {
-            Rectangle2D boundingBox = getPits()[i].getBounds2D();   //Gets the bounding box of the pit
-
-            /*
-            This block of code is for drawing the pit labels and number of marbles
-             */
-            int xCoord;
-            int yCoord;
-            g2.setColor(layout.getFontColor());
-            if (i >= MancalaLogic.FIRST_PIT_A_INDEX && i <= MancalaLogic.LAST_PIT_A_INDEX)
-            {
-                xCoord = (int) boundingBox.getCenterX() - 20;
-                yCoord = (int) boundingBox.getMaxY() + 5;
-                g2.drawString("A" + i, xCoord, yCoord);
-
-                xCoord = (int) boundingBox.getCenterX() - 12;
-                yCoord = (int) boundingBox.getMinY() - 50;
-            }
-            else if (i >= MancalaLogic.FIRST_PIT_B_INDEX && i <= MancalaLogic.LAST_PIT_B_INDEX)
-            {
-                xCoord = (int) boundingBox.getCenterX() - 20;
-                yCoord = (int) boundingBox.getMinY() - 50;
-
-                g2.drawString("B" + (i - 7), xCoord, yCoord);
-
-                xCoord = (int) boundingBox.getCenterX() - 12;
-                yCoord = (int) boundingBox.getMaxY();
-            }
-            else if (i == MancalaLogic.MANCALA_A_INDEX)
-            {
-                xCoord = (int) boundingBox.getMinX() - 20;
-                yCoord = (int) boundingBox.getMaxY() + 3;
-
-                g2.drawString("Mancala A", xCoord, yCoord);
-
-                xCoord = xCoord - 30;
-                yCoord = (int) boundingBox.getCenterY() - 20;
-            }
-            else
-            {
-                xCoord = (int) boundingBox.getMinX();
-                yCoord = (int) boundingBox.getMinY() - 40;
+        repaint(OVERLAY_REGION);
+    }
 
-                g2.drawString("Mancala B", xCoord, yCoord);
+    /**
+     * Gets the animation of the moves
+     * @return the animation of the moves
+     */
+    public SowingAnimation getAnimation() {
+        return animation;
+    }
 
-                xCoord = (int) boundingBox.getMaxX() + 20;
-                yCoord = (int) boundingBox.getCenterY() - 20;
-            }
-            g2.drawString("" + numMarblesInPits[i], xCoord, yCoord); //Draws he number of marbles
+    /**
+     * Draws the board, marbles, and text with the renderer. Only the pits inside the area being
+     * repainted are drawn. While a move is animated, the pits show the marbles dropped so far
+     * @param g
+     */
+    @Override
+    protected void paintComponent(Graphics g)
+    {
+        boolean measuring = metrics.isEnabled();
+        long paintStart = measuring ? System.nanoTime() : 0;
+        super.paintComponent(g);
+        Graphics2D g2 = (Graphics2D) g;
+        Rectangle clip = g2.getClipBounds();
+        int marblesDrawn = renderer.paint(g2, clip, snapshot, seeds, animation, resizeSettled.isRunning());
 
-            /*
-            This block of code is for drawing the marbles
-             */
-            if (model.getPrevPits()[i] != numMarblesInPits[i])
+        if (measuring)
+        {
+            if (clip == null || clip.intersects(OVERLAY_REGION))
             {
-                seeds[i]++;
+                paintOverlay(g2);
             }
-            rand.setSeed(seeds[i]);
-            for (int j = 0; j < numMarblesInPits[i]; j++)
-            {
-                int randX = rand.nextInt((int) boundingBox.getWidth() - Layout.MARBLE_WIDTH * 2 + 15);
-                int randY = rand.nextInt((int) boundingBox.getHeight() - Layout.MARBLE_HEIGHT * 2 - 15);
-
-                g2.drawImage(layout.getMarbleImage(), (int) (boundingBox.getX() + randX), (int) (boundingBox.getY() + randY), this);
+            metrics.painted(paintStart, marblesDrawn, snapshot.getVersion());
+        }
+        StartupTimer.framePainted();
+    }
 
-            }
+    /**
+     * Draws the paint metrics in the top left corner
+     */
+    private void paintOverlay(Graphics2D g2)
+    {
+        g2.setColor(OVERLAY_BACKGROUND);
+        g2.fill(OVERLAY_REGION);
+        g2.setColor(Color.WHITE);
+        g2.setFont(OVERLAY_FONT);
+        String[] lines = metrics.getReport();
+        for (int i = 0; i < lines.length; i++)
+        {
+            g2.drawString(lines[i], OVERLAY_REGION.x + 6, OVERLAY_REGION.y + 16 * (i + 1));
         }
     }
 
     /**
-     * Repaints the board when the state of the model changes
+     * Shows the new state of the game when it changes. The new state is the BoardSnapshot sent
+     * by a GameController, or else it's copied from the MancalaLogic that changed. A state that
+     * comes while a move is animated waits until the animation ends
      * @return ChangeListener that repaints the board
      */
     @Override
     public void stateChanged(ChangeEvent e)
     {
-        numMarblesInPits = model.getPits();
-        this.repaint();
+        metrics.changed();
+        Object source = e.getSource();
+        BoardSnapshot newSnapshot = source instanceof BoardSnapshot ? (BoardSnapshot) source : new BoardSnapshot((MancalaLogic) source, 0, 0);
+        if (animation.isRunning())
+        {
+            queued = newSnapshot;   //Only the newest waits, so the view never falls behind by more than one move
+        }
+        else
+        {
+            showSnapshot(newSnapshot);
+        }
+    }
+
+    private void showQueuedSnapshot()
+    {
+        if (queued != null)
+        {
+            BoardSnapshot next = queued;
+            queued = null;
+            showSnapshot(next);
+        }
+    }
+
+    /**
+     * Animates the move to a new state if it's one move from the state shown, and repaints the
+     * parts of the board that changed: the pits whose number of marbles changed, and the turn and undo text
+     */
+    private void showSnapshot(BoardSnapshot newSnapshot)
+    {
+        BoardSnapshot before = snapshot;
+        snapshot = newSnapshot;
+        animation.start(before, snapshot);
+
+        /*
+        This block of code scatters the marbles again in the pits that changed
+         */
+        for (int i = 0; i < MancalaLogic.NUMBER_OF_PITS; i++)
+        {
+            if (seenMarblesInPits[i] != snapshot.getPit(i))
+            {
+                seenMarblesInPits[i] = snapshot.getPit(i);
+                seeds[i]++;
+                repaint(renderer.getPitRegion(i));
+            }
+        }
+
+        if (seenPlayerATurn != snapshot.isPlayerATurn() || seenUndosPlayerA != snapshot.getNumUndosPlayerA()
+                || seenUndosPlayerB != snapshot.getNumUndosPlayerB())
+        {
+            seenPlayerATurn = snapshot.isPlayerATurn();
+            seenUndosPlayerA = snapshot.getNumUndosPlayerA();
+            seenUndosPlayerB = snapshot.getNumUndosPlayerB();
+            repaint(renderer.getTurnRegionA());
+            repaint(renderer.getTurnRegionB());
+        }
     }
 
 }
\ No newline at end of file
@@ -1,10 +1,15 @@
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The model class for Mancala that handles the game logic and data
+ *
+ * Change listeners are called synchronously on the thread that changed the model, after every
+ * move, undo and unmake, so they must be trivial, like marking a view dirty. Observers that do
+ * real work, such as views and spectators, belong on a GameEventBus, which GameController
+ * publishes BoardSnapshots to without making the moving thread wait
  * @author Trevor O'Neil, Phillip Nguyen, Kunda Wu
  * @copyright	05/04/2019
  * @version		1.0
@@ -22,9 +27,28 @@ public class MancalaLogic
     public static final int LAST_PIT_A_INDEX = 6;
     public static final int NUMBER_OF_PITS = 14;
 
+    /*
+    Each move pushes a record onto the history: one char for each pit it changed, holding the
+    index of the pit and the marbles it had before (so a pit holds at most 4095 marbles), then one
+    char holding the number of pits changed and the turn and winner flags from before the move
+     */
+    private static final int PIT_INDEX_BITS = 4;
+    private static final int PIT_INDEX_MASK = (1 << PIT_INDEX_BITS) - 1;
+    private static final int CHANGED_PITS_MASK = 0xFF;
+    private static final int PLAYER_A_MOVED = 1 << 8;
+    private static final int REPEAT_TURN_BEFORE = 1 << 9;
+    private static final int PLAYER_A_WON_BEFORE = 1 << 10;
+    private static final int PLAYER_B_WON_BEFORE = 1 << 11;
+    private static final int INITIAL_HISTORY_LENGTH = 32;   //Grows as the game goes on, so a new game stays small
+
     private int[] pits; //This array holds the number of marbles in each pit
-    private int[] prevPits; //This array holds the number of marbles in each pit in the previous turn
-    private ArrayList<ChangeListener> listeners;
+    private char[] history; //The records of the moves played, oldest first
+    private int historyLength;
+    private int changedPits;    //Bit i is set once pit i is in the record of the move being played
+    private boolean recording;
+    private int recordHeader;   //The flags of the move being played, before its number of pits is added
+    private CopyOnWriteArrayList<ChangeListener> listeners;    //null until a listener is added
+    private ChangeEvent changeEvent;    //Shared by every notification, made with the first listener
     private boolean playerATurn;
     private int numUndosPlayerA;
     private int numUndosPlayerB;
@@ -45,9 +69,8 @@ public class MancalaLogic
         {
             pits[i] = 0;
         }
-        prevPits = new int[NUMBER_OF_PITS];
+        history = new char[INITIAL_HISTORY_LENGTH];
 
-        listeners = new ArrayList<>();
         playerATurn = true;
 
         numUndosPlayerA = 3;
@@ -57,15 +80,19 @@ public class MancalaLogic
     }
 
     /**
-     * Called inside mutator methods to notify changes to the view
+     * Called inside mutator methods to notify changes to the view. The listeners are called on the
+     * thread that changed the model (see the class comment)
      */
     public void notifyChanges()
     {
-        ChangeEvent event = new ChangeEvent(this);
+        if (listeners == null)
+        {
+            return;     //Games without a view, like those of the server, make no events
+        }
 
         for (ChangeListener listener : listeners)
         {
-            listener.stateChanged(event);
+            listener.stateChanged(changeEvent);
         }
     }
 
@@ -79,12 +106,10 @@ public class MancalaLogic
             if (i == MANCALA_A_INDEX || i == MANCALA_B_INDEX)
             {
                 pits[i] = 0;
-                prevPits[i] = 0;
             }
             else
             {
                 pits[i] = numberOfStartingMarbles;
-                prevPits[i] = numberOfStartingMarbles;
             }
         }
 
@@ -94,6 +119,9 @@ public class MancalaLogic
 
         repeatTurn = false;
         numUndosPlayerB = 3;
+        playerAWon = false;     //A new game starts with no winner, so it only depends on the moves played since
+        playerBWon = false;
+        historyLength = 0;
 
         notifyChanges();
     }
@@ -140,38 +168,76 @@ public class MancalaLogic
     }
 
     /**
-     * Gets the array that holds the number of marbles in each pit from the previous turn
-     * @return the array that holds the number of marbles in each pit from the previous turn
+     * Gets the number of marbles in each pit from the previous turn. It's made from the record of
+     * the last move when it's asked for, so moves don't keep a copy of the pits
+     * @return a new array that holds the number of marbles in each pit from the previous turn
      */
     public int[] getPrevPits() {
+        int[] prevPits = pits.clone();
+        if (historyLength > 0)
+        {
+            int top = history[historyLength - 1];
+            for (int k = historyLength - 1 - (top & CHANGED_PITS_MASK); k < historyLength - 1; k++)
+            {
+                prevPits[history[k] & PIT_INDEX_MASK] = history[k] >>> PIT_INDEX_BITS;
+            }
+        }
         return prevPits;
     }
 
+    /**
+     * Packs the pits and the player's turn into a PackedBoard state, so engines can work from
+     * the current game without copying this model
+     * @param board the array to write the state to
+     * @param offset the index of the state in the array
+     */
+    public void packInto(long[] board, int offset)
+    {
+        PackedBoard.pack(pits, playerATurn, board, offset);
+    }
+
+    /**
+     * Loads a PackedBoard state into the pits, so the view keeps drawing from getPits()
+     * @param board the array holding the state
+     * @param offset the index of the state in the array
+     */
+    public void loadPacked(long[] board, int offset)
+    {
+        PackedBoard.unpack(board, offset, pits);
+        playerATurn = PackedBoard.isPlayerATurn(board, offset);
+        repeatTurn = false;
+        playerAWon = false;
+        playerBWon = false;
+        historyLength = 0;
+
+        notifyChanges();
+    }
+
     /**
      * Updates the array when the player plays a turn
      * @param index the index of the pit the player clicked on
      */
     public void move(int index) {
 
-        if (turnIsValid(index)) //If the player clicked on their pit
+        boolean valid = turnIsValid(index);
+        if (valid) //If the player clicked on their pit
         {
-            /*
-            This block of code fills the array of pits for the previous turn
-            */
-            for (int i = 0; i < prevPits.length; i++)
-            {
-                prevPits[i] = pits[i];
-            }
+            startRecord();
 
             int numberOfMar = pits[index];    //number of mar in the hit pit
             int originalNumOfMar = pits[index];
+            if (originalNumOfMar > 0)
+            {
+                change(index);
+            }
             pits[index] = 0;        //Empty the pit the player clicked on
             int i = index + 1;        //the starting pit
 
             int indexEndPit; //the index of the ending pit
             if (playerATurn)
             {
-                indexEndPit = (index + numberOfMar) % 14 + (index + numberOfMar) / 14;
+                //Player A's marbles go around the 13 pits A1 to B6, skipping mancala B
+                indexEndPit = (index - 1 + numberOfMar) % 13 + 1;
             }
             else
             {
@@ -207,6 +273,7 @@ public class MancalaLogic
                 if (playerATurn && i % 14 != MANCALA_B_INDEX ||
                         !playerATurn && i % 14 != MANCALA_A_INDEX)
                 {
+                    change(i % 14);
                     pits[i % 14]++;
                     numberOfMar--;
                 }
@@ -222,6 +289,8 @@ public class MancalaLogic
             {
                 if (playerATurn && indexEndPit >= FIRST_PIT_A_INDEX && indexEndPit <= LAST_PIT_A_INDEX)
                 {
+                    change(MANCALA_A_INDEX);
+                    change(14 - indexEndPit);
                     pits[MANCALA_A_INDEX] += (pits[indexEndPit] + pits[14 - indexEndPit]);
                     pits[indexEndPit] = 0;
                     pits[14 - indexEndPit] = 0;
@@ -254,6 +323,8 @@ public class MancalaLogic
                         oppositeIndex = 1;
                     }
 
+                    change(MANCALA_B_INDEX);
+                    change(oppositeIndex);
                     pits[MANCALA_B_INDEX] += pits[indexEndPit] + pits[oppositeIndex];
                     pits[indexEndPit] = 0;
                     pits[oppositeIndex] = 0;
@@ -297,7 +368,23 @@ public class MancalaLogic
          */
         if (playerA_Pit == 0 || playerB_Pit == 0)
         {
+            if (playerA_Pit > 0)
+            {
+                change(MANCALA_A_INDEX);
+            }
+            if (playerB_Pit > 0)
+            {
+                change(MANCALA_B_INDEX);
+            }
             for (int j = 1; j < 7; j++) {
+                if (pits[j] > 0)
+                {
+                    change(j);
+                }
+                if (pits[14 - j] > 0)
+                {
+                    change(14 - j);
+                }
                 pits[7] += pits[j];
                 pits[0] += pits[14-j];
                 pits[j] = 0;
@@ -317,60 +404,129 @@ public class MancalaLogic
             notifyChanges();
         }
 
+        if (valid)
+        {
+            endRecord();
+        }
+    }
+
+    /**
+     * Opens the record of a move
+     */
+    private void startRecord()
+    {
+        if (history.length - historyLength < NUMBER_OF_PITS + 1)
+        {
+            history = Arrays.copyOf(history, history.length * 2);
+        }
+        changedPits = 0;
+        recording = true;
+        recordHeader = (playerATurn ? PLAYER_A_MOVED : 0) | (repeatTurn ? REPEAT_TURN_BEFORE : 0)
+                | (playerAWon ? PLAYER_A_WON_BEFORE : 0) | (playerBWon ? PLAYER_B_WON_BEFORE : 0);
+    }
+
+    /**
+     * Adds a pit to the record of the move being played, the first time the move changes it
+     * @param index the index of the pit about to change
+     */
+    private void change(int index)
+    {
+        if (recording && (changedPits & (1 << index)) == 0)
+        {
+            changedPits |= 1 << index;
+            history[historyLength++] = (char) (pits[index] << PIT_INDEX_BITS | index);
+        }
+    }
+
+    /**
+     * Closes the record of a move with its header. A move that changed no pit leaves no record
+     */
+    private void endRecord()
+    {
+        recording = false;
+        int count = Integer.bitCount(changedPits);
+        if (count == 0)
+        {
+            return;
+        }
+        history[historyLength++] = (char) (recordHeader | count);
     }
 
     /**
-     * Undos the turn if the player chooses to do so
+     * Undos the last move if the player who played it has undos left. Moves can be undone
+     * all the way back to the start of the game
      */
     public void undo()
     {
-        if (!Arrays.equals(pits, prevPits))
+        if (historyLength > 0)
         {
-            if (playerATurn && numUndosPlayerB > 0 && !repeatTurn ||
-                    playerATurn && numUndosPlayerA > 0 && repeatTurn)
+            boolean playerAMoved = (history[historyLength - 1] & PLAYER_A_MOVED) != 0;
+            if (playerAMoved && numUndosPlayerA > 0)
             {
-                if (!repeatTurn)
-                {
-                    numUndosPlayerB--;
-                }
-                else
-                {
-                    numUndosPlayerA--;
-                }
-                for (int i = 0; i < pits.length; i++)
-                {
-                    pits[i] = prevPits[i];
-                }
-
-                if (!repeatTurn)
-                {
-                    playerATurn = !playerATurn;
-                }
-                notifyChanges();
+                numUndosPlayerA--;
+                unmake();
             }
-            else if (!playerATurn && numUndosPlayerA > 0 && !repeatTurn ||
-                    !playerATurn && numUndosPlayerB > 0 && repeatTurn)
+            else if (!playerAMoved && numUndosPlayerB > 0)
             {
-                if (!repeatTurn)
-                {
-                    numUndosPlayerA--;
-                }
-                else
-                {
-                    numUndosPlayerB--;
-                }
-                for (int i = 0; i < pits.length; i++)
-                {
-                    pits[i] = prevPits[i];
-                }
+                numUndosPlayerB--;
+                unmake();
+            }
+        }
+    }
 
-                if (!repeatTurn)
-                {
-                    playerATurn = !playerATurn;
-                }
-                notifyChanges();
+    /**
+     * Takes back the last move without counting it against the player's undos, so search
+     * can play a move and take it back. It only puts back the pits the move changed
+     */
+    public void unmake()
+    {
+        if (historyLength == 0)
+        {
+            return;
+        }
+        int header = history[--historyLength];
+        for (int count = header & CHANGED_PITS_MASK; count > 0; count--)
+        {
+            int change = history[--historyLength];
+            int pit = change & PIT_INDEX_MASK;
+            pits[pit] = change >>> PIT_INDEX_BITS;
+        }
+        playerATurn = (header & PLAYER_A_MOVED) != 0;
+        repeatTurn = (header & REPEAT_TURN_BEFORE) != 0;
+        playerAWon = (header & PLAYER_A_WON_BEFORE) != 0;
+        playerBWon = (header & PLAYER_B_WON_BEFORE) != 0;
+
+        notifyChanges();
+    }
+
+    /**
+     * Checks if a player played the last move, the one undo would take back
+     * @param playerA true for player A, false for player B
+     * @return true if that player played the last move, false if the other player did or no move was played
+     */
+    public boolean playedLastMove(boolean playerA)
+    {
+        return historyLength > 0 && ((history[historyLength - 1] & PLAYER_A_MOVED) != 0) == playerA;
+    }
+
+    /**
+     * Counts the moves played since a player's last move, such as the computer's moves since the
+     * human's last one
+     * @param playerA true for player A, false for player B
+     * @return the number of moves on top of the player's last move, or -1 if the player has no move to take back
+     */
+    public int getMovesSince(boolean playerA)
+    {
+        int moves = 0;
+        for (int top = historyLength - 1; top >= 0; top -= (history[top] & CHANGED_PITS_MASK) + 1)
+        {
+            if (((history[top] & PLAYER_A_MOVED) != 0) == playerA)
+            {
+                return moves;
             }
+            moves++;
         }
+        return -1;
     }
 
     /**
@@ -392,14 +548,32 @@ public class MancalaLogic
     }
 
     /**
-     * Adds a change listener to the array list of listeners
+     * Adds a change listener, which must be trivial since it's called on the thread that moves.
+     * Listeners can be added and removed while they are being notified
      * @param listener the change listener to be added
      */
     public void addChangeListener(ChangeListener listener)
     {
+        if (listeners == null)
+        {
+            listeners = new CopyOnWriteArrayList<>();
+            changeEvent = new ChangeEvent(this);
+        }
         listeners.add(listener);
     }
 
+    /**
+     * Removes a change listener
+     * @param listener the change listener to be removed
+     */
+    public void removeChangeListener(ChangeListener listener)
+    {
+        if (listeners != null)
+        {
+            listeners.remove(listener);
+        }
+    }
+
     /**
      * Checks which is the player's turn
      * @return true if it's player A's turn, false if it's player B's turn
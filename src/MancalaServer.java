@@ -0,0 +1,1133 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A game server that hosts many games at once, each a MancalaLogic in a session, for clients
+ * connected over TCP. Connections are handled without blocking by a few event loops, each a
+ * thread with a NIO selector, so thousands of connections need only as many threads as cores.
+ *
+ * The protocol is lines of ASCII text ending in '\n'. The client sends:
+ *   NEW marbles [side]     starts a game in a new session and joins it
+ *   JOIN session [side]    joins a session, or watches it without a side
+ *   MOVE pit               plays a pit with marbles, by its index in MancalaLogic's pits
+ *   UNDO                   undos the last move, if the connection played it and has undos left
+ *   END                    ends the session, freeing it
+ *   QUIT                   closes the connection
+ * where a side is A, B or AB (the default for NEW), the turns the connection may play.
+ * The server answers NEW with "SESSION id", a command it can't carry out with "ERROR message",
+ * and sends every connection of a session its state after each change, and on JOIN:
+ *   STATE session version turn result undosA undosB pit0 ... pit13
+ * where turn is A or B and result is - while the game goes on, then A, B or D for a draw.
+ * A client can't be slower than the changes, since a connection only gets the newest state:
+ * states that weren't sent yet are replaced by newer ones.
+ *
+ * Sessions are kept in SHARDS maps, each with its own lock, chosen by the session's id, and each
+ * game has its own lock, so games on different loops never wait for each other. Sessions hold
+ * only their game and their connections (see measureSessionBytes).
+ *
+ * With a MoveJournal, the server saves every change and restores the sessions when it starts.
+ * Each loop keeps the answers to the commands it handled in one pass as a batch, and sends them
+ * once the batch's records are on the disk. The loop doesn't wait for that, so the commands that
+ * come in meanwhile are saved together with the next force of the journal.
+ *
+ * Usage: java MancalaServer [port, 0 for any] [loops] [journal directory],
+ * or java MancalaServer --measure [sessions]
+ */
+public class MancalaServer implements Closeable
+{
+    public static final int SHARDS = 64;
+    public static final int MAX_LINE_BYTES = 64;
+    public static final int MAX_OUTPUT_BYTES = 64 * 1024;   //A client that reads slower than this is dropped
+    public static final int MAX_MARBLES = 9;
+    public static final int ACCEPT_BACKLOG = 1024;  //Connections waiting to be accepted, as when many clients connect at once
+
+    private static final int READ_BUFFER_BYTES = 256;
+    private static final int WRITE_BUFFER_BYTES = 256;
+    private static final int SIDE_A = 1;
+    private static final int SIDE_B = 2;
+
+    private final ServerSocketChannel server;
+    private final Loop[] loops;
+    private final Shard[] shards = new Shard[SHARDS];
+    private final AtomicInteger nextSessionId = new AtomicInteger(1);
+    private final AtomicInteger sessions = new AtomicInteger();
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicInteger connections = new AtomicInteger();
+    private volatile MoveJournal journal;   //null when the games aren't saved, or the journal failed
+    private volatile boolean closed;
+
+    /**
+     * The game of a session and the connections that get its states. Guarded by its own lock
+     */
+    private static class Session
+    {
+        final int id;
+        final MancalaLogic game = new MancalaLogic();
+        long version;
+        boolean ended;
+        Connection[] connections = new Connection[2];
+        int numberOfConnections;
+
+        Session(int id)
+        {
+            this.id = id;
+        }
+
+        void add(Connection connection)
+        {
+            if (numberOfConnections == connections.length)
+            {
+                Connection[] more = new Connection[connections.length * 2];
+                System.arraycopy(connections, 0, more, 0, numberOfConnections);
+                connections = more;
+            }
+            connections[numberOfConnections++] = connection;
+        }
+
+        void remove(Connection connection)
+        {
+            for (int i = 0; i < numberOfConnections; i++)
+            {
+                if (connections[i] == connection)
+                {
+                    connections[i] = connections[--numberOfConnections];
+                    connections[numberOfConnections] = null;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Gets the state line of the game
+         */
+        byte[] state()
+        {
+            StringBuilder line = new StringBuilder(64);
+            line.append("STATE ").append(id).append(' ').append(version).append(' ')
+                    .append(game.isPlayerATurn() ? 'A' : 'B').append(' ');
+            if (game.playerAWon())
+            {
+                line.append(game.playerBWon() ? 'D' : 'A');
+            }
+            else
+            {
+                line.append(game.playerBWon() ? 'B' : '-');
+            }
+            line.append(' ').append(game.getNumUndosPlayerA()).append(' ').append(game.getNumUndosPlayerB());
+            for (int pit : game.getPits())
+            {
+                line.append(' ').append(pit);
+            }
+            return line.append('\n').toString().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    /**
+     * A state to send to the connections of a session once its change is saved
+     */
+    private static class Update
+    {
+        final Session session;
+        final byte[] state;
+        final long version;
+
+        Update(Session session, byte[] state, long version)
+        {
+            this.session = session;
+            this.state = state;
+            this.version = version;
+        }
+    }
+
+    /**
+     * The answers and changes of the commands a loop handled in one pass, kept until the
+     * records of the commands are saved. A null answer closes its connection
+     */
+    private static class Batch
+    {
+        final ArrayList<Connection> recipients = new ArrayList<>();
+        final ArrayList<byte[]> answers = new ArrayList<>();
+        final ArrayList<Update> updates = new ArrayList<>();
+        long sequence;      //The last record appended by the loop when the batch ended
+
+        boolean isEmpty()
+        {
+            return answers.isEmpty() && updates.isEmpty();
+        }
+
+        void clear()
+        {
+            recipients.clear();
+            answers.clear();
+            updates.clear();
+        }
+    }
+
+    /**
+     * A map of some of the sessions, with its own lock
+     */
+    private static class Shard
+    {
+        private final HashMap<Integer, Session> sessions = new HashMap<>();
+
+        synchronized Session get(int id)
+        {
+            return sessions.get(id);
+        }
+
+        synchronized void put(Session session)
+        {
+            sessions.put(session.id, session);
+        }
+
+        synchronized boolean remove(Session session)
+        {
+            return sessions.remove(session.id, session);
+        }
+    }
+
+    /**
+     * Constructor that opens the server socket and restores the sessions of a journal
+     * @param port the port to listen on, or 0 for any free port
+     * @param numberOfLoops the number of event loop threads
+     * @param journal the journal that saves the games, or null
+     * @throws IOException if the port can't be opened
+     */
+    public MancalaServer(int port, int numberOfLoops, MoveJournal journal) throws IOException
+    {
+        for (int i = 0; i < SHARDS; i++)
+        {
+            shards[i] = new Shard();
+        }
+        this.journal = journal;
+        if (journal != null)
+        {
+            int lastId = 0;
+            for (int id : journal.getSessions())
+            {
+                Session session = new Session(id);
+                journal.replay(id, session.game);
+                shard(id).put(session);
+                sessions.incrementAndGet();
+                lastId = Math.max(lastId, id);
+            }
+            nextSessionId.set(lastId + 1);
+        }
+
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+        server.configureBlocking(false);
+        loops = new Loop[numberOfLoops];
+        for (int i = 0; i < numberOfLoops; i++)
+        {
+            loops[i] = new Loop(i);
+        }
+        server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Starts the event loops
+     */
+    public void start()
+    {
+        for (Loop loop : loops)
+        {
+            loop.thread.start();
+        }
+    }
+
+    /**
+     * Gets the port the server listens on
+     */
+    public int getPort()
+    {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Gets the number of sessions
+     */
+    public int getSessions()
+    {
+        return sessions.get();
+    }
+
+    /**
+     * Gets the number of open connections
+     */
+    public int getConnections()
+    {
+        return connections.get();
+    }
+
+    /**
+     * Gets the number of commands handled
+     */
+    public long getCommands()
+    {
+        return commands.get();
+    }
+
+    private Shard shard(int id)
+    {
+        return shards[id & (SHARDS - 1)];
+    }
+
+    /**
+     * Stops the event loops and closes every connection. The journal isn't closed
+     */
+    @Override
+    public void close() throws IOException
+    {
+        closed = true;
+        for (Loop loop : loops)
+        {
+            loop.selector.wakeup();
+        }
+        for (Loop loop : loops)
+        {
+            try
+            {
+                loop.thread.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        server.close();
+    }
+
+    /**
+     * A thread that handles the connections registered with its selector
+     */
+    private final class Loop implements Runnable
+    {
+        final Selector selector;
+        final Thread thread;
+        final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();  //Work sent by the other loops
+        final ArrayList<Connection> dirty = new ArrayList<>();  //Connections with output to write
+        final ArrayDeque<Batch> waiting = new ArrayDeque<>();   //Batches whose records aren't saved yet, oldest first
+        final ArrayDeque<Batch> free = new ArrayDeque<>();
+        final Runnable release = () -> execute(this::release);  //Run by the journal when records are saved
+        Batch current = new Batch();
+        long journalSequence;   //The last record this loop appended to the journal
+        long requestedSequence; //The last record the journal was asked to tell this loop about
+        int nextLoop;   //The loop the next accepted connection goes to, used by the loop that accepts
+
+        Loop(int index) throws IOException
+        {
+            selector = Selector.open();
+            thread = new Thread(this, "Server loop " + index);
+        }
+
+        /**
+         * Runs a task on this loop's thread
+         */
+        void execute(Runnable task)
+        {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                while (!closed)
+                {
+                    selector.select();
+                    for (Runnable task = tasks.poll(); task != null; task = tasks.poll())
+                    {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext())
+                    {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid())
+                        {
+                            continue;
+                        }
+                        if (key.isAcceptable())
+                        {
+                            accept();
+                            continue;
+                        }
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isReadable())
+                        {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable())
+                        {
+                            dirty.add(connection);
+                        }
+                    }
+                    finishBatch();
+                }
+            }
+            catch (IOException e)
+            {
+                System.err.println(thread.getName() + " stopped: " + e);
+            }
+            finally
+            {
+                for (SelectionKey key : selector.keys())
+                {
+                    if (key.attachment() instanceof Connection)
+                    {
+                        ((Connection) key.attachment()).close();
+                    }
+                }
+                try
+                {
+                    selector.close();
+                }
+                catch (IOException e)
+                {
+                    System.err.println(thread.getName() + " can't close its selector: " + e);
+                }
+            }
+        }
+
+        /**
+         * Takes the new connections and hands them out to the loops in turn
+         */
+        private void accept() throws IOException
+        {
+            for (SocketChannel channel = server.accept(); channel != null; channel = server.accept())
+            {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                connections.incrementAndGet();
+                Loop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+                SocketChannel accepted = channel;
+                if (loop == this)
+                {
+                    register(channel);
+                }
+                else
+                {
+                    loop.execute(() -> loop.register(accepted));
+                }
+            }
+        }
+
+        void register(SocketChannel channel)
+        {
+            Connection connection = new Connection(channel, this);
+            try
+            {
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            }
+            catch (IOException e)
+            {
+                connection.close();
+            }
+        }
+
+        /**
+         * Ends the batch of this pass, asking the journal to say when its records are saved, sends
+         * the batches that are saved and writes the output of the connections
+         */
+        private void finishBatch()
+        {
+            if (!current.isEmpty())
+            {
+                Batch batch = current;
+                batch.sequence = journalSequence;
+                waiting.add(batch);
+                current = free.isEmpty() ? new Batch() : free.poll();
+                MoveJournal saving = journal;
+                if (saving != null && batch.sequence > requestedSequence)
+                {
+                    requestedSequence = batch.sequence;
+                    saving.afterSync(batch.sequence, release);
+                }
+            }
+            release();
+
+            for (int i = 0; i < dirty.size(); i++)
+            {
+                dirty.get(i).flush();
+            }
+            dirty.clear();
+        }
+
+        /**
+         * Sends the answers and states of the waiting batches whose records are saved, in order
+         */
+        private void release()
+        {
+            while (!waiting.isEmpty())
+            {
+                Batch batch = waiting.peek();
+                MoveJournal saving = journal;
+                if (saving != null)
+                {
+                    try
+                    {
+                        if (!saving.isSaved(batch.sequence))
+                        {
+                            return;
+                        }
+                    }
+                    catch (IOException e)
+                    {
+                        System.err.println("The games are no longer saved: " + e);
+                        journal = null;
+                    }
+                }
+                waiting.poll();
+
+                for (int i = 0; i < batch.answers.size(); i++)
+                {
+                    Connection connection = batch.recipients.get(i);
+                    byte[] answer = batch.answers.get(i);
+                    if (answer == null)
+                    {
+                        connection.flush();
+                        connection.close();
+                    }
+                    else
+                    {
+                        connection.write(answer);
+                    }
+                }
+                for (Update update : batch.updates)
+                {
+                    Session session = update.session;
+                    synchronized (session)
+                    {
+                        /*
+                        A push can close a connection that stopped reading, which swaps the last
+                        connection into its place, so the connections are pushed to from the end
+                         */
+                        for (int i = session.numberOfConnections - 1; i >= 0; i--)
+                        {
+                            session.connections[i].push(session.id, update.state, update.version);
+                        }
+                    }
+                }
+                batch.clear();
+                free.add(batch);
+            }
+        }
+    }
+
+    /**
+     * A client connection, only used on its loop's thread except for push
+     */
+    private final class Connection
+    {
+        final SocketChannel channel;
+        final Loop loop;
+        SelectionKey key;
+        final ByteBuffer in = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        ByteBuffer out = ByteBuffer.allocate(WRITE_BUFFER_BYTES);
+        boolean dirty;
+        boolean open = true;
+        boolean closing;    //No more commands are read once the connection is asked to close
+        Session session;
+        int sides;
+
+        /*
+        These are the session whose states the connection gets and the newest state pushed to it,
+        guarded by the connection's lock
+         */
+        int watching = -1;
+        byte[] pushedState;
+        long pushedVersion = -1;
+        boolean pushPending;
+
+        Connection(SocketChannel channel, Loop loop)
+        {
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        void read()
+        {
+            try
+            {
+                if (channel.read(in) < 0)
+                {
+                    close();
+                    return;
+                }
+            }
+            catch (IOException e)
+            {
+                close();
+                return;
+            }
+
+            /*
+            This block of code handles each whole line in the buffer and keeps the rest for the next read
+             */
+            byte[] bytes = in.array();
+            int start = 0;
+            for (int i = 0; i < in.position() && !closing; i++)
+            {
+                if (bytes[i] == '\n')
+                {
+                    handle(new Line(bytes, start, i));
+                    start = i + 1;
+                }
+            }
+            if (closing)
+            {
+                return;
+            }
+            if (in.position() - start > MAX_LINE_BYTES)
+            {
+                send("ERROR line too long\n");
+                quit();
+                return;
+            }
+            System.arraycopy(bytes, start, bytes, 0, in.position() - start);
+            in.position(in.position() - start);
+        }
+
+        private void handle(Line line)
+        {
+            commands.incrementAndGet();
+            String command = line.word();
+            switch (command)
+            {
+                case "MOVE":
+                    move(line.number());
+                    break;
+                case "UNDO":
+                    undo();
+                    break;
+                case "NEW":
+                    newSession(line.number(), line.sides(SIDE_A | SIDE_B));
+                    break;
+                case "JOIN":
+                    join(line.number(), line.sides(0));
+                    break;
+                case "END":
+                    end();
+                    break;
+                case "QUIT":
+                    quit();
+                    break;
+                default:
+                    send("ERROR unknown command\n");
+            }
+        }
+
+        private void newSession(int marbles, int sides)
+        {
+            if (marbles < 1 || marbles > MAX_MARBLES || sides < 0)
+            {
+                send("ERROR usage: NEW marbles [A|B|AB]\n");
+                return;
+            }
+            Session created = new Session(nextSessionId.getAndIncrement());
+            leave();    //Before taking the new session's lock, so no loop holds two sessions' locks
+            synchronized (created)
+            {
+                created.game.fillPitsWithStartingMarbles(marbles);
+                journal(created.id, MoveJournal.NEW_GAME, marbles);
+                shard(created.id).put(created);
+                sessions.incrementAndGet();
+                send("SESSION " + created.id + "\n");
+                attach(created, sides);
+                changed(created);
+            }
+        }
+
+        private void join(int id, int sides)
+        {
+            Session found = id < 0 ? null : shard(id).get(id);
+            if (found == null || sides < 0)
+            {
+                send("ERROR no session " + id + "\n");
+                return;
+            }
+            leave();    //Before taking the joined session's lock, so no loop holds two sessions' locks
+            synchronized (found)
+            {
+                if (found.ended)
+                {
+                    send("ERROR no session " + id + "\n");
+                    return;
+                }
+                attach(found, sides);
+                synchronized (this)
+                {
+                    pushedVersion = found.version;  //Older states still on their way are dropped
+                }
+                send(found.state());
+            }
+        }
+
+        /**
+         * Adds the connection to a session. Called holding the session's lock, after leave
+         */
+        private void attach(Session joined, int sides)
+        {
+            session = joined;
+            this.sides = sides;
+            joined.add(this);
+            synchronized (this)
+            {
+                watching = joined.id;
+                pushedState = null;     //A state of the last session that wasn't sent yet is dropped
+                pushedVersion = -1;
+            }
+        }
+
+        private void leave()
+        {
+            Session left = session;
+            if (left != null)
+            {
+                synchronized (left)
+                {
+                    left.remove(this);
+                }
+                session = null;
+                synchronized (this)
+                {
+                    watching = -1;
+                    pushedState = null;
+                }
+            }
+        }
+
+        private void move(int pit)
+        {
+            Session playing = session;
+            if (playing == null)
+            {
+                send("ERROR no session\n");
+                return;
+            }
+            synchronized (playing)
+            {
+                MancalaLogic game = playing.game;
+                if (playing.ended)
+                {
+                    send("ERROR session ended\n");
+                }
+                else if ((sides & (game.isPlayerATurn() ? SIDE_A : SIDE_B)) == 0)
+                {
+                    send("ERROR not your turn\n");
+                }
+                else if (pit < 0 || pit >= MancalaLogic.NUMBER_OF_PITS || game.getPits()[pit] == 0
+                        || game.playerAWon() || game.playerBWon())
+                {
+                    send("ERROR invalid move\n");
+                }
+                else
+                {
+                    game.move(pit);
+                    if (game.turnInvalid())
+                    {
+                        send("ERROR invalid move\n");
+                    }
+                    else
+                    {
+                        journal(playing.id, MoveJournal.MOVE, pit);
+                        changed(playing);
+                    }
+                }
+            }
+        }
+
+        private void undo()
+        {
+            Session playing = session;
+            if (playing == null)
+            {
+                send("ERROR no session\n");
+                return;
+            }
+            synchronized (playing)
+            {
+                MancalaLogic game = playing.game;
+                boolean ownMove = (sides & SIDE_A) != 0 && game.playedLastMove(true)
+                        || (sides & SIDE_B) != 0 && game.playedLastMove(false);
+                int undosLeft = game.getNumUndosPlayerA() + game.getNumUndosPlayerB();
+                if (playing.ended)
+                {
+                    send("ERROR session ended\n");
+                    return;
+                }
+                if (!ownMove && (game.playedLastMove(true) || game.playedLastMove(false)))
+                {
+                    send("ERROR not your move\n");     //A player can only take back their own moves
+                    return;
+                }
+                if (ownMove)
+                {
+                    game.undo();
+                }
+                if (game.getNumUndosPlayerA() + game.getNumUndosPlayerB() < undosLeft)
+                {
+                    journal(playing.id, MoveJournal.UNDO, 0);
+                    changed(playing);
+                }
+                else
+                {
+                    send("ERROR nothing to undo\n");
+                }
+            }
+        }
+
+        private void end()
+        {
+            Session ending = session;
+            if (ending == null)
+            {
+                send("ERROR no session\n");
+                return;
+            }
+            synchronized (ending)
+            {
+                if (!ending.ended && shard(ending.id).remove(ending))
+                {
+                    ending.ended = true;
+                    sessions.decrementAndGet();
+                    journal(ending.id, MoveJournal.END_SESSION, 0);
+                }
+            }
+            leave();
+        }
+
+        /**
+         * Appends a record to the journal. Called holding the session's lock, so the records of a
+         * session are in the order its changes were made
+         */
+        private void journal(int id, int operation, int argument)
+        {
+            MoveJournal saving = journal;
+            if (saving != null)
+            {
+                loop.journalSequence = saving.append(id, operation, argument);
+            }
+        }
+
+        /**
+         * Sends a session's state to its connections once the batch is saved. Called holding the
+         * session's lock
+         */
+        private void changed(Session changed)
+        {
+            changed.version++;
+            loop.current.updates.add(new Update(changed, changed.state(), changed.version));
+        }
+
+        /**
+         * Makes a state the next one to send, unless a newer one is waiting. Called from any loop
+         * @param id the session of the state
+         * @param state the state line
+         * @param version the version of the state
+         */
+        void push(int id, byte[] state, long version)
+        {
+            synchronized (this)
+            {
+                if (id != watching || version <= pushedVersion)
+                {
+                    return;     //A state at least as new is waiting or sent, or the connection left
+                }
+                pushedState = state;
+                pushedVersion = version;
+                if (pushPending)
+                {
+                    return;
+                }
+                pushPending = true;
+            }
+            if (Thread.currentThread() == loop.thread)
+            {
+                writePush();
+            }
+            else
+            {
+                loop.execute(this::writePush);
+            }
+        }
+
+        private void writePush()
+        {
+            byte[] state;
+            synchronized (this)
+            {
+                state = pushedState;
+                pushedState = null;
+                pushPending = false;
+            }
+            if (state != null)
+            {
+                write(state);   //Pushed states are already saved
+            }
+        }
+
+        /**
+         * Answers a command once the batch it's in is saved
+         */
+        private void send(String text)
+        {
+            send(text.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        private void send(byte[] bytes)
+        {
+            loop.current.recipients.add(this);
+            loop.current.answers.add(bytes);
+        }
+
+        /**
+         * Closes the connection once the answers before are sent
+         */
+        private void quit()
+        {
+            closing = true;
+            loop.current.recipients.add(this);
+            loop.current.answers.add(null);
+        }
+
+        /**
+         * Adds bytes to the output, which is written at the end of the loop's pass
+         */
+        void write(byte[] bytes)
+        {
+            if (!open)
+            {
+                return;
+            }
+            if (out.remaining() < bytes.length)
+            {
+                if (out.position() + bytes.length > MAX_OUTPUT_BYTES)
+                {
+                    close();    //The client isn't reading
+                    return;
+                }
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes.length));
+                out.flip();
+                out = bigger.put(out);
+            }
+            out.put(bytes);
+            if (!dirty)
+            {
+                dirty = true;
+                loop.dirty.add(this);
+            }
+        }
+
+        void flush()
+        {
+            dirty = false;
+            if (!open)
+            {
+                return;
+            }
+            try
+            {
+                out.flip();
+                channel.write(out);
+                out.compact();
+            }
+            catch (IOException e)
+            {
+                close();
+                return;
+            }
+            int ops = out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+            if (key != null && key.interestOps() != ops)
+            {
+                key.interestOps(ops);
+            }
+        }
+
+        void close()
+        {
+            if (!open)
+            {
+                return;
+            }
+            open = false;
+            leave();
+            connections.decrementAndGet();
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                //The connection is gone either way
+            }
+        }
+    }
+
+    /**
+     * The words of one command line, read in place from the connection's buffer
+     */
+    private static class Line
+    {
+        private final byte[] bytes;
+        private int position;
+        private final int end;
+
+        Line(byte[] bytes, int start, int end)
+        {
+            this.bytes = bytes;
+            this.position = start;
+            this.end = end > start && bytes[end - 1] == '\r' ? end - 1 : end;
+        }
+
+        private void skipSpaces()
+        {
+            while (position < end && bytes[position] == ' ')
+            {
+                position++;
+            }
+        }
+
+        /**
+         * Gets the next word in upper case
+         */
+        String word()
+        {
+            skipSpaces();
+            int start = position;
+            while (position < end && bytes[position] != ' ')
+            {
+                position++;
+            }
+            return new String(bytes, start, position - start, StandardCharsets.US_ASCII).toUpperCase();
+        }
+
+        /**
+         * Gets the next word as a number that isn't negative
+         * @return the number, or -1 if the word isn't one
+         */
+        int number()
+        {
+            skipSpaces();
+            int value = 0;
+            int digits = 0;
+            while (position < end && bytes[position] != ' ')
+            {
+                int digit = bytes[position++] - '0';
+                if (digit < 0 || digit > 9 || digits++ == 9)
+                {
+                    return -1;
+                }
+                value = value * 10 + digit;
+            }
+            return digits == 0 ? -1 : value;
+        }
+
+        /**
+         * Gets the next word as the sides a connection plays
+         * @param missing the sides when there is no word
+         * @return SIDE_A, SIDE_B, both, or -1 if the word isn't a side
+         */
+        int sides(int missing)
+        {
+            String word = word();
+            switch (word)
+            {
+                case "":
+                    return missing;
+                case "A":
+                    return SIDE_A;
+                case "B":
+                    return SIDE_B;
+                case "AB":
+                    return SIDE_A | SIDE_B;
+                default:
+                    return -1;
+            }
+        }
+    }
+
+    /**
+     * Measures the memory a session takes on the heap, with its game, for a new game and for a
+     * game 20 moves in
+     * @param count the number of sessions to measure
+     * @return the bytes of a new session and of one 20 moves in
+     */
+    public static long[] measureSessionBytes(int count)
+    {
+        Session[] measured = new Session[count];
+        long before = usedMemory();
+        for (int i = 0; i < count; i++)
+        {
+            measured[i] = new Session(i);
+            measured[i].game.fillPitsWithStartingMarbles(4);
+        }
+        long created = usedMemory();
+        long[] board = new long[PackedBoard.STATE_LENGTH];
+        MovePolicy policy = new RandomPolicy(1);
+        for (Session session : measured)
+        {
+            for (int ply = 0; ply < 20 && !session.game.playerAWon() && !session.game.playerBWon(); ply++)
+            {
+                session.game.packInto(board, 0);
+                session.game.move(policy.chooseMove(board, 0));
+            }
+        }
+        long played = usedMemory();
+        Reference.reachabilityFence(measured);  //Keeps the sessions reachable until they are measured
+        return new long[]{(created - before) / count, (played - before) / count};
+    }
+
+    private static long usedMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+        {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Runs the server until the process is stopped
+     * @param args see the class comment
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length > 0 && args[0].equals("--measure"))
+        {
+            int count = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+            long[] bytes = measureSessionBytes(count);
+            System.out.printf("A session takes %d bytes new and %d bytes 20 moves in%n", bytes[0], bytes[1]);
+            return;
+        }
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        int numberOfLoops = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        MoveJournal journal = args.length > 2 ? new MoveJournal(Paths.get(args[2])) : null;
+        MancalaServer server = new MancalaServer(port, numberOfLoops, journal);
+        server.start();
+        System.out.printf("Mancala server on port %d with %d loops and %d sessions%n", server.getPort(), numberOfLoops, server.getSessions());
+    }
+}
@@ -0,0 +1,233 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stresses a MancalaServer on a free loopback port with clients that keep joining each other's
+ * sessions. Each client sits on its own connection, so the connections are spread over the loops,
+ * and half of them join sessions 1 and 2 in one order while the other half join them in the other,
+ * which is the pattern that would deadlock two loops that each held one session's lock while
+ * taking the other's. A client that gets no answer for TIMEOUT_MILLIS fails the test, and the
+ * stacks of the server's loops are printed. It also checks that a move from an empty pit is refused,
+ * and that a player can't take back the other player's move.
+ *
+ * Usage: java MancalaServerStressTest [clients] [joins per client] [loops]
+ * The exit code is 1 if the test failed.
+ */
+public class MancalaServerStressTest
+{
+    public static final int TIMEOUT_MILLIS = 10000;
+    private static final int JOINS_PER_WRITE = 64;
+
+    /**
+     * Runs the test
+     * @param args see the class comment
+     */
+    public static void main(String[] args) throws Exception
+    {
+        int numberOfClients = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int joins = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int numberOfLoops = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        AtomicReference<String> failure = new AtomicReference<>();
+        MancalaServer server = new MancalaServer(0, numberOfLoops, null);
+        server.start();
+        int port = server.getPort();
+        try (Socket first = connect(port); Socket second = connect(port))
+        {
+            expect(first, "NEW 4", "SESSION 1", "STATE 1 ");
+            expect(second, "NEW 4", "SESSION 2", "STATE 2 ");
+            expect(first, "MOVE 3", "STATE 1 ");    //Ends in A's mancala, so A plays again
+            expect(first, "MOVE 3", "ERROR invalid move");
+            expect(first, "MOVE 7", "ERROR invalid move");
+            undoOwnMovesOnly(port);
+
+            long start = System.nanoTime();
+            Thread[] clients = new Thread[numberOfClients];
+            for (int c = 0; c < numberOfClients; c++)
+            {
+                int firstSession = 1 + c % 2;
+                clients[c] = new Thread(() ->
+                {
+                    try
+                    {
+                        crossJoin(port, firstSession, joins);
+                    }
+                    catch (IOException e)
+                    {
+                        failure.compareAndSet(null, e.toString());
+                    }
+                }, "Client " + c);
+                clients[c].start();
+            }
+            for (Thread client : clients)
+            {
+                client.join();
+            }
+            if (failure.get() == null)
+            {
+                expect(first, "MOVE 1", "STATE 1 ");   //The server still plays once the clients are done
+                System.out.printf("%d clients joined %d times each on %d loops in %.1f s%n",
+                        numberOfClients, joins, numberOfLoops, (System.nanoTime() - start) / 1e9);
+            }
+        }
+        catch (IOException e)
+        {
+            failure.compareAndSet(null, e.toString());
+        }
+
+        if (failure.get() != null)
+        {
+            printLoops();
+            System.out.println("FAILED: " + failure.get());
+            System.exit(1);     //Without closing the server, whose loops may never stop
+        }
+        server.close();
+        System.out.println("Passed");
+    }
+
+    /**
+     * Joins two sessions in turn, writing the joins in bursts and reading their states
+     */
+    private static void crossJoin(int port, int firstSession, int joins) throws IOException
+    {
+        try (Socket socket = connect(port))
+        {
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            StringBuilder burst = new StringBuilder();
+            for (int sent = 0; sent < joins; )
+            {
+                burst.setLength(0);
+                int count = Math.min(JOINS_PER_WRITE, joins - sent);
+                for (int i = 0; i < count; i++)
+                {
+                    int id = (sent + i) % 2 == 0 ? firstSession : 3 - firstSession;
+                    burst.append("JOIN ").append(id).append('\n');
+                }
+                out.write(burst.toString().getBytes(StandardCharsets.US_ASCII));
+                for (int i = 0; i < count; i++)
+                {
+                    String line = readLine(in);
+                    if (!line.startsWith("STATE "))
+                    {
+                        throw new IOException("Expected a state but got " + line);
+                    }
+                }
+                sent += count;
+            }
+        }
+    }
+
+    /**
+     * Checks that a client playing A can't take back B's move, while B can
+     */
+    private static void undoOwnMovesOnly(int port) throws IOException
+    {
+        try (Socket playerA = connect(port); Socket playerB = connect(port))
+        {
+            expect(playerA, "NEW 4 A", "SESSION 3", "STATE 3 ");
+            expect(playerB, "JOIN 3 B", "STATE 3 ");
+            await(playerA, "MOVE 1", "STATE 3 \\d+ B .*");
+            await(playerB, "MOVE 8", "STATE 3 \\d+ A .*");
+            await(playerA, "UNDO", "ERROR not your move");
+            await(playerB, "UNDO", "STATE 3 \\d+ B - 3 2 .*");    //B's undos are charged, not A's
+        }
+    }
+
+    private static Socket connect(int port) throws IOException
+    {
+        Socket socket = new Socket("127.0.0.1", port);
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(TIMEOUT_MILLIS);
+        return socket;
+    }
+
+    /**
+     * Sends a command and checks the start of each line of the answer
+     */
+    private static void expect(Socket socket, String command, String... answers) throws IOException
+    {
+        socket.getOutputStream().write((command + "\n").getBytes(StandardCharsets.US_ASCII));
+        for (String answer : answers)
+        {
+            StringBuilder line = new StringBuilder();
+            for (int b = socket.getInputStream().read(); b != '\n'; b = socket.getInputStream().read())
+            {
+                if (b < 0)
+                {
+                    throw new IOException("The server closed the connection after " + command);
+                }
+                line.append((char) b);
+            }
+            if (!line.toString().startsWith(answer))
+            {
+                throw new IOException(command + " got " + line + " instead of " + answer);
+            }
+        }
+    }
+
+    /**
+     * Sends a command and reads lines until one matches the answer, skipping the states
+     * pushed meanwhile
+     */
+    private static void await(Socket socket, String command, String answer) throws IOException
+    {
+        socket.getOutputStream().write((command + "\n").getBytes(StandardCharsets.US_ASCII));
+        while (true)
+        {
+            StringBuilder line = new StringBuilder();
+            for (int b = socket.getInputStream().read(); b != '\n'; b = socket.getInputStream().read())
+            {
+                if (b < 0)
+                {
+                    throw new IOException("The server closed the connection after " + command);
+                }
+                line.append((char) b);
+            }
+            if (line.toString().matches(answer))
+            {
+                return;
+            }
+            if (!line.toString().startsWith("STATE "))
+            {
+                throw new IOException(command + " got " + line + " instead of " + answer);
+            }
+        }
+    }
+
+    private static String readLine(BufferedReader in) throws IOException
+    {
+        try
+        {
+            String line = in.readLine();
+            if (line == null)
+            {
+                throw new IOException("The server closed the connection");
+            }
+            return line;
+        }
+        catch (SocketTimeoutException e)
+        {
+            throw new IOException("No answer in " + TIMEOUT_MILLIS + " ms, the server's loops may be deadlocked");
+        }
+    }
+
+    private static void printLoops()
+    {
+        for (ThreadInfo info : ManagementFactory.getThreadMXBean().dumpAllThreads(true, false))
+        {
+            if (info.getThreadName().startsWith("Server loop"))
+            {
+                System.out.print(info);
+            }
+        }
+    }
+}
@@ -8,6 +8,9 @@
 public class MancalaTest {
     public static void main(String[] args)
     {
+        StartupTimer.start();
+        LayoutAssets.preload();     //The layouts load while the frame is built and the dialogs are open
+
         MancalaLogic model = new MancalaLogic();
         MancalaLabel view = new MancalaLabel(model);
         MancalaFrame controller = new MancalaFrame(model, view);
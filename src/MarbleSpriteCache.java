@@ -0,0 +1,240 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.WeakHashMap;
+
+/**
+ * A cache of the marbles of a pit drawn into one image, so the view draws each pit with one
+ * drawImage call instead of one per marble. A sprite is made the first time a marble image, pit,
+ * number of marbles and seed are drawn, scattering the marbles the same way the view always
+ * has. At other scales the marbles are scattered the same way and the positions are scaled,
+ * so a pit looks the same at every size. The least recently drawn sprites are dropped when the sprites use more memory than allowed.
+ * The cache is only used from the event dispatch thread.
+ */
+public class MarbleSpriteCache
+{
+    private final long maxBytes;
+    private final LinkedHashMap<Long, Sprite> sprites = new LinkedHashMap<>(64, 0.75f, true);  //Least recently drawn first
+    private final WeakHashMap<Image, Integer> imageNumbers = new WeakHashMap<>();
+    private final WeakHashMap<Image, BufferedImage> marbleImages = new WeakHashMap<>();   //Fully loaded copies of the marble images
+    private final Random rand = new Random();
+    private int[] marbleX = new int[0];     //Where each marble of the sprite being made goes
+    private int[] marbleY = new int[0];
+    private int nextImageNumber = 1;
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * Constructor that initializes the instance variables
+     * @param maxBytes the memory the sprites may use
+     */
+    public MarbleSpriteCache(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Draws the marbles in a pit with one drawImage call, making the pit's sprite if it's not in the cache
+     * @param g2 the graphics to draw with
+     * @param marble the marble image, already scaled
+     * @param scale the scale of the board the pit is on (1 for a board BOARD_WIDTH wide)
+     * @param pit the index of the pit
+     * @param numberOfMarbles the number of marbles in the pit
+     * @param seed the seed that scatters the marbles
+     * @param boundingBox the bounding box of the pit
+     */
+    public void drawPit(Graphics2D g2, Image marble, double scale, int pit, int numberOfMarbles, int seed, Rectangle2D boundingBox)
+    {
+        if (numberOfMarbles == 0)
+        {
+            return;
+        }
+        long key = (long) imageNumber(marble) << 44 | (long) pit << 40 | (long) numberOfMarbles << 32 | (seed & 0xFFFFFFFFL);
+        Sprite sprite = sprites.get(key);
+        if (sprite != null)
+        {
+            hits++;
+        }
+        else
+        {
+            misses++;
+            sprite = createSprite(marble, scale, numberOfMarbles, seed, (int) Math.round(boundingBox.getWidth() / scale),
+                    (int) Math.round(boundingBox.getHeight() / scale));
+            sprites.put(key, sprite);
+            bytes += sprite.bytes();
+            evict();
+        }
+        g2.drawImage(sprite.image, (int) boundingBox.getX() + sprite.x, (int) boundingBox.getY() + sprite.y, null);
+    }
+
+    /**
+     * Scatters the marbles the same way the view did before the cache, into an image cut down
+     * to the marbles so drawing it touches no more pixels than needed. The width and height of
+     * the pit are those on a board BOARD_WIDTH wide
+     */
+    private Sprite createSprite(Image marbleImage, double scale, int numberOfMarbles, int seed, int width, int height)
+    {
+        if (marbleX.length < numberOfMarbles)
+        {
+            marbleX = new int[numberOfMarbles];
+            marbleY = new int[numberOfMarbles];
+        }
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = 0;
+        int maxY = 0;
+        rand.setSeed(seed);
+        for (int j = 0; j < numberOfMarbles; j++)
+        {
+            marbleX[j] = (int) Math.round(rand.nextInt(width - Layout.MARBLE_WIDTH * 2 + 15) * scale);
+            marbleY[j] = (int) Math.round(rand.nextInt(height - Layout.MARBLE_HEIGHT * 2 - 15) * scale);
+            minX = Math.min(minX, marbleX[j]);
+            minY = Math.min(minY, marbleY[j]);
+            maxX = Math.max(maxX, marbleX[j]);
+            maxY = Math.max(maxY, marbleY[j]);
+        }
+
+        Image marble = marbleImage(marbleImage);
+        BufferedImage image = createImage(maxX - minX + marble.getWidth(null), maxY - minY + marble.getHeight(null));
+        Graphics2D g2 = image.createGraphics();
+        for (int j = 0; j < numberOfMarbles; j++)
+        {
+            g2.drawImage(marble, marbleX[j] - minX, marbleY[j] - minY, null);
+        }
+        g2.dispose();
+        return new Sprite(image, minX, minY);
+    }
+
+    /**
+     * Drops all the sprites
+     */
+    public void clear()
+    {
+        sprites.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Gets the number of sprites found in the cache
+     */
+    public long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Gets the number of sprites that had to be made
+     */
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Gets the memory used by the sprites in the cache
+     */
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * Gets the number of sprites in the cache
+     */
+    public int getNumberOfSprites()
+    {
+        return sprites.size();
+    }
+
+    /**
+     * Drops the least recently drawn sprites until the sprites fit in the memory allowed
+     */
+    private void evict()
+    {
+        Iterator<Map.Entry<Long, Sprite>> oldest = sprites.entrySet().iterator();
+        while (bytes > maxBytes && sprites.size() > 1 && oldest.hasNext())
+        {
+            bytes -= oldest.next().getValue().bytes();
+            oldest.remove();
+        }
+    }
+
+    /**
+     * Gets a small number for the marble image that is part of the key, so a new layout or
+     * scale doesn't reuse the sprites of the old one
+     */
+    private int imageNumber(Image marble)
+    {
+        Integer number = imageNumbers.get(marble);
+        if (number == null)
+        {
+            number = nextImageNumber++;
+            imageNumbers.put(marble, number);
+        }
+        return number & 0xFFFFF;
+    }
+
+    /**
+     * Gets a copy of the marble image that is fully loaded, since a scaled image may still be
+     * loading the first time it's drawn, and the sprite is only drawn once
+     */
+    private BufferedImage marbleImage(Image image)
+    {
+        if (image instanceof BufferedImage)
+        {
+            return (BufferedImage) image;   //Layouts from LayoutAssets are already loaded
+        }
+        BufferedImage marble = marbleImages.get(image);
+        if (marble == null)
+        {
+            Image loaded = new ImageIcon(image).getImage();     //Waits for the image to load
+            marble = createImage(Math.max(1, loaded.getWidth(null)), Math.max(1, loaded.getHeight(null)));
+            Graphics2D g2 = marble.createGraphics();
+            g2.drawImage(loaded, 0, 0, null);
+            g2.dispose();
+            marbleImages.put(image, marble);
+        }
+        return marble;
+    }
+
+    /**
+     * Makes a transparent image in the format of the screen, so drawing it needs no conversion
+     */
+    private static BufferedImage createImage(int width, int height)
+    {
+        if (GraphicsEnvironment.isHeadless())
+        {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                .getDefaultConfiguration().createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+    }
+
+    /**
+     * The marbles of a pit and where they go in the pit's bounding box
+     */
+    private static class Sprite
+    {
+        final BufferedImage image;
+        final int x;
+        final int y;
+
+        Sprite(BufferedImage image, int x, int y)
+        {
+            this.image = image;
+            this.x = x;
+            this.y = y;
+        }
+
+        long bytes()
+        {
+            return (long) image.getWidth() * image.getHeight() * Integer.BYTES;
+        }
+    }
+}
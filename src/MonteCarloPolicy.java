@@ -0,0 +1,42 @@
+/**One of the move policies (concrete class) following strategy pattern: plays the move found by a MonteCarloSearch
+ * */
+
+public class MonteCarloPolicy implements MovePolicy {
+    private final MonteCarloSearch search;
+    private final long maxPlayouts;
+    private final long timeBudgetMillis;
+
+    /**Sets up the search
+     * @param threads the number of threads that grow the tree
+     * @param megabytes the memory the tree may use
+     * @param maxPlayouts the most playouts per move, or 0 for no limit
+     * @param timeBudgetMillis the time each move may take in milliseconds, or 0 for no limit
+     * @param seed the seed of the random playouts
+     * */
+    public MonteCarloPolicy(int threads, int megabytes, long maxPlayouts, long timeBudgetMillis, long seed)
+    {
+        this.maxPlayouts = maxPlayouts;
+        this.timeBudgetMillis = timeBudgetMillis;
+        search = new MonteCarloSearch(threads, megabytes, seed);
+    }
+
+    /**Gets the search, for its statistics*/
+    public MonteCarloSearch getSearch()
+    {
+        return search;
+    }
+
+    /**Stops the threads of the search, so the policy and its tree can be collected*/
+    @Override
+    public void close()
+    {
+        search.shutdown();
+    }
+
+    /**Grows a tree and plays the pit visited most*/
+    @Override
+    public int chooseMove(long[] board, int offset)
+    {
+        return search.search(board, offset, maxPlayouts, timeBudgetMillis);
+    }
+}
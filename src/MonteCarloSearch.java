@@ -0,0 +1,418 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A computer player that grows a Monte Carlo search tree: it walks down the tree choosing
+ * children by UCT, adds the children of the node it ends on, plays a random game from there
+ * and adds the result to every node on the way back up. The pit visited most at the root is played.
+ *
+ * All the threads grow one shared tree without locks. A thread counts its visit on each node as
+ * it walks down, before the result is known, so the node looks like a loss to the other threads
+ * until the result is added (virtual loss) and they spread out over other children.
+ *
+ * The nodes are kept in arrays made once, one slot per node, with the children of a node side
+ * by side. When the arrays are full the tree stops growing and playouts start from its leaves.
+ * Playouts work on one PackedBoard state per thread, so the search allocates nothing.
+ */
+public class MonteCarloSearch
+{
+    public static final int DEFAULT_MEGABYTES = 64;
+
+    private static final int ROOT = 0;
+    private static final int NO_NODE = -1;
+    private static final int UNEXPANDED = -1;   //firstChild of a leaf
+    private static final int EXPANDING = -2;    //firstChild of a leaf whose children a thread is adding
+    private static final int MOVES_PER_PLY = 6;
+    private static final int WIN = 2;           //Results are counted in half points so a draw is 1
+    private static final int DRAW = 1;
+    private static final double EXPLORATION = Math.sqrt(2);
+    private static final int PLAYOUTS_BETWEEN_TIME_CHECKS = 256;
+    private static final int BYTES_PER_NODE = PackedBoard.STATE_LENGTH * Long.BYTES  //state
+            + Integer.BYTES + Byte.BYTES + Integer.BYTES + Byte.BYTES   //parent, move, firstChild, number of children
+            + Integer.BYTES + Long.BYTES;                   //visits, half points
+
+    /*
+    These arrays hold the tree, indexed by node
+     */
+    private final long[] states;          //The board state of each node, STATE_LENGTH longs per node
+    private final int[] parents;
+    private final byte[] moves;           //The pit played to reach each node
+    private final AtomicIntegerArray firstChild;
+    private final byte[] childCounts;
+    private final AtomicIntegerArray visits;
+    private final AtomicLongArray halfPoints;    //Results for the player who moved into the node
+    private final int capacity;
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final ForkJoinPool pool;
+    private final Worker[] workers;
+    private final AtomicLong playouts = new AtomicLong();
+    private volatile boolean stopRequested;
+    private long elapsedNanos;
+
+    /**
+     * Constructor that initializes the instance variables
+     * @param threads the number of threads that grow the tree
+     * @param megabytes the memory the tree may use
+     * @param seed the seed of the random playouts
+     */
+    public MonteCarloSearch(int threads, int megabytes, long seed)
+    {
+        if (threads < 1)
+        {
+            throw new IllegalArgumentException("At least one thread is needed: " + threads);
+        }
+        long nodes = (long) megabytes * 1024 * 1024 / BYTES_PER_NODE;
+        if (nodes < MOVES_PER_PLY + 1)
+        {
+            throw new IllegalArgumentException("The tree needs at least 1 MB: " + megabytes);
+        }
+        capacity = (int) Math.min(nodes, Integer.MAX_VALUE / PackedBoard.STATE_LENGTH);
+        states = new long[capacity * PackedBoard.STATE_LENGTH];
+        parents = new int[capacity];
+        moves = new byte[capacity];
+        firstChild = new AtomicIntegerArray(capacity);
+        childCounts = new byte[capacity];
+        visits = new AtomicIntegerArray(capacity);
+        halfPoints = new AtomicLongArray(capacity);
+
+        pool = new ForkJoinPool(threads);
+        workers = new Worker[threads];
+        for (int i = 0; i < threads; i++)
+        {
+            workers[i] = new Worker(seed * 31 + i + 1);
+        }
+    }
+
+    /**
+     * Grows a new tree from a state until the playouts are done or the time runs out
+     * @param board the array holding the state to search from
+     * @param offset the index of the state in the array
+     * @param maxPlayouts the most playouts to play, or 0 for no limit
+     * @param timeBudgetMillis the time the search may take in milliseconds, or 0 for no limit
+     * @return the index of the pit to play, or SearchEngine.NO_MOVE if the player has no legal move
+     */
+    public int search(long[] board, int offset, long maxPlayouts, long timeBudgetMillis)
+    {
+        if (maxPlayouts <= 0 && timeBudgetMillis <= 0)
+        {
+            throw new IllegalArgumentException("The search needs a playout or time limit");
+        }
+        long start = System.nanoTime();
+        long deadline = timeBudgetMillis > 0 ? start + timeBudgetMillis * 1000000L : Long.MAX_VALUE;
+        long limit = maxPlayouts > 0 ? maxPlayouts : Long.MAX_VALUE;
+
+        /*
+        This block of code starts a new tree with only the root
+         */
+        PackedBoard.copy(board, offset, states, 0);
+        parents[ROOT] = NO_NODE;
+        firstChild.set(ROOT, UNEXPANDED);
+        visits.set(ROOT, 0);
+        halfPoints.set(ROOT, 0);
+        size.set(1);
+        playouts.set(0);
+        stopRequested = false;
+
+        if (!PackedBoard.isGameOver(states, 0))
+        {
+            ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[workers.length];
+            for (int i = 0; i < workers.length; i++)
+            {
+                Worker worker = workers[i];
+                tasks[i] = pool.submit(() -> worker.run(limit, deadline));
+            }
+            for (ForkJoinTask<?> task : tasks)
+            {
+                task.join();
+            }
+        }
+
+        elapsedNanos = System.nanoTime() - start;
+        int best = mostVisitedChild();
+        return best == NO_NODE ? SearchEngine.NO_MOVE : moves[best];
+    }
+
+    /**
+     * Asks the threads to stop, and search returns with the tree it has grown
+     */
+    public void stop()
+    {
+        stopRequested = true;
+    }
+
+    /**
+     * Gets the share of the playouts through the chosen pit the player to move won, from 0 to 1
+     * (a draw counts half)
+     */
+    public double getWinRate()
+    {
+        int best = mostVisitedChild();
+        return best == NO_NODE || visits.get(best) == 0 ? 0 : halfPoints.get(best) / (2.0 * visits.get(best));
+    }
+
+    /**
+     * Gets the number of playouts of the root pit, indexed like MancalaLogic's pits
+     */
+    public int[] getRootVisits()
+    {
+        int[] rootVisits = new int[MancalaLogic.NUMBER_OF_PITS];
+        int first = firstChild.get(ROOT);
+        for (int child = first; first >= 0 && child < first + childCounts[ROOT]; child++)
+        {
+            rootVisits[moves[child]] = visits.get(child);
+        }
+        return rootVisits;
+    }
+
+    /**
+     * Gets the number of playouts in the last search
+     */
+    public long getPlayouts()
+    {
+        return visits.get(ROOT);    //Each playout starts with a visit to the root
+    }
+
+    /**
+     * Gets the number of playouts per second in the last search
+     */
+    public long getPlayoutsPerSecond()
+    {
+        return elapsedNanos == 0 ? 0 : getPlayouts() * 1000000000L / elapsedNanos;
+    }
+
+    /**
+     * Gets the number of nodes in the tree of the last search
+     */
+    public int getNodes()
+    {
+        return Math.min(size.get(), capacity);
+    }
+
+    /**
+     * Gets the most nodes the tree can hold
+     */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Stops the threads of the pool
+     */
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    private int mostVisitedChild()
+    {
+        int first = firstChild.get(ROOT);
+        int best = NO_NODE;
+        for (int child = first; first >= 0 && child < first + childCounts[ROOT]; child++)
+        {
+            if (best == NO_NODE || visits.get(child) > visits.get(best))
+            {
+                best = child;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Grows the tree on one thread. Each thread has its own playout state and random numbers
+     */
+    private class Worker
+    {
+        private final long[] playout = new long[PackedBoard.STATE_LENGTH];
+        private long random;    //xorshift state, never 0
+
+        Worker(long seed)
+        {
+            random = seed;
+        }
+
+        void run(long limit, long deadline)
+        {
+            long done = 0;
+            while (!stopRequested && playouts.getAndIncrement() < limit)
+            {
+                int leaf = select();
+                int result = playOut(leaf);     //Half points for player A
+                backUp(leaf, result);
+                if (++done % PLAYOUTS_BETWEEN_TIME_CHECKS == 0 && System.nanoTime() > deadline)
+                {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Walks down the tree by UCT from the root, adding the children of the first leaf
+         * visited before, and counts a visit on every node on the way
+         * @return the node to play out from
+         */
+        private int select()
+        {
+            int node = ROOT;
+            visits.incrementAndGet(ROOT);
+            while (true)
+            {
+                int first = firstChild.get(node);
+                if (first == UNEXPANDED && visits.get(node) > 1)
+                {
+                    first = expand(node);
+                }
+                if (first < 0)
+                {
+                    return node;    //A leaf, a finished game, or another thread is adding the children
+                }
+
+                /*
+                This block of code chooses the child with the best UCT value. Visits that
+                haven't brought back a result yet count as losses
+                 */
+                double logParent = Math.log(visits.get(node));
+                int best = first;
+                double bestValue = Double.NEGATIVE_INFINITY;
+                for (int child = first; child < first + childCounts[node]; child++)
+                {
+                    int n = visits.get(child);
+                    if (n == 0)
+                    {
+                        best = child;
+                        break;
+                    }
+                    double value = halfPoints.get(child) / (2.0 * n) + EXPLORATION * Math.sqrt(logParent / n);
+                    if (value > bestValue)
+                    {
+                        bestValue = value;
+                        best = child;
+                    }
+                }
+                visits.incrementAndGet(best);
+                node = best;
+            }
+        }
+
+        /**
+         * Adds the children of a leaf, unless another thread is already doing it or the tree is full
+         * @return the index of the first child, or a negative number if the node stays a leaf
+         */
+        private int expand(int node)
+        {
+            if (!firstChild.compareAndSet(node, UNEXPANDED, EXPANDING))
+            {
+                return firstChild.get(node);
+            }
+            int offset = node * PackedBoard.STATE_LENGTH;
+            if (PackedBoard.isGameOver(states, offset))
+            {
+                firstChild.set(node, UNEXPANDED);
+                return UNEXPANDED;
+            }
+
+            int count = 0;
+            int first = PackedBoard.isPlayerATurn(states, offset) ? MancalaLogic.FIRST_PIT_A_INDEX : MancalaLogic.FIRST_PIT_B_INDEX;
+            for (int pit = first; pit < first + MOVES_PER_PLY; pit++)
+            {
+                if (PackedBoard.isLegal(states, offset, pit))
+                {
+                    count++;
+                }
+            }
+            int firstNew = size.get() + count > capacity ? capacity : size.getAndAdd(count);
+            if (firstNew + count > capacity)
+            {
+                firstChild.set(node, UNEXPANDED);   //The tree is full, so this node stays a leaf
+                return UNEXPANDED;
+            }
+
+            int child = firstNew;
+            for (int pit = first; pit < first + MOVES_PER_PLY; pit++)
+            {
+                if (PackedBoard.move(states, offset, states, child * PackedBoard.STATE_LENGTH, pit) != PackedBoard.ILLEGAL_MOVE)
+                {
+                    parents[child] = node;
+                    moves[child] = (byte) pit;
+                    firstChild.set(child, UNEXPANDED);
+                    visits.set(child, 0);
+                    halfPoints.set(child, 0);
+                    child++;
+                }
+            }
+            childCounts[node] = (byte) count;
+            firstChild.set(node, firstNew);     //The children are seen by other threads only from here
+            return firstNew;
+        }
+
+        /**
+         * Plays random moves from a node to the end of the game
+         * @return the result in half points for player A
+         */
+        private int playOut(int node)
+        {
+            PackedBoard.copy(states, node * PackedBoard.STATE_LENGTH, playout, 0);
+            while (!PackedBoard.isGameOver(playout, 0))
+            {
+                random ^= random << 13;
+                random ^= random >>> 7;
+                random ^= random << 17;
+
+                int first = PackedBoard.isPlayerATurn(playout, 0) ? MancalaLogic.FIRST_PIT_A_INDEX : MancalaLogic.FIRST_PIT_B_INDEX;
+                int pit = first + (int) ((random >>> 1) % MOVES_PER_PLY);
+                while (PackedBoard.move(playout, 0, playout, 0, pit) == PackedBoard.ILLEGAL_MOVE)
+                {
+                    pit = pit == first + MOVES_PER_PLY - 1 ? first : pit + 1;
+                }
+            }
+            int difference = PackedBoard.mancalaDifference(playout, 0);
+            return difference > 0 ? WIN : difference == 0 ? DRAW : 0;
+        }
+
+        /**
+         * Adds the result to the node and the nodes above it. The visits were already counted by select
+         */
+        private void backUp(int node, int resultA)
+        {
+            while (node != ROOT)
+            {
+                int parent = parents[node];
+                boolean moverIsA = PackedBoard.isPlayerATurn(states, parent * PackedBoard.STATE_LENGTH);
+                halfPoints.addAndGet(node, moverIsA ? resultA : WIN - resultA);
+                node = parent;
+            }
+        }
+    }
+
+    /**
+     * Prints the playouts per second from the starting position as threads are added
+     * @param args the most threads to try (all the cores by default), the milliseconds
+     * per search (1000 by default) and the number of starting marbles (4 by default)
+     */
+    public static void main(String[] args)
+    {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+        int marbles = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        MancalaLogic model = new MancalaLogic();
+        model.fillPitsWithStartingMarbles(marbles);
+        long[] board = new long[PackedBoard.STATE_LENGTH];
+        model.packInto(board, 0);
+
+        System.out.println("threads  move  win rate     playouts  playouts/second      nodes");
+        for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads ? Math.min(threads * 2, maxThreads) : threads + 1)
+        {
+            MonteCarloSearch search = new MonteCarloSearch(threads, DEFAULT_MEGABYTES, 1);
+            int move = search.search(board, 0, 0, millis);
+            System.out.printf("%7d  %4d  %8.3f  %11d  %15d  %9d%n", threads, move, search.getWinRate(),
+                    search.getPlayouts(), search.getPlayoutsPerSecond(), search.getNodes());
+            search.shutdown();
+        }
+    }
+}
@@ -0,0 +1,633 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of the changes made to the games of many sessions, so the games survive
+ * the process dying. Each accepted fillPitsWithStartingMarbles, move, undo and unmake is appended
+ * as a record, and replaying a session's records on a new MancalaLogic rebuilds its game exactly.
+ *
+ * Appending only puts the record in a buffer in memory. One committer thread writes the buffer
+ * to the journal file and forces it to the disk, then wakes the callers of sync that were waiting
+ * for those records. The records appended while one force runs all go out with the next one, so
+ * when many sessions play at once each force covers many of them, and the number of forces a
+ * second doesn't limit the number of moves a second (group commit).
+ *
+ * Each record is RECORD_BYTES bytes: the session, the operation, its argument and a checksum,
+ * so a record cut off by a crash is found and dropped when the journal is opened again.
+ * Since a new game makes the moves before it irrelevant, the journal keeps the records of each
+ * session since its last new game in memory, once they are on the disk. When the journal file
+ * grows past a limit, the committer writes them to a snapshot file and the journal file starts
+ * over. Appends don't wait for that, since they only touch the buffer: the records appended
+ * meanwhile go into the new journal file. The snapshot is renamed into place and the directory
+ * forced before the journal file is emptied, and both files have a generation number, so after a
+ * crash at any point either the old snapshot and the whole journal or the new snapshot are read,
+ * and the journal is never played twice.
+ */
+public class MoveJournal implements Closeable
+{
+    public static final String JOURNAL_FILE = "journal.log";
+    public static final String SNAPSHOT_FILE = "snapshot.bin";
+    public static final long COMPACT_BYTES = 4L << 20;     //Journal size that makes a new snapshot
+    public static final int RECORD_BYTES = 8;
+
+    /*
+    These are the operations of the records
+     */
+    public static final int NEW_GAME = 1;
+    public static final int MOVE = 2;
+    public static final int UNDO = 3;
+    public static final int END_SESSION = 4;
+    public static final int TAKE_BACK = 5;      //A move taken back with unmake, without using an undo
+
+    private static final int JOURNAL_MAGIC = 0x4D4E4A4C;   //"MNJL"
+    private static final int SNAPSHOT_MAGIC = 0x4D4E5350;  //"MNSP"
+    private static final int HEADER_BYTES = 16;     //Magic number, four reserved bytes and the generation
+    private static final int INITIAL_BUFFER_BYTES = 64 * 1024;
+    private static final byte UNDO_EVENT = (byte) 0xFF;     //An undo in the events of a session
+    private static final byte TAKE_BACK_EVENT = (byte) 0xFE;
+
+    private final Path directory;
+    private final FileChannel journal;
+    private final long compactBytes;
+    private final Object lock = new Object();
+    private final CRC32 crc = new CRC32();
+    private final Map<Integer, SessionLog> sessions = new HashMap<>();    //Guarded by itself, changed by the committer
+    private final Thread committer;
+    private final ArrayList<Runnable> waiters = new ArrayList<>();  //Run once their records are on the disk
+    private final ArrayList<Long> waiterSequences = new ArrayList<>();
+    private final ArrayList<Runnable> ready = new ArrayList<>();    //Used by the committer
+    private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);    //Records not written yet
+    private ByteBuffer writing = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);    //Records the committer is writing
+    private long appended;      //The number of records appended, which is the sequence of the last one
+    private long durable;       //Records up to this sequence are on the disk
+    private long generation;    //Only used by the committer once the journal is open
+    private long journalBytes;  //Bytes of records in the journal file, only used by the committer
+    private long commits;
+    private long snapshots;
+    private IOException failure;
+    private boolean closed;
+
+    /**
+     * The changes made to the game of a session since its last new game
+     */
+    private static class SessionLog
+    {
+        int marbles = -1;   //The starting marbles of the last new game, or -1 before the first one
+        byte[] events = new byte[16];   //The pits played, and UNDO_EVENT and TAKE_BACK_EVENT for undos
+        int length;
+
+        void add(int operation, int argument)
+        {
+            if (operation == NEW_GAME)
+            {
+                marbles = argument;
+                length = 0;
+                return;
+            }
+            if (length == events.length)
+            {
+                events = Arrays.copyOf(events, length * 2);
+            }
+            if (operation == UNDO)
+            {
+                events[length++] = UNDO_EVENT;
+            }
+            else if (operation == TAKE_BACK)
+            {
+                events[length++] = TAKE_BACK_EVENT;
+            }
+            else
+            {
+                events[length++] = (byte) argument;
+            }
+        }
+    }
+
+    /**
+     * Constructor that opens the journal in a directory, restoring the sessions saved there
+     * @param directory the directory of the journal, made if it doesn't exist
+     * @throws IOException if the journal can't be read or written
+     */
+    public MoveJournal(Path directory) throws IOException
+    {
+        this(directory, COMPACT_BYTES);
+    }
+
+    /**
+     * Constructor that opens the journal in a directory, restoring the sessions saved there
+     * @param directory the directory of the journal, made if it doesn't exist
+     * @param compactBytes the size the journal file grows to before it's compacted into a snapshot
+     * @throws IOException if the journal can't be read or written
+     */
+    public MoveJournal(Path directory, long compactBytes) throws IOException
+    {
+        this.directory = directory;
+        this.compactBytes = compactBytes;
+        Files.createDirectories(directory);
+        readSnapshot();
+        journal = FileChannel.open(directory.resolve(JOURNAL_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try
+        {
+            readJournal();
+        }
+        catch (IOException e)
+        {
+            journal.close();
+            throw e;
+        }
+        committer = new Thread(this::commit, "Journal committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    private void readSnapshot() throws IOException
+    {
+        Path file = directory.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(file))
+        {
+            return;
+        }
+        ByteBuffer snapshot = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (snapshot.remaining() < HEADER_BYTES + 4 || snapshot.getInt() != SNAPSHOT_MAGIC)
+        {
+            throw new IOException(file + " is not a journal snapshot");
+        }
+        snapshot.getInt();
+        generation = snapshot.getLong();
+        for (int count = snapshot.getInt(); count > 0; count--)
+        {
+            SessionLog log = new SessionLog();
+            int session = snapshot.getInt();
+            log.marbles = snapshot.getInt();
+            log.length = snapshot.getInt();
+            log.events = new byte[Math.max(16, log.length)];
+            snapshot.get(log.events, 0, log.length);
+            sessions.put(session, log);
+        }
+    }
+
+    /**
+     * Adds the records of the journal file to the sessions, unless the snapshot already has them.
+     * Reading stops at the first record that was cut off or damaged, and the file is cut there
+     */
+    private void readJournal() throws IOException
+    {
+        long size = journal.size();
+        long valid = HEADER_BYTES;
+        if (size >= HEADER_BYTES)
+        {
+            MappedByteBuffer records = journal.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (records.getInt(0) == JOURNAL_MAGIC && records.getLong(8) >= generation)
+            {
+                generation = records.getLong(8);    //Newer than the snapshot only if the snapshot was lost
+                for (int i = HEADER_BYTES; i + RECORD_BYTES <= size; i += RECORD_BYTES)
+                {
+                    crc.reset();
+                    for (int j = 0; j < RECORD_BYTES - 2; j++)
+                    {
+                        crc.update(records.get(i + j));
+                    }
+                    if ((short) crc.getValue() != records.getShort(i + RECORD_BYTES - 2))
+                    {
+                        break;
+                    }
+                    apply(records.getInt(i), records.get(i + 4), records.get(i + 5));
+                    valid = i + RECORD_BYTES;
+                }
+            }
+        }
+
+        if (valid == HEADER_BYTES)
+        {
+            writeHeader();      //A new journal, or one the snapshot already has
+        }
+        journal.truncate(valid);
+        journal.force(false);
+        journal.position(valid);
+        journalBytes = valid - HEADER_BYTES;
+    }
+
+    private void writeHeader() throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(JOURNAL_MAGIC).putInt(0).putLong(generation).flip();
+        journal.truncate(0);
+        while (header.hasRemaining())
+        {
+            journal.write(header, header.position());
+        }
+    }
+
+    private void apply(int session, int operation, int argument)
+    {
+        if (operation == END_SESSION)
+        {
+            sessions.remove(session);
+        }
+        else
+        {
+            sessions.computeIfAbsent(session, s -> new SessionLog()).add(operation, argument);
+        }
+    }
+
+    /**
+     * Appends a record. It isn't on the disk until sync returns for its sequence
+     * @param session the session the record is for
+     * @param operation NEW_GAME, MOVE, UNDO, TAKE_BACK or END_SESSION
+     * @param argument the starting marbles for NEW_GAME, the index of the pit for MOVE, or 0
+     * @return the sequence of the record
+     */
+    public long append(int session, int operation, int argument)
+    {
+        synchronized (lock)
+        {
+            if (closed)
+            {
+                throw new IllegalStateException("The journal is closed");
+            }
+            if (pending.remaining() < RECORD_BYTES)
+            {
+                pending = ByteBuffer.allocate(pending.capacity() * 2).put(pending.flip());
+            }
+            int start = pending.position();
+            pending.putInt(session).put((byte) operation).put((byte) argument);
+            crc.reset();
+            crc.update(pending.array(), start, RECORD_BYTES - 2);
+            pending.putShort((short) crc.getValue());
+            appended++;
+            lock.notifyAll();
+            return appended;
+        }
+    }
+
+    /**
+     * Waits until a record and the ones before it are on the disk
+     * @param sequence the sequence returned by append
+     * @throws IOException if the journal can't be written
+     */
+    public void sync(long sequence) throws IOException
+    {
+        synchronized (lock)
+        {
+            while (durable < sequence && failure == null)
+            {
+                try
+                {
+                    lock.wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the journal");
+                }
+            }
+            if (durable < sequence)
+            {
+                throw new IOException("The journal can't be written", failure);
+            }
+        }
+    }
+
+    /**
+     * Runs an action on the committer thread once a record and the ones before it are on the disk,
+     * or right away if they are. The action is also run if the journal fails, so isSaved should
+     * be checked. Callers that can't wait, like the event loops of a server, use this instead of sync
+     * @param sequence the sequence returned by append
+     * @param action the action, which should be short
+     */
+    public void afterSync(long sequence, Runnable action)
+    {
+        synchronized (lock)
+        {
+            if (durable < sequence && failure == null)
+            {
+                waiters.add(action);
+                waiterSequences.add(sequence);
+                return;
+            }
+        }
+        action.run();
+    }
+
+    /**
+     * Checks if a record and the ones before it are on the disk
+     * @param sequence the sequence returned by append
+     * @throws IOException if the journal can't be written
+     */
+    public boolean isSaved(long sequence) throws IOException
+    {
+        synchronized (lock)
+        {
+            if (durable < sequence && failure != null)
+            {
+                throw new IOException("The journal can't be written", failure);
+            }
+            return durable >= sequence;
+        }
+    }
+
+    /**
+     * Takes the waiters whose records are on the disk, or all of them if the journal failed.
+     * Called holding the lock
+     */
+    private void takeReadyWaiters()
+    {
+        for (int i = waiters.size() - 1; i >= 0; i--)
+        {
+            if (waiterSequences.get(i) <= durable || failure != null)
+            {
+                ready.add(waiters.get(i));
+                waiters.set(i, waiters.get(waiters.size() - 1));
+                waiters.remove(waiters.size() - 1);
+                waiterSequences.set(i, waiterSequences.get(waiterSequences.size() - 1));
+                waiterSequences.remove(waiterSequences.size() - 1);
+            }
+        }
+    }
+
+    private void runReadyWaiters()
+    {
+        for (Runnable waiter : ready)
+        {
+            waiter.run();
+        }
+        ready.clear();
+    }
+
+    /**
+     * Writes the records appended so far to the journal file, forcing each batch to the disk,
+     * until the journal is closed
+     */
+    private void commit()
+    {
+        try
+        {
+            while (true)
+            {
+                long batchEnd;
+                synchronized (lock)
+                {
+                    while (pending.position() == 0 && !closed)
+                    {
+                        lock.wait();
+                    }
+                    if (pending.position() == 0)
+                    {
+                        return;
+                    }
+                    ByteBuffer batch = pending;
+                    pending = writing;
+                    writing = batch;
+                    batchEnd = appended;
+                }
+
+                writing.flip();
+                int bytes = writing.remaining();
+                while (writing.hasRemaining())
+                {
+                    journal.write(writing);
+                }
+                journal.force(false);
+                synchronized (sessions)
+                {
+                    for (int i = 0; i < bytes; i += RECORD_BYTES)
+                    {
+                        apply(writing.getInt(i), writing.get(i + 4), writing.get(i + 5));
+                    }
+                }
+                writing.clear();
+                journalBytes += bytes;
+
+                synchronized (lock)
+                {
+                    durable = batchEnd;
+                    commits++;
+                    takeReadyWaiters();
+                    lock.notifyAll();
+                }
+                runReadyWaiters();
+                if (journalBytes >= compactBytes)
+                {
+                    compact();
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            synchronized (lock)
+            {
+                failure = e;
+                takeReadyWaiters();
+                lock.notifyAll();
+            }
+            runReadyWaiters();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes every session to a new snapshot and empties the journal file. The snapshot has the
+     * records written to the journal file so far, and the records appended meanwhile wait in the
+     * buffer for the new journal file. Called by the committer without holding the lock, so
+     * appends go on while the snapshot is written
+     */
+    private void compact() throws IOException
+    {
+        ByteBuffer snapshot;
+        synchronized (sessions)
+        {
+            int bytes = HEADER_BYTES + 4;
+            for (SessionLog log : sessions.values())
+            {
+                bytes += 12 + log.length;
+            }
+            snapshot = ByteBuffer.allocate(bytes);
+            snapshot.putInt(SNAPSHOT_MAGIC).putInt(0).putLong(generation + 1).putInt(sessions.size());
+            for (Map.Entry<Integer, SessionLog> entry : sessions.entrySet())
+            {
+                SessionLog log = entry.getValue();
+                snapshot.putInt(entry.getKey()).putInt(log.marbles).putInt(log.length).put(log.events, 0, log.length);
+            }
+        }
+        snapshot.flip();
+
+        Path temporary = directory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel file = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while (snapshot.hasRemaining())
+            {
+                file.write(snapshot);
+            }
+            file.force(true);
+        }
+        Files.move(temporary, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ))
+        {
+            directoryChannel.force(true);   //The rename is on the disk before the journal it replaces is emptied
+        }
+
+        generation++;
+        writeHeader();
+        journal.force(false);
+        journal.position(HEADER_BYTES);
+        journalBytes = 0;
+        synchronized (lock)
+        {
+            snapshots++;
+        }
+    }
+
+    /**
+     * Plays the saved changes of a session on a model, which then has the session's game. A change
+     * is saved once sync returns for its record
+     * @param session the session
+     * @param model the model, which should be new or have its game replaced
+     * @return false if the journal has nothing for the session
+     */
+    public boolean replay(int session, MancalaLogic model)
+    {
+        int marbles;
+        byte[] events;
+        synchronized (sessions)
+        {
+            SessionLog log = sessions.get(session);
+            if (log == null)
+            {
+                return false;
+            }
+            marbles = log.marbles;
+            events = Arrays.copyOf(log.events, log.length);
+        }
+        if (marbles >= 0)
+        {
+            model.fillPitsWithStartingMarbles(marbles);
+        }
+        for (byte event : events)
+        {
+            if (event == UNDO_EVENT)
+            {
+                model.undo();
+            }
+            else if (event == TAKE_BACK_EVENT)
+            {
+                model.unmake();
+            }
+            else
+            {
+                model.move(event);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the sessions the journal has games for
+     */
+    public int[] getSessions()
+    {
+        synchronized (sessions)
+        {
+            return sessions.keySet().stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * Gets the starting marbles of a session's last new game
+     * @param session the session
+     * @return the number of marbles, or -1 if the session has no new game in the journal
+     */
+    public int getStartingMarbles(int session)
+    {
+        synchronized (sessions)
+        {
+            SessionLog log = sessions.get(session);
+            return log == null ? -1 : log.marbles;
+        }
+    }
+
+    /**
+     * Gets the number of records appended since the journal was opened
+     */
+    public long getRecords()
+    {
+        synchronized (lock)
+        {
+            return appended;
+        }
+    }
+
+    /**
+     * Gets the number of batches forced to the disk, which is less than the number of records
+     * when sessions append at the same time
+     */
+    public long getCommits()
+    {
+        synchronized (lock)
+        {
+            return commits;
+        }
+    }
+
+    /**
+     * Gets the number of snapshots written since the journal was opened
+     */
+    public long getSnapshots()
+    {
+        synchronized (lock)
+        {
+            return snapshots;
+        }
+    }
+
+    /**
+     * Writes the records appended so far and closes the journal
+     * @throws IOException if the journal can't be written
+     */
+    @Override
+    public void close() throws IOException
+    {
+        synchronized (lock)
+        {
+            if (closed)
+            {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+        try
+        {
+            committer.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+        synchronized (lock)
+        {
+            if (failure != null)
+            {
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+/**
+ * An interface for the ways a computer player can choose its move. This follows the strategy pattern.
+ * A policy keeps its own state between moves, so each thread needs its own policy.
+ * A policy that holds threads or large tables releases them when it's closed
+ */
+public interface MovePolicy extends AutoCloseable {
+
+    /**
+     * Chooses the pit to play for the player whose turn it is
+     * @param board the array holding the state
+     * @param offset the index of the state in the array
+     * @return the index of a pit the player can play
+     */
+    int chooseMove(long[] board, int offset);
+
+    /**
+     * Releases what the policy holds. It can't choose moves afterwards. Does nothing by default
+     */
+    @Override
+    default void close()
+    {
+    }
+}
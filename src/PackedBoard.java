@@ -0,0 +1,323 @@
+/**
+ * A primitive board core for Mancala that follows the same sowing, capture, extra turn and
+ * end of game rules as MancalaLogic.move, but keeps each board state packed into two longs.
+ * Board states live in plain long arrays (STATE_LENGTH longs per state), so engines can keep
+ * a whole search path in one array and move from one slot to the next without allocating.
+ *
+ * Word 0 holds the indices 0-6 (Mancala B, A1-A6) and word 1 holds the indices 7-13
+ * (Mancala A, B1-B6), 6 bits per pit. The highest bit of word 0 is set when it's player B's turn.
+ * A board can hold at most 63 marbles, which covers the 3 and 4 marble games (36 and 48 marbles).
+ */
+public final class PackedBoard
+{
+    public static final int STATE_LENGTH = 2;   //Number of longs used by one board state
+    public static final int MAX_MARBLES_PER_PIT = 63;
+
+    /*
+    These are the flags returned by move
+     */
+    public static final int ILLEGAL_MOVE = -1;
+    public static final int EXTRA_TURN = 1;
+    public static final int CAPTURE = 2;
+    public static final int GAME_OVER = 4;
+
+    private static final int PITS_PER_WORD = 7;
+    private static final int BITS_PER_PIT = 6;
+    private static final long PIT_MASK = 0x3FL;
+    private static final long PLAYER_B_TURN = 1L << 63;
+    private static final long SIDE_PITS_MASK = 0x3FFFFFFFFC0L;     //Fields 1-6 of a word (A1-A6 or B1-B6)
+    private static final long ALL_FIELDS_ONES = 0x1041041041L;      //A 1 in each of the 7 fields of a word
+    private static final long SIDE_FIELDS_ONES = 0x1041041040L;     //A 1 in fields 1-6 of a word
+
+    /*
+    The pits each player sows into, in order (the opponent's mancala is skipped)
+     */
+    private static final int PATH_LENGTH = 13;
+    private static final int[] PATH_A = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13};
+    private static final int[] PATH_B = {8, 9, 10, 11, 12, 13, 0, 1, 2, 3, 4, 5, 6};
+
+    private PackedBoard()
+    {
+    }
+
+    /**
+     * Packs an array of pits into a board state
+     * @param pits the number of marbles in each pit, in the same order as MancalaLogic
+     * @param playerATurn true if it's player A's turn
+     * @param board the array to write the state to
+     * @param offset the index of the state in the array
+     */
+    public static void pack(int[] pits, boolean playerATurn, long[] board, int offset)
+    {
+        long word0 = playerATurn ? 0 : PLAYER_B_TURN;
+        long word1 = 0;
+        for (int i = 0; i < PITS_PER_WORD; i++)
+        {
+            word0 |= (long) checkCount(pits[i]) << (i * BITS_PER_PIT);
+            word1 |= (long) checkCount(pits[i + PITS_PER_WORD]) << (i * BITS_PER_PIT);
+        }
+        board[offset] = word0;
+        board[offset + 1] = word1;
+    }
+
+    /**
+     * Unpacks a board state into an array of pits
+     * @param board the array holding the state
+     * @param offset the index of the state in the array
+     * @param pits the array of pits to fill
+     */
+    public static void unpack(long[] board, int offset, int[] pits)
+    {
+        for (int i = 0; i < MancalaLogic.NUMBER_OF_PITS; i++)
+        {
+            pits[i] = get(board, offset, i);
+        }
+    }
+
+    /**
+     * Copies a board state from one slot to another
+     */
+    public static void copy(long[] src, int srcOffset, long[] dst, int dstOffset)
+    {
+        dst[dstOffset] = src[srcOffset];
+        dst[dstOffset + 1] = src[srcOffset + 1];
+    }
+
+    /**
+     * Gets the number of marbles in a pit
+     * @param board the array holding the state
+     * @param offset the index of the state in the array
+     * @param index the index of the pit
+     * @return the number of marbles in the pit
+     */
+    public static int get(long[] board, int offset, int index)
+    {
+        if (index < PITS_PER_WORD)
+        {
+            return (int) (board[offset] >>> (index * BITS_PER_PIT) & PIT_MASK);
+        }
+        return (int) (board[offset + 1] >>> ((index - PITS_PER_WORD) * BITS_PER_PIT) & PIT_MASK);
+    }
+
+    /**
+     * Checks which is the player's turn
+     * @return true if it's player A's turn, false if it's player B's turn
+     */
+    public static boolean isPlayerATurn(long[] board, int offset)
+    {
+        return (board[offset] & PLAYER_B_TURN) == 0;
+    }
+
+    /**
+     * Checks if the game is over, which is when either player has no marbles left in pits 1-6
+     * @return true if the game is over
+     */
+    public static boolean isGameOver(long[] board, int offset)
+    {
+        return (board[offset] & SIDE_PITS_MASK) == 0 || (board[offset + 1] & SIDE_PITS_MASK) == 0;
+    }
+
+    /**
+     * Checks if the player whose turn it is can play the pit
+     * @return true if the pit is on the player's side and is not empty
+     */
+    public static boolean isLegal(long[] board, int offset, int index)
+    {
+        if (isPlayerATurn(board, offset))
+        {
+            return index >= MancalaLogic.FIRST_PIT_A_INDEX && index <= MancalaLogic.LAST_PIT_A_INDEX
+                    && get(board, offset, index) > 0;
+        }
+        return index >= MancalaLogic.FIRST_PIT_B_INDEX && index <= MancalaLogic.LAST_PIT_B_INDEX
+                && get(board, offset, index) > 0;
+    }
+
+    /**
+     * Gets the difference between the two mancalas
+     * @return the number of marbles in mancala A minus the number of marbles in mancala B
+     */
+    public static int mancalaDifference(long[] board, int offset)
+    {
+        return (int) (board[offset + 1] & PIT_MASK) - (int) (board[offset] & PIT_MASK);
+    }
+
+    /**
+     * Gets the number of marbles still in play (in pits A1-A6 and B1-B6)
+     * @return the number of marbles outside the mancalas
+     */
+    public static int marblesInPlay(long[] board, int offset)
+    {
+        return sideSum(board[offset]) + sideSum(board[offset + 1]);
+    }
+
+    /**
+     * Plays a pit from one board state and writes the resulting state to another slot.
+     * The source and destination may be the same slot.
+     * @param src the array holding the current state
+     * @param srcOffset the index of the current state
+     * @param dst the array to write the resulting state to
+     * @param dstOffset the index to write the resulting state at
+     * @param index the index of the pit to play
+     * @return ILLEGAL_MOVE if the pit can't be played, otherwise a combination of
+     * EXTRA_TURN, CAPTURE and GAME_OVER (0 when none of them happened)
+     */
+    public static int move(long[] src, int srcOffset, long[] dst, int dstOffset, int index)
+    {
+        long word0 = src[srcOffset];
+        long word1 = src[srcOffset + 1];
+        boolean playerATurn = (word0 & PLAYER_B_TURN) == 0;
+
+        if (playerATurn && (index < MancalaLogic.FIRST_PIT_A_INDEX || index > MancalaLogic.LAST_PIT_A_INDEX) ||
+                !playerATurn && (index < MancalaLogic.FIRST_PIT_B_INDEX || index > MancalaLogic.LAST_PIT_B_INDEX))
+        {
+            return ILLEGAL_MOVE;
+        }
+
+        int startShift = (index % PITS_PER_WORD) * BITS_PER_PIT;
+        int numberOfMar;
+        if (playerATurn)
+        {
+            numberOfMar = (int) (word0 >>> startShift & PIT_MASK);
+            word0 &= ~(PIT_MASK << startShift);
+        }
+        else
+        {
+            numberOfMar = (int) (word1 >>> startShift & PIT_MASK);
+            word1 &= ~(PIT_MASK << startShift);
+        }
+        if (numberOfMar == 0)
+        {
+            return ILLEGAL_MOVE;
+        }
+
+        /*
+        This block of code drops the full laps around the board in one step, then
+        drops the remaining marbles one pit at a time
+         */
+        int[] path = playerATurn ? PATH_A : PATH_B;
+        int pathStart = playerATurn ? index - 1 : index - MancalaLogic.FIRST_PIT_B_INDEX;
+        int laps = numberOfMar / PATH_LENGTH;
+        int remaining = numberOfMar % PATH_LENGTH;
+        int indexEndPit = path[(pathStart + remaining) % PATH_LENGTH];
+        int numMarblesEndPit = field(word0, word1, indexEndPit);
+
+        if (laps > 0)
+        {
+            if (playerATurn)
+            {
+                word0 += laps * SIDE_FIELDS_ONES;
+                word1 += laps * ALL_FIELDS_ONES;
+            }
+            else
+            {
+                word0 += laps * ALL_FIELDS_ONES;
+                word1 += laps * SIDE_FIELDS_ONES;
+            }
+        }
+        for (int j = 1; j <= remaining; j++)
+        {
+            int pit = path[(pathStart + j) % PATH_LENGTH];
+            if (pit < PITS_PER_WORD)
+            {
+                word0 += 1L << (pit * BITS_PER_PIT);
+            }
+            else
+            {
+                word1 += 1L << ((pit - PITS_PER_WORD) * BITS_PER_PIT);
+            }
+        }
+
+        int flags = 0;
+
+        /*
+        This block of code is for when the last marble lands in an empty pit on the player's side,
+        so the player takes that marble and the marbles on the opposite side into their mancala
+         */
+        if (numMarblesEndPit == 0)
+        {
+            if (playerATurn && indexEndPit >= MancalaLogic.FIRST_PIT_A_INDEX && indexEndPit <= MancalaLogic.LAST_PIT_A_INDEX)
+            {
+                int ownShift = indexEndPit * BITS_PER_PIT;
+                int oppositeShift = (MancalaLogic.NUMBER_OF_PITS - indexEndPit - PITS_PER_WORD) * BITS_PER_PIT;
+                long captured = (word0 >>> ownShift & PIT_MASK) + (word1 >>> oppositeShift & PIT_MASK);
+                word0 &= ~(PIT_MASK << ownShift);
+                word1 &= ~(PIT_MASK << oppositeShift);
+                word1 += captured;
+                flags |= CAPTURE;
+            }
+            else if (!playerATurn && indexEndPit >= MancalaLogic.FIRST_PIT_B_INDEX && indexEndPit <= MancalaLogic.LAST_PIT_B_INDEX)
+            {
+                int ownShift = (indexEndPit - PITS_PER_WORD) * BITS_PER_PIT;
+                int oppositeShift = (MancalaLogic.NUMBER_OF_PITS - indexEndPit) * BITS_PER_PIT;
+                long captured = (word1 >>> ownShift & PIT_MASK) + (word0 >>> oppositeShift & PIT_MASK);
+                word1 &= ~(PIT_MASK << ownShift);
+                word0 &= ~(PIT_MASK << oppositeShift);
+                word0 += captured;
+                flags |= CAPTURE;
+            }
+        }
+
+        /*
+        The player gets a free turn when the last marble lands in their own mancala
+         */
+        if (playerATurn && indexEndPit == MancalaLogic.MANCALA_A_INDEX ||
+                !playerATurn && indexEndPit == MancalaLogic.MANCALA_B_INDEX)
+        {
+            flags |= EXTRA_TURN;
+        }
+        else
+        {
+            word0 ^= PLAYER_B_TURN;
+        }
+
+        /*
+        When either player runs out of marbles, each player's remaining marbles go to their own mancala
+         */
+        if ((word0 & SIDE_PITS_MASK) == 0 || (word1 & SIDE_PITS_MASK) == 0)
+        {
+            int playerA_Pit = sideSum(word0);
+            int playerB_Pit = sideSum(word1);
+            word0 = (word0 & ~SIDE_PITS_MASK) + playerB_Pit;
+            word1 = (word1 & ~SIDE_PITS_MASK) + playerA_Pit;
+            flags |= GAME_OVER;
+        }
+
+        dst[dstOffset] = word0;
+        dst[dstOffset + 1] = word1;
+        return flags;
+    }
+
+    /**
+     * Gets the number of marbles in a pit from the two words of a state
+     */
+    private static int field(long word0, long word1, int index)
+    {
+        if (index < PITS_PER_WORD)
+        {
+            return (int) (word0 >>> (index * BITS_PER_PIT) & PIT_MASK);
+        }
+        return (int) (word1 >>> ((index - PITS_PER_WORD) * BITS_PER_PIT) & PIT_MASK);
+    }
+
+    /**
+     * Adds up fields 1-6 of a word, which are the six pits of one player
+     */
+    private static int sideSum(long word)
+    {
+        int sum = 0;
+        for (int i = 1; i < PITS_PER_WORD; i++)
+        {
+            sum += (int) (word >>> (i * BITS_PER_PIT) & PIT_MASK);
+        }
+        return sum;
+    }
+
+    private static int checkCount(int count)
+    {
+        if (count < 0 || count > MAX_MARBLES_PER_PIT)
+        {
+            throw new IllegalArgumentException("A pit can hold 0 to " + MAX_MARBLES_PER_PIT + " marbles: " + count);
+        }
+        return count;
+    }
+}
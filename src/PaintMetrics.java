@@ -0,0 +1,237 @@
+/**
+ * Measures the view's painting: how long each paint takes, how many paints and model changes
+ * there are each second, how many marbles a frame draws, how well the marble sprites are cached,
+ * and the time from a click on a pit to the first paint that shows the result.
+ *
+ * Nothing is measured while the metrics are off, and the view only checks one field per paint,
+ * so leaving them off costs nothing measurable. Times are kept in LatencyHistograms.
+ * The metrics are only used from the event dispatch thread.
+ */
+public class PaintMetrics
+{
+    public static final long RATE_WINDOW_NANOS = 1000000000L;   //Rates are counted over each second
+
+    private final MarbleSpriteCache sprites;
+    private boolean enabled;
+    private final LatencyHistogram paintTimes = new LatencyHistogram();
+    private final LatencyHistogram clickTimes = new LatencyHistogram();
+    private long marblesDrawn;
+    private int lastMarbles;
+    private long windowStart;
+    private int paintsInWindow;
+    private int changesInWindow;
+    private double paintsPerSecond;
+    private double changesPerSecond;
+    private long clickNanos = -1;   //The time of the click waiting for its paint, or -1
+    private long clickVersion;
+
+    /**
+     * Constructor that initializes the instance variables
+     * @param sprites the sprite cache of the view, whose counters are reported
+     */
+    public PaintMetrics(MarbleSpriteCache sprites)
+    {
+        this.sprites = sprites;
+    }
+
+    /**
+     * Turns measuring on or off. Turning it on starts from zero
+     * @param enabled true to measure
+     */
+    public void setEnabled(boolean enabled)
+    {
+        if (enabled && !this.enabled)
+        {
+            reset();
+        }
+        this.enabled = enabled;
+    }
+
+    /**
+     * Checks if the metrics are measuring
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Forgets everything measured so far
+     */
+    public void reset()
+    {
+        paintTimes.reset();
+        clickTimes.reset();
+        marblesDrawn = 0;
+        lastMarbles = 0;
+        windowStart = System.nanoTime();
+        paintsInWindow = 0;
+        changesInWindow = 0;
+        paintsPerSecond = 0;
+        changesPerSecond = 0;
+        clickNanos = -1;
+    }
+
+    /**
+     * Counts a paint. Called at the end of the paint while the metrics are on
+     * @param start the time the paint started, from System.nanoTime
+     * @param marbles the number of marbles the paint drew
+     * @param version the version of the state the paint showed
+     */
+    public void painted(long start, int marbles, long version)
+    {
+        long now = System.nanoTime();
+        paintTimes.record(now - start);
+        marblesDrawn += marbles;
+        lastMarbles = marbles;
+        paintsInWindow++;
+        if (clickNanos >= 0 && version > clickVersion)
+        {
+            clickTimes.record(now - clickNanos);
+            clickNanos = -1;
+        }
+        updateRates(now);
+    }
+
+    /**
+     * Counts a change of the state of the game sent to the view
+     */
+    public void changed()
+    {
+        if (enabled)
+        {
+            changesInWindow++;
+            updateRates(System.nanoTime());
+        }
+    }
+
+    /**
+     * Starts timing a click on a pit. The time ends at the first paint of a newer state
+     * @param version the version of the newest state when the pit was clicked
+     */
+    public void clicked(long version)
+    {
+        if (enabled)
+        {
+            clickNanos = System.nanoTime();
+            clickVersion = version;
+        }
+    }
+
+    private void updateRates(long now)
+    {
+        long elapsed = now - windowStart;
+        if (elapsed >= RATE_WINDOW_NANOS)
+        {
+            paintsPerSecond = paintsInWindow * 1e9 / elapsed;
+            changesPerSecond = changesInWindow * 1e9 / elapsed;
+            paintsInWindow = 0;
+            changesInWindow = 0;
+            windowStart = now;
+        }
+    }
+
+    /**
+     * Gets the number of paints measured
+     */
+    public long getPaints()
+    {
+        return paintTimes.getCount();
+    }
+
+    /**
+     * Gets a percentile of the time a paint takes
+     * @param percentile the percentile, from 0 to 100
+     * @return the time in milliseconds, or 0 if nothing was painted
+     */
+    public double getPaintMillis(double percentile)
+    {
+        return paintTimes.getMillis(percentile);
+    }
+
+    /**
+     * Gets the longest paint
+     * @return the time in milliseconds
+     */
+    public double getMaxPaintMillis()
+    {
+        return paintTimes.getMaxMillis();
+    }
+
+    /**
+     * Gets a percentile of the time from a click on a pit to the first paint that shows its result
+     * @param percentile the percentile, from 0 to 100
+     * @return the time in milliseconds, or 0 if no click was measured
+     */
+    public double getClickToPaintMillis(double percentile)
+    {
+        return clickTimes.getMillis(percentile);
+    }
+
+    /**
+     * Gets the number of clicks measured
+     */
+    public long getClicks()
+    {
+        return clickTimes.getCount();
+    }
+
+    /**
+     * Gets the number of paints in the last whole second
+     */
+    public double getPaintsPerSecond()
+    {
+        return paintsPerSecond;
+    }
+
+    /**
+     * Gets the number of changes of the state sent to the view in the last whole second
+     */
+    public double getChangesPerSecond()
+    {
+        return changesPerSecond;
+    }
+
+    /**
+     * Gets the number of marbles the last paint drew
+     */
+    public int getLastMarbles()
+    {
+        return lastMarbles;
+    }
+
+    /**
+     * Gets the average number of marbles drawn by a paint
+     */
+    public double getMarblesPerFrame()
+    {
+        return paintTimes.getCount() == 0 ? 0 : marblesDrawn / (double) paintTimes.getCount();
+    }
+
+    /**
+     * Gets the share of pits drawn from a sprite that was already in the cache
+     * @return the hit rate, from 0 to 1
+     */
+    public double getSpriteHitRate()
+    {
+        long lookups = sprites.getHits() + sprites.getMisses();
+        return lookups == 0 ? 0 : sprites.getHits() / (double) lookups;
+    }
+
+    /**
+     * Gets the metrics as lines of text, for the overlay or a log
+     */
+    public String[] getReport()
+    {
+        return new String[]{
+                String.format("Paint: p50 %.2f ms, p99 %.2f ms, max %.2f ms (%d paints)",
+                        getPaintMillis(50), getPaintMillis(99), getMaxPaintMillis(), getPaints()),
+                String.format("Paints/s %.1f, changes/s %.1f", paintsPerSecond, changesPerSecond),
+                String.format("Marbles: %d last frame, %.1f per frame", lastMarbles, getMarblesPerFrame()),
+                String.format("Sprites: %d, %.1f MB, hit rate %.1f%%", sprites.getNumberOfSprites(),
+                        sprites.getBytes() / 1048576.0, getSpriteHitRate() * 100),
+                String.format("Click to paint: p50 %.1f ms, p99 %.1f ms (%d clicks)",
+                        getClickToPaintMillis(50), getClickToPaintMillis(99), getClicks())
+        };
+    }
+}
@@ -0,0 +1,184 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs several SearchEngines at once on a fork-join pool, all sharing one TranspositionTable
+ * (lazy SMP). The first engine searches with the usual move order and gives the result.
+ * The other engines are seeded, so each one starts the root and the first plies below it
+ * from a different move, which splits the root moves and the nodes under them between the
+ * threads. The bounds they store in the shared table then speed up the first engine.
+ *
+ * With one thread only the first engine runs, so the result is the same as a SearchEngine
+ * searching with a table of the same size.
+ */
+public class ParallelSearch
+{
+    public static final int DEFAULT_TABLE_MEGABYTES = 64;
+
+    private final ForkJoinPool pool;
+    private final SearchEngine[] engines;
+    private final TranspositionTable table;
+    private long nodes;
+    private long elapsedNanos;
+
+    /**
+     * Constructor that initializes the instance variables
+     * @param threads the number of threads to search with
+     * @param table the table shared by the threads
+     * @param seed the seed used to vary the move order of the helper threads
+     */
+    public ParallelSearch(int threads, TranspositionTable table, long seed)
+    {
+        if (threads < 1)
+        {
+            throw new IllegalArgumentException("At least one thread is needed: " + threads);
+        }
+        this.table = table;
+        pool = new ForkJoinPool(threads);
+        engines = new SearchEngine[threads];
+        engines[0] = new SearchEngine(table, 0);
+        for (int i = 1; i < threads; i++)
+        {
+            engines[i] = new SearchEngine(table, seed * 31 + i);
+        }
+    }
+
+    /**
+     * Searches with all the threads until the depth is reached or the time runs out
+     * @param board the array holding the state to search from
+     * @param offset the index of the state in the array
+     * @param maxDepth the deepest iteration to search
+     * @param timeBudgetMillis the time the search may take in milliseconds, or 0 for no limit
+     * @return the index of the pit to play, or SearchEngine.NO_MOVE if the player has no legal move
+     */
+    public int search(long[] board, int offset, int maxDepth, long timeBudgetMillis)
+    {
+        long start = System.nanoTime();
+        table.newSearch();
+        long[] root = new long[PackedBoard.STATE_LENGTH];
+        PackedBoard.copy(board, offset, root, 0);
+
+        /*
+        The stop requests are cleared before the helpers are submitted, so a stop made before a
+        helper gets a thread still stops it. The helpers also get the time budget, so none of them
+        can outlast the first engine by much
+         */
+        ForkJoinTask<?>[] helpers = new ForkJoinTask<?>[engines.length - 1];
+        for (int i = 1; i < engines.length; i++)
+        {
+            SearchEngine helper = engines[i];
+            helper.clearStop();
+            helpers[i - 1] = pool.submit(() -> helper.search(root, 0, maxDepth, timeBudgetMillis));
+        }
+        int bestMove = pool.submit(() -> engines[0].search(root, 0, maxDepth, timeBudgetMillis)).join();
+
+        /*
+        The helpers stop when the first engine is done
+         */
+        for (int i = 1; i < engines.length; i++)
+        {
+            engines[i].stop();
+        }
+        for (ForkJoinTask<?> helper : helpers)
+        {
+            helper.join();
+        }
+
+        elapsedNanos = System.nanoTime() - start;
+        nodes = 0;
+        for (SearchEngine engine : engines)
+        {
+            nodes += engine.getNodes();
+        }
+        return bestMove;
+    }
+
+    /**
+     * Sets the endgame table all the threads use
+     * @param tablebase the endgame table, or null to search without one
+     */
+    public void setTablebase(EndgameTablebase tablebase)
+    {
+        for (SearchEngine engine : engines)
+        {
+            engine.setTablebase(tablebase);
+        }
+    }
+
+    /**
+     * Gets the score of the best move from the last search, from the side of the player to move
+     */
+    public int getScore()
+    {
+        return engines[0].getScore();
+    }
+
+    /**
+     * Gets the deepest iteration the first engine finished in the last search
+     */
+    public int getCompletedDepth()
+    {
+        return engines[0].getCompletedDepth();
+    }
+
+    /**
+     * Gets the number of positions visited by all the threads in the last search
+     */
+    public long getNodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * Gets the number of positions visited per second by all the threads in the last search
+     */
+    public long getNodesPerSecond()
+    {
+        return elapsedNanos == 0 ? 0 : nodes * 1000000000L / elapsedNanos;
+    }
+
+    /**
+     * Gets the table shared by the threads
+     */
+    public TranspositionTable getTable()
+    {
+        return table;
+    }
+
+    /**
+     * Stops the threads of the pool
+     */
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    /**
+     * Prints the nodes per second from the starting position as threads are added
+     * @param args the most threads to try (all the cores by default), the milliseconds
+     * per search (1000 by default) and the number of starting marbles (4 by default)
+     */
+    public static void main(String[] args)
+    {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+        int marbles = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        MancalaLogic model = new MancalaLogic();
+        model.fillPitsWithStartingMarbles(marbles);
+        long[] board = new long[PackedBoard.STATE_LENGTH];
+        model.packInto(board, 0);
+
+        System.out.println("threads  move  depth  score        nodes   nodes/second         hits      misses  collisions");
+        for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads ? Math.min(threads * 2, maxThreads) : threads + 1)
+        {
+            TranspositionTable table = new TranspositionTable(DEFAULT_TABLE_MEGABYTES);
+            ParallelSearch search = new ParallelSearch(threads, table, 1);
+            int move = search.search(board, 0, SearchEngine.MAX_DEPTH, millis);
+            System.out.printf("%7d  %4d  %5d  %5d  %11d  %13d  %11d  %10d  %10d%n", threads, move, search.getCompletedDepth(),
+                    search.getScore(), search.getNodes(), search.getNodesPerSecond(),
+                    table.getHits(), table.getMisses(), table.getCollisions());
+            search.shutdown();
+        }
+    }
+}
@@ -0,0 +1,379 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts every sequence of moves to a given depth from the starting position, to check a
+ * move generator against MancalaLogic.move. Besides the positions reached, it counts the
+ * captures, extra turns and game ends seen on the way. A finished game stops its branch early
+ * and counts as one position. An extra turn counts as a ply like any other move.
+ *
+ * The tree is split below the first two plies and the subtrees are counted on a fork-join pool.
+ * Divide mode prints the count under each first move, and compare mode counts the same tree with
+ * PackedBoard and with MancalaLogic and marks the first moves where they disagree. MancalaLogic
+ * walks its subtrees with move and unmake, so compare mode also checks the move history.
+ *
+ * Usage: java Perft depth [marbles 3 or 4] [threads] [divide | reference | compare]
+ */
+public class Perft
+{
+    private static final int SPLIT_DEPTH = 2;   //Plies expanded before the subtrees are handed to the pool
+
+    /**
+     * The totals of a (sub)tree
+     */
+    public static class Counts
+    {
+        public long nodes;
+        public long captures;
+        public long extraTurns;
+        public long gameEnds;
+
+        void add(Counts other)
+        {
+            nodes += other.nodes;
+            captures += other.captures;
+            extraTurns += other.extraTurns;
+            gameEnds += other.gameEnds;
+        }
+
+        boolean sameAs(Counts other)
+        {
+            return nodes == other.nodes && extraTurns == other.extraTurns && gameEnds == other.gameEnds;
+        }
+    }
+
+    private final boolean reference;
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructor that initializes the instance variables
+     * @param reference true to count with MancalaLogic.move, false to count with PackedBoard.move
+     * @param threads the number of threads to count with
+     */
+    public Perft(boolean reference, int threads)
+    {
+        this.reference = reference;
+        pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Counts the tree under each first move
+     * @param board the array holding the state to count from
+     * @param offset the index of the state in the array
+     * @param depth the number of plies to count to
+     * @return the counts of each pit, indexed like MancalaLogic's pits (null for pits that can't be played)
+     */
+    public Counts[] divide(long[] board, int offset, int depth)
+    {
+        Counts[] counts = new Counts[MancalaLogic.NUMBER_OF_PITS];
+        List<Subtree> subtrees = new ArrayList<>();
+        long[] child = new long[PackedBoard.STATE_LENGTH];
+
+        for (int pit = 0; pit < MancalaLogic.NUMBER_OF_PITS; pit++)
+        {
+            if (PackedBoard.isLegal(board, offset, pit))
+            {
+                counts[pit] = new Counts();
+                int flags = play(board, offset, child, 0, pit);
+                countMove(flags, counts[pit]);
+                split(child, flags, depth - 1, SPLIT_DEPTH - 1, pit, counts[pit], subtrees);
+            }
+        }
+
+        for (Subtree subtree : subtrees)
+        {
+            pool.execute(subtree);
+        }
+        for (Subtree subtree : subtrees)
+        {
+            counts[subtree.firstMove].add(subtree.join());
+        }
+        return counts;
+    }
+
+    /**
+     * Counts the whole tree
+     * @return the totals of the tree
+     */
+    public Counts count(long[] board, int offset, int depth)
+    {
+        Counts total = new Counts();
+        if (depth == 0 || PackedBoard.isGameOver(board, offset))
+        {
+            total.nodes = 1;
+            return total;
+        }
+        for (Counts counts : divide(board, offset, depth))
+        {
+            if (counts != null)
+            {
+                total.add(counts);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Stops the threads of the pool
+     */
+    public void shutdown()
+    {
+        pool.shutdown();
+    }
+
+    /**
+     * Expands the first plies and adds a subtree task for each position below them
+     */
+    private void split(long[] board, int flags, int depth, int splitDepth, int firstMove, Counts counts, List<Subtree> subtrees)
+    {
+        if (depth == 0 || (flags & PackedBoard.GAME_OVER) != 0)
+        {
+            counts.nodes++;
+            return;
+        }
+        if (splitDepth == 0)
+        {
+            long[] root = new long[(depth + 1) * PackedBoard.STATE_LENGTH];
+            PackedBoard.copy(board, 0, root, 0);
+            subtrees.add(new Subtree(root, depth, firstMove));
+            return;
+        }
+
+        long[] child = new long[PackedBoard.STATE_LENGTH];
+        for (int pit = 0; pit < MancalaLogic.NUMBER_OF_PITS; pit++)
+        {
+            if (PackedBoard.isLegal(board, 0, pit))
+            {
+                int childFlags = play(board, 0, child, 0, pit);
+                countMove(childFlags, counts);
+                split(child, childFlags, depth - 1, splitDepth - 1, firstMove, counts, subtrees);
+            }
+        }
+    }
+
+    /**
+     * Counts the subtree under one position on one thread
+     */
+    private class Subtree extends RecursiveTask<Counts>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] stack;    //The board state at each ply of the subtree
+        private final int depth;
+        private final int firstMove;
+        private final MancalaLogic model = reference ? new MancalaLogic() : null;
+
+        Subtree(long[] stack, int depth, int firstMove)
+        {
+            this.stack = stack;
+            this.depth = depth;
+            this.firstMove = firstMove;
+        }
+
+        @Override
+        protected Counts compute()
+        {
+            Counts counts = new Counts();
+            if (reference)
+            {
+                model.loadPacked(stack, 0);
+                walkReference(depth, counts);
+            }
+            else
+            {
+                walk(0, depth, counts);
+            }
+            return counts;
+        }
+
+        /**
+         * Walks the subtree with MancalaLogic, taking each move back with unmake
+         */
+        private void walkReference(int depth, Counts counts)
+        {
+            int[] pits = model.getPits();
+            for (int pit = 0; pit < MancalaLogic.NUMBER_OF_PITS; pit++)
+            {
+                if (!model.turnIsValid(pit) || pits[pit] == 0)
+                {
+                    continue;
+                }
+                boolean playerATurn = model.isPlayerATurn();
+                model.move(pit);
+                int flags = referenceFlags(model, playerATurn);
+                countMove(flags, counts);
+                if (depth == 1 || (flags & PackedBoard.GAME_OVER) != 0)
+                {
+                    counts.nodes++;
+                }
+                else
+                {
+                    walkReference(depth - 1, counts);
+                }
+                model.unmake();
+            }
+        }
+
+        private void walk(int ply, int depth, Counts counts)
+        {
+            int offset = ply * PackedBoard.STATE_LENGTH;
+            int next = offset + PackedBoard.STATE_LENGTH;
+            for (int pit = 0; pit < MancalaLogic.NUMBER_OF_PITS; pit++)
+            {
+                if (!PackedBoard.isLegal(stack, offset, pit))
+                {
+                    continue;
+                }
+                int flags = PackedBoard.move(stack, offset, stack, next, pit);
+                countMove(flags, counts);
+                if (depth == 1 || (flags & PackedBoard.GAME_OVER) != 0)
+                {
+                    counts.nodes++;
+                }
+                else
+                {
+                    walk(ply + 1, depth - 1, counts);
+                }
+            }
+        }
+    }
+
+    private int play(long[] src, int srcOffset, long[] dst, int dstOffset, int pit)
+    {
+        return reference ? playReference(new MancalaLogic(), src, srcOffset, dst, dstOffset, pit)
+                : PackedBoard.move(src, srcOffset, dst, dstOffset, pit);
+    }
+
+    /**
+     * Plays a move with MancalaLogic and reports it with the same flags as PackedBoard.move.
+     * MancalaLogic doesn't tell when a capture happens, so captures are not counted
+     */
+    private static int playReference(MancalaLogic model, long[] src, int srcOffset, long[] dst, int dstOffset, int pit)
+    {
+        model.loadPacked(src, srcOffset);
+        boolean playerATurn = model.isPlayerATurn();
+        model.move(pit);
+        model.packInto(dst, dstOffset);
+        return referenceFlags(model, playerATurn);
+    }
+
+    /**
+     * Gets the flags of the move MancalaLogic just played
+     */
+    private static int referenceFlags(MancalaLogic model, boolean playerATurn)
+    {
+        int flags = 0;
+        if (model.isPlayerATurn() == playerATurn)
+        {
+            flags |= PackedBoard.EXTRA_TURN;
+        }
+        if (model.playerAWon() || model.playerBWon())
+        {
+            flags |= PackedBoard.GAME_OVER;
+        }
+        return flags;
+    }
+
+    private static void countMove(int flags, Counts counts)
+    {
+        if ((flags & PackedBoard.CAPTURE) != 0)
+        {
+            counts.captures++;
+        }
+        if ((flags & PackedBoard.EXTRA_TURN) != 0)
+        {
+            counts.extraTurns++;
+        }
+        if ((flags & PackedBoard.GAME_OVER) != 0)
+        {
+            counts.gameEnds++;
+        }
+    }
+
+    /**
+     * Gets the name of a pit as it's labeled on the board
+     */
+    private static String pitName(int pit)
+    {
+        return pit <= MancalaLogic.LAST_PIT_A_INDEX ? "A" + pit : "B" + (pit - MancalaLogic.MANCALA_A_INDEX);
+    }
+
+    /**
+     * Runs perft from the starting position
+     * @param args see the class comment
+     */
+    public static void main(String[] args)
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: java Perft depth [marbles 3 or 4] [threads] [divide | reference | compare]");
+            return;
+        }
+        int depth = Integer.parseInt(args[0]);
+        if (depth < 1)
+        {
+            System.out.println("The depth must be at least 1");
+            return;
+        }
+        int marbles = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        String mode = args.length > 3 ? args[3] : "count";
+
+        MancalaLogic model = new MancalaLogic();
+        model.fillPitsWithStartingMarbles(marbles);
+        long[] board = new long[PackedBoard.STATE_LENGTH];
+        model.packInto(board, 0);
+
+        Perft perft = new Perft(mode.equals("reference"), threads);
+        long start = System.nanoTime();
+        Counts total = new Counts();
+        Counts[] divide = perft.divide(board, 0, depth);
+        long elapsed = System.nanoTime() - start;
+        perft.shutdown();
+
+        Counts[] referenceDivide = null;
+        if (mode.equals("compare"))
+        {
+            Perft referencePerft = new Perft(true, threads);
+            referenceDivide = referencePerft.divide(board, 0, depth);
+            referencePerft.shutdown();
+        }
+
+        boolean allSame = true;
+        for (int pit = 0; pit < divide.length; pit++)
+        {
+            if (divide[pit] == null)
+            {
+                continue;
+            }
+            total.add(divide[pit]);
+            if (mode.equals("divide"))
+            {
+                System.out.printf("%s: %d%n", pitName(pit), divide[pit].nodes);
+            }
+            else if (referenceDivide != null)
+            {
+                boolean same = divide[pit].sameAs(referenceDivide[pit]);
+                allSame &= same;
+                System.out.printf("%s: %d packed, %d reference%s%n", pitName(pit), divide[pit].nodes,
+                        referenceDivide[pit].nodes, same ? "" : "  MISMATCH (extra turns " + divide[pit].extraTurns
+                                + " vs " + referenceDivide[pit].extraTurns + ", game ends " + divide[pit].gameEnds
+                                + " vs " + referenceDivide[pit].gameEnds + ")");
+            }
+        }
+
+        System.out.println("Depth " + depth + ", " + marbles + " marbles, " + threads + " threads"
+                + (mode.equals("reference") ? ", MancalaLogic.move" : ", PackedBoard.move"));
+        System.out.println("Nodes:       " + total.nodes);
+        System.out.println("Captures:    " + (mode.equals("reference") ? "-" : String.valueOf(total.captures)));
+        System.out.println("Extra turns: " + total.extraTurns);
+        System.out.println("Game ends:   " + total.gameEnds);
+        System.out.println("Nodes/second: " + (elapsed == 0 ? 0 : total.nodes * 1000000000L / elapsed));
+        if (referenceDivide != null)
+        {
+            System.out.println(allSame ? "PackedBoard and MancalaLogic agree" : "PackedBoard and MancalaLogic disagree");
+        }
+    }
+}
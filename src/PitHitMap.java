@@ -0,0 +1,62 @@
+import java.awt.*;
+
+/**
+ * Finds the pit under a point with one array read. Each pixel of the board holds the index of
+ * the pit that covers it, worked out once from the shapes of the pits, so a click doesn't test
+ * every pit. The map is made for pits that don't move, such as those of a board BOARD_WIDTH wide,
+ * and points on a board of another size are scaled to it before they are looked up.
+ */
+public class PitHitMap
+{
+    public static final int NO_PIT = -1;
+
+    private final byte[] pitAtPixel;    //The index of the pit plus one at each pixel, 0 where there's no pit
+    private final int width;
+    private final int height;
+
+    /**
+     * Constructor that works out the pit at each pixel
+     * @param pits the shapes of the pits, indexed like MancalaLogic's pits
+     * @param width the width of the board
+     * @param height the height of the board
+     */
+    public PitHitMap(Shape[] pits, int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        pitAtPixel = new byte[width * height];
+
+        for (int i = 0; i < pits.length; i++)
+        {
+            /*
+            This block of code only tests the pixels inside the bounding box of the pit
+             */
+            Rectangle bounds = pits[i].getBounds().intersection(new Rectangle(0, 0, width, height));
+            for (int y = bounds.y; y < bounds.y + bounds.height; y++)
+            {
+                for (int x = bounds.x; x < bounds.x + bounds.width; x++)
+                {
+                    if (pits[i].contains(x, y))
+                    {
+                        pitAtPixel[y * width + x] = (byte) (i + 1);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the pit under a point
+     * @param x the x coordinate of the point
+     * @param y the y coordinate of the point
+     * @return the index of the pit, or NO_PIT if the point isn't on a pit
+     */
+    public int pitAt(int x, int y)
+    {
+        if (x < 0 || y < 0 || x >= width || y >= height)
+        {
+            return NO_PIT;
+        }
+        return pitAtPixel[y * width + x] - 1;
+    }
+}
@@ -0,0 +1,31 @@
+/**One of the move policies (concrete class) following strategy pattern: plays any legal pit at random
+ * */
+
+public class RandomPolicy implements MovePolicy {
+    private long random;    //xorshift state, never 0
+
+    /**Seeds the random choices
+     * @param seed the seed, so the same seed plays the same games
+     * */
+    public RandomPolicy(long seed)
+    {
+        random = seed == 0 ? 0x9E3779B97F4A7C15L : seed;
+    }
+
+    /**Plays a random pit among the player's pits that have marbles*/
+    @Override
+    public int chooseMove(long[] board, int offset)
+    {
+        random ^= random << 13;
+        random ^= random >>> 7;
+        random ^= random << 17;
+
+        int first = PackedBoard.isPlayerATurn(board, offset) ? MancalaLogic.FIRST_PIT_A_INDEX : MancalaLogic.FIRST_PIT_B_INDEX;
+        int pit = first + (int) ((random >>> 1) % 6);
+        for (int k = 0; k < 6 && !PackedBoard.isLegal(board, offset, pit); k++)
+        {
+            pit = pit == first + 5 ? first : pit + 1;
+        }
+        return pit;
+    }
+}
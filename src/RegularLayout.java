@@ -1,7 +1,4 @@
-import javax.imageio.ImageIO;
 import java.awt.*;
-import java.io.File;
-import java.io.IOException;
 
 /**One of formatted mancala game layout(Concrete class) following stategy pattern
  * @author Trevor O'Neil, Phillip Nguyen, Kunda Wu
@@ -10,26 +7,18 @@ import java.io.IOException;
  * */
 
 public class RegularLayout implements Layout {
-    Image marbleImage;	//the marble image
-    Image boardImage;	//the board image
-    Color fontColor;	//the font color
+    private static final String MARBLE_FILE = "BlueMarble.png";
+    private static final String BOARD_FILE = "RegularBoard.png";
+    private final Image marbleImage;	//the marble image
+    private final Image boardImage;	//the board image
+    private final Color fontColor;	//the font color
 
-    /**Get these image from local library and compose the basic components from mancala game
+    /**Get the shared, pre-scaled images of this layout, which are only read from disk the first time
      * */
     public RegularLayout()
     {
-        try
-        {
-            this.marbleImage = ImageIO.read(new File("BlueMarble.png"));
-            this.boardImage = ImageIO.read(new File("RegularBoard.png"));
-
-            boardImage = boardImage.getScaledInstance(MancalaFrame.FRAME_WIDTH, MancalaFrame.FRAME_HEIGHT, Image.SCALE_DEFAULT);
-            marbleImage = marbleImage.getScaledInstance(Layout.MARBLE_WIDTH, Layout.MARBLE_HEIGHT, Image.SCALE_DEFAULT);
-        }
-        catch (IOException e)
-        {
-            System.out.println("Cannot load image");
-        }
+        marbleImage = LayoutAssets.getImage(MARBLE_FILE, Layout.MARBLE_WIDTH, Layout.MARBLE_HEIGHT);
+        boardImage = LayoutAssets.getImage(BOARD_FILE, BoardGeometry.BOARD_WIDTH, BoardGeometry.BOARD_HEIGHT);
 
         fontColor = Color.BLACK;
     }
@@ -55,4 +44,17 @@ public class RegularLayout implements Layout {
         return fontColor;
     }
 
-}
\ No newline at end of file
+    /**Get the marble Image scaled to a size*/
+    @Override
+    public Image getMarbleImage(int width, int height)
+    {
+        return LayoutAssets.renderImage(MARBLE_FILE, width, height);
+    }
+
+    /**Get the board Image scaled to a size*/
+    @Override
+    public Image getBoardImage(int width, int height)
+    {
+        return LayoutAssets.renderImage(BOARD_FILE, width, height);
+    }
+}
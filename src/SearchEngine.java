@@ -0,0 +1,364 @@
+/**
+ * A computer player that searches the game tree with negamax and alpha-beta pruning.
+ * The search deepens one ply at a time until the time budget for the move runs out,
+ * and always tries the moves that give an extra turn first. Positions are PackedBoard
+ * states kept in one long array, one slot per ply, so searching allocates nothing.
+ */
+public class SearchEngine
+{
+    public static final int MAX_DEPTH = 64;
+    public static final int NO_MOVE = -1;
+
+    private static final int INFINITY = 10000;
+    private static final int MOVES_PER_PLY = 6;
+    private static final int NODES_BETWEEN_TIME_CHECKS = 4096;
+    private static final int SHUFFLED_PLIES = 2;    //Plies where a seeded engine varies its move order
+
+    private final long[] stack;   //The board state at each ply
+    private final int[] moves;    //The ordered moves at each ply
+    private final long[] hashes;  //The ZobristHash of the state at each ply, when there's a table
+    private final TranspositionTable table;    //null when the engine searches without a table
+    private EndgameTablebase tablebase;         //null when the engine searches without an endgame table
+    private long random;          //0 when the move order is not varied
+    private long nodes;
+    private long deadline;
+    private boolean stopped;
+    private volatile boolean stopRequested;
+    private int bestMove;
+    private int score;
+    private int completedDepth;
+
+    /**
+     * Constructor that initializes the instance variables, for an engine without a table
+     */
+    public SearchEngine()
+    {
+        this(null, 0);
+    }
+
+    /**
+     * Constructor that initializes the instance variables
+     * @param table the table to share search results through, or null. Whoever owns the table
+     * calls newSearch on it before each search
+     * @param seed 0 for the usual move order, otherwise the seed used to vary the order of
+     * the first moves, so engines sharing a table search different parts of the tree
+     */
+    public SearchEngine(TranspositionTable table, long seed)
+    {
+        this.table = table;
+        this.random = seed;
+        stack = new long[(MAX_DEPTH + 1) * PackedBoard.STATE_LENGTH];
+        moves = new int[(MAX_DEPTH + 1) * MOVES_PER_PLY];
+        hashes = new long[MAX_DEPTH + 1];
+    }
+
+    /**
+     * Finds the best pit to play within a time budget
+     * @param board the array holding the state to search from
+     * @param offset the index of the state in the array
+     * @param timeBudgetMillis the time the search may take in milliseconds
+     * @return the index of the pit to play, or NO_MOVE if the player has no legal move
+     */
+    public int findBestMove(long[] board, int offset, long timeBudgetMillis)
+    {
+        return search(board, offset, MAX_DEPTH, timeBudgetMillis);
+    }
+
+    /**
+     * Searches with iterative deepening until the depth is reached or the time runs out.
+     * The result of the last depth that finished is kept.
+     * @param board the array holding the state to search from
+     * @param offset the index of the state in the array
+     * @param maxDepth the deepest iteration to search
+     * @param timeBudgetMillis the time the search may take in milliseconds, or 0 for no limit
+     * @return the index of the pit to play, or NO_MOVE if the player has no legal move
+     */
+    public int search(long[] board, int offset, int maxDepth, long timeBudgetMillis)
+    {
+        PackedBoard.copy(board, offset, stack, 0);
+        if (table != null)
+        {
+            hashes[0] = ZobristHash.hash(stack, 0);
+        }
+        nodes = 0;
+        stopped = false;
+        deadline = timeBudgetMillis > 0 ? System.nanoTime() + timeBudgetMillis * 1000000L : Long.MAX_VALUE;
+        bestMove = NO_MOVE;
+        score = 0;
+        completedDepth = 0;
+
+        int numberOfMoves = orderMoves(0, NO_MOVE);
+        if (numberOfMoves == 0 || PackedBoard.isGameOver(stack, 0))
+        {
+            return NO_MOVE;
+        }
+        bestMove = moves[0];
+        if (numberOfMoves == 1)
+        {
+            return bestMove;
+        }
+
+        for (int depth = 1; depth <= Math.min(maxDepth, MAX_DEPTH); depth++)
+        {
+            int iterationBest = NO_MOVE;
+            int alpha = -INFINITY;
+            numberOfMoves = orderMoves(0, bestMove);
+
+            for (int k = 0; k < numberOfMoves; k++)
+            {
+                int value = searchMove(0, moves[k], depth, alpha, INFINITY);
+                if (stopped)
+                {
+                    break;
+                }
+                if (value > alpha)
+                {
+                    alpha = value;
+                    iterationBest = moves[k];
+                }
+            }
+
+            if (stopped)
+            {
+                break;
+            }
+            bestMove = iterationBest;
+            score = alpha;
+            completedDepth = depth;
+        }
+
+        return bestMove;
+    }
+
+    /**
+     * Sets the endgame table the search uses for exact outcomes once few marbles are left in play
+     * @param tablebase the endgame table, or null to search without one
+     */
+    public void setTablebase(EndgameTablebase tablebase)
+    {
+        this.tablebase = tablebase;
+    }
+
+    /**
+     * Asks a search to stop. The search returns the result of the last depth it finished.
+     * This can be called from another thread, even before the search starts: the request stays
+     * until clearStop is called, so it can't be lost to a search that hadn't started yet
+     */
+    public void stop()
+    {
+        stopRequested = true;
+    }
+
+    /**
+     * Forgets a request to stop, before starting a search that may be stopped. Called by the
+     * thread that starts the search, before it hands the search to another thread
+     */
+    public void clearStop()
+    {
+        stopRequested = false;
+    }
+
+    /**
+     * Gets the number of positions visited by the last search
+     * @return the number of positions visited
+     */
+    public long getNodes()
+    {
+        return nodes;
+    }
+
+    /**
+     * Gets the score of the best move from the last search, from the side of the player to move
+     * @return the expected difference between the player's mancala and the opponent's mancala
+     */
+    public int getScore()
+    {
+        return score;
+    }
+
+    /**
+     * Gets the deepest iteration the last search finished
+     * @return the depth of the last finished iteration
+     */
+    public int getCompletedDepth()
+    {
+        return completedDepth;
+    }
+
+    /**
+     * Plays a move from the state at a ply and searches the resulting position
+     * @return the value of the move from the side of the player who plays it
+     */
+    private int searchMove(int ply, int pit, int depth, int alpha, int beta)
+    {
+        int from = ply * PackedBoard.STATE_LENGTH;
+        int to = from + PackedBoard.STATE_LENGTH;
+        int flags = PackedBoard.move(stack, from, stack, to, pit);
+        if (table != null)
+        {
+            hashes[ply + 1] = ZobristHash.update(hashes[ply], stack, from, stack, to);
+        }
+
+        /*
+        An extra turn keeps the same player to move, so the value is not negated
+         */
+        if ((flags & PackedBoard.EXTRA_TURN) != 0)
+        {
+            return negamax(ply + 1, depth - 1, alpha, beta);
+        }
+        return -negamax(ply + 1, depth - 1, -beta, -alpha);
+    }
+
+    /**
+     * Searches the state at a ply
+     * @return the value of the state from the side of the player to move
+     */
+    private int negamax(int ply, int depth, int alpha, int beta)
+    {
+        nodes++;
+        if ((nodes % NODES_BETWEEN_TIME_CHECKS) == 0 && (stopRequested || System.nanoTime() > deadline))
+        {
+            stopped = true;
+        }
+
+        int offset = ply * PackedBoard.STATE_LENGTH;
+        if (stopped || PackedBoard.isGameOver(stack, offset))
+        {
+            return evaluate(offset);
+        }
+        if (tablebase != null)
+        {
+            int outcome = tablebase.probe(stack, offset);
+            if (outcome != EndgameTablebase.UNKNOWN)
+            {
+                return evaluate(offset) + outcome;
+            }
+        }
+        if (depth <= 0)
+        {
+            return evaluate(offset);
+        }
+
+        /*
+        This block of code uses the table to skip states already searched deep enough,
+        and otherwise to try the best pit found before first
+         */
+        int tableMove = NO_MOVE;
+        if (table != null)
+        {
+            long entry = table.probe(hashes[ply]);
+            if (entry != TranspositionTable.MISS)
+            {
+                tableMove = TranspositionTable.move(entry);
+                if (TranspositionTable.depth(entry) >= depth)
+                {
+                    int tableScore = TranspositionTable.score(entry);
+                    int bound = TranspositionTable.bound(entry);
+                    if (bound == TranspositionTable.EXACT ||
+                            bound == TranspositionTable.LOWER_BOUND && tableScore >= beta ||
+                            bound == TranspositionTable.UPPER_BOUND && tableScore <= alpha)
+                    {
+                        return tableScore;
+                    }
+                }
+            }
+        }
+
+        int originalAlpha = alpha;
+        int bestPit = NO_MOVE;
+        int numberOfMoves = orderMoves(ply, tableMove);
+        int base = ply * MOVES_PER_PLY;
+        for (int k = 0; k < numberOfMoves; k++)
+        {
+            int value = searchMove(ply, moves[base + k], depth, alpha, beta);
+            if (value > alpha)
+            {
+                alpha = value;
+                bestPit = moves[base + k];
+                if (alpha >= beta)
+                {
+                    break;
+                }
+            }
+        }
+
+        if (table != null && !stopped)
+        {
+            int bound = alpha <= originalAlpha ? TranspositionTable.UPPER_BOUND :
+                    alpha >= beta ? TranspositionTable.LOWER_BOUND : TranspositionTable.EXACT;
+            table.store(hashes[ply], depth, alpha, bound, bestPit);
+        }
+        return alpha;
+    }
+
+    /**
+     * Scores a state by the difference between the mancalas, from the side of the player to move
+     */
+    private int evaluate(int offset)
+    {
+        int difference = PackedBoard.mancalaDifference(stack, offset);
+        return PackedBoard.isPlayerATurn(stack, offset) ? difference : -difference;
+    }
+
+    /**
+     * Fills the moves at a ply with the legal pits, putting the first move (if any) at the front,
+     * then the pits that end in the player's mancala, then the rest
+     * @return the number of legal moves
+     */
+    private int orderMoves(int ply, int firstMove)
+    {
+        int offset = ply * PackedBoard.STATE_LENGTH;
+        int base = ply * MOVES_PER_PLY;
+        boolean playerATurn = PackedBoard.isPlayerATurn(stack, offset);
+        int firstPit = playerATurn ? MancalaLogic.FIRST_PIT_A_INDEX : MancalaLogic.FIRST_PIT_B_INDEX;
+        int mancala = playerATurn ? MancalaLogic.MANCALA_A_INDEX : MancalaLogic.NUMBER_OF_PITS;
+
+        int count = 0;
+        if (firstMove != NO_MOVE && PackedBoard.isLegal(stack, offset, firstMove))
+        {
+            moves[base + count++] = firstMove;
+        }
+
+        /*
+        The pit closest to the mancala is tried first, since it's the most likely to give an extra turn
+         */
+        int extraTurnEnd = count;
+        for (int pit = firstPit + MOVES_PER_PLY - 1; pit >= firstPit; pit--)
+        {
+            int marbles = PackedBoard.get(stack, offset, pit);
+            if (marbles == 0 || pit == firstMove)
+            {
+                continue;
+            }
+            if (marbles % 13 == mancala - pit)
+            {
+                moves[base + count] = moves[base + extraTurnEnd];
+                moves[base + extraTurnEnd++] = pit;
+            }
+            else
+            {
+                moves[base + count] = pit;
+            }
+            count++;
+        }
+
+        /*
+        A seeded engine starts the first plies from another move, so it searches a different
+        part of the tree than the engines it shares a table with
+         */
+        if (random != 0 && ply < SHUFFLED_PLIES && count > 1)
+        {
+            random ^= random << 13;
+            random ^= random >>> 7;
+            random ^= random << 17;
+            int rotation = (int) ((random >>> 1) % count);
+            for (int r = 0; r < rotation; r++)
+            {
+                int first = moves[base];
+                System.arraycopy(moves, base + 1, moves, base, count - 1);
+                moves[base + count - 1] = first;
+            }
+        }
+        return count;
+    }
+}
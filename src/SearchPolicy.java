@@ -0,0 +1,39 @@
+/**One of the move policies (concrete class) following strategy pattern: plays the move found by a SearchEngine
+ * */
+
+public class SearchPolicy implements MovePolicy {
+    private final SearchEngine engine;
+    private final TranspositionTable table;   //null when searching without a table
+    private final int maxDepth;
+    private final long timeBudgetMillis;
+
+    /**Sets up the engine
+     * @param maxDepth the deepest iteration to search
+     * @param timeBudgetMillis the time each move may take in milliseconds, or 0 for no limit
+     * @param tableMegabytes the size of the engine's transposition table, or 0 for no table
+     * */
+    public SearchPolicy(int maxDepth, long timeBudgetMillis, int tableMegabytes)
+    {
+        this.maxDepth = maxDepth;
+        this.timeBudgetMillis = timeBudgetMillis;
+        table = tableMegabytes > 0 ? new TranspositionTable(tableMegabytes) : null;
+        engine = new SearchEngine(table, 0);
+    }
+
+    /**Gets the engine, for its statistics and settings*/
+    public SearchEngine getEngine()
+    {
+        return engine;
+    }
+
+    /**Searches for the best pit*/
+    @Override
+    public int chooseMove(long[] board, int offset)
+    {
+        if (table != null)
+        {
+            table.newSearch();
+        }
+        return engine.search(board, offset, maxDepth, timeBudgetMillis);
+    }
+}
@@ -0,0 +1,302 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongFunction;
+
+/**
+ * Plays games between two move policies without any window, on all the cores, to measure
+ * things like how much the first move matters with 3 or 4 starting marbles. Games are played
+ * on PackedBoard states with the rules of MancalaLogic.move. Results only go into counters
+ * (wins, draws, a histogram of the final margin and the results after each first move), which
+ * each thread adds up locally and merges into the shared counters after every batch of games.
+ *
+ * Usage: java SelfPlaySimulator [games] [marbles 3 or 4] [policy A] [policy B] [threads],
+ * where a policy is random, greedy, search:depth or mcts:playouts
+ */
+public class SelfPlaySimulator
+{
+    public static final int GAMES_PER_BATCH = 1024;
+
+    private static final int MAX_MARGIN = 2 * MancalaLogic.NUMBER_OF_PITS * 4;  //Past anything a 4 marble game can reach
+    private static final int MARGINS = 2 * MAX_MARGIN + 1;
+    private static final int PITS_PER_SIDE = 6;
+    private static final int TREE_MEGABYTES = 8;    //Tree memory of each Monte Carlo player
+
+    /*
+    These are the indices of the results in the counters
+     */
+    private static final int A_WON = 0;
+    private static final int B_WON = 1;
+    private static final int DRAW = 2;
+    private static final int RESULTS = 3;
+
+    private final LongFunction<MovePolicy> policyA;
+    private final LongFunction<MovePolicy> policyB;
+    private final int marbles;
+
+    private final AtomicLongArray results = new AtomicLongArray(RESULTS);
+    private final AtomicLongArray margins = new AtomicLongArray(MARGINS);   //Games by mancala A minus mancala B
+    private final AtomicLongArray firstMoveResults = new AtomicLongArray(PITS_PER_SIDE * RESULTS);
+    private final AtomicLong moves = new AtomicLong();
+    private long elapsedNanos;
+
+    /**
+     * Constructor that initializes the instance variables
+     * @param policyA makes player A's policy for a thread from a seed
+     * @param policyB makes player B's policy for a thread from a seed
+     * @param marbles the number of starting marbles
+     */
+    public SelfPlaySimulator(LongFunction<MovePolicy> policyA, LongFunction<MovePolicy> policyB, int marbles)
+    {
+        this.policyA = policyA;
+        this.policyB = policyB;
+        this.marbles = marbles;
+    }
+
+    /**
+     * Plays the games and adds their results to the counters
+     * @param games the number of games to play
+     * @param threads the number of threads to play on
+     * @param seed the seed the policies of each thread are made from
+     * @throws IllegalStateException if a thread failed, such as when a policy chose a pit it
+     * can't play. The other threads stop after their batch, and the counters keep what was played
+     */
+    public void run(long games, int threads, long seed) throws InterruptedException
+    {
+        AtomicLong nextBatch = new AtomicLong();
+        long batches = (games + GAMES_PER_BATCH - 1) / GAMES_PER_BATCH;
+        long start = System.nanoTime();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++)
+        {
+            long threadSeed = seed * 1000003 + t;
+            workers.add(executor.submit(() ->
+            {
+                try (MovePolicy a = policyA.apply(threadSeed); MovePolicy b = policyB.apply(threadSeed + 1))
+                {
+                    Player player = new Player(a, b);    //The policies are closed when the thread is done
+                    long batch;
+                    while ((batch = nextBatch.getAndIncrement()) < batches)
+                    {
+                        long gamesInBatch = Math.min(GAMES_PER_BATCH, games - batch * GAMES_PER_BATCH);
+                        player.play(gamesInBatch);
+                    }
+                }
+                catch (RuntimeException | Error e)
+                {
+                    nextBatch.set(batches);     //The other threads stop after their batch
+                    throw e;
+                }
+            }));
+        }
+        executor.shutdown();
+        try
+        {
+            for (Future<?> worker : workers)
+            {
+                worker.get();
+            }
+        }
+        catch (ExecutionException e)
+        {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            throw new IllegalStateException("A self-play thread failed after " + getGames() + " games", e.getCause());
+        }
+        finally
+        {
+            elapsedNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * Gets the number of games played
+     */
+    public long getGames()
+    {
+        return results.get(A_WON) + results.get(B_WON) + results.get(DRAW);
+    }
+
+    /**
+     * Gets the number of games played per second
+     */
+    public long getGamesPerSecond()
+    {
+        return elapsedNanos == 0 ? 0 : getGames() * 1000000000L / elapsedNanos;
+    }
+
+    /**
+     * Gets the number of games that ended with a margin (mancala A minus mancala B)
+     */
+    public long getGamesWithMargin(int margin)
+    {
+        return Math.abs(margin) > MAX_MARGIN ? 0 : margins.get(margin + MAX_MARGIN);
+    }
+
+    /**
+     * Prints the results
+     */
+    public void printReport()
+    {
+        long games = getGames();
+        System.out.printf("%d games in %.1f s, %d games/second, %.1f moves/game%n", games, elapsedNanos / 1e9,
+                getGamesPerSecond(), games == 0 ? 0 : (double) moves.get() / games);
+        System.out.printf("Player A won %.2f%%, player B won %.2f%%, draws %.2f%%%n", percent(results.get(A_WON), games),
+                percent(results.get(B_WON), games), percent(results.get(DRAW), games));
+
+        long sum = 0;
+        for (int i = 0; i < MARGINS; i++)
+        {
+            sum += (long) (i - MAX_MARGIN) * margins.get(i);
+        }
+        System.out.printf("Mean margin (A - B): %.3f%n", games == 0 ? 0 : (double) sum / games);
+        System.out.println("Margin distribution:");
+        for (int i = 0; i < MARGINS; i++)
+        {
+            if (margins.get(i) > 0)
+            {
+                System.out.printf("%4d: %6.2f%%%n", i - MAX_MARGIN, percent(margins.get(i), games));
+            }
+        }
+
+        System.out.println("First move   games    A won    B won    draws");
+        for (int p = 0; p < PITS_PER_SIDE; p++)
+        {
+            long aWon = firstMoveResults.get(p * RESULTS + A_WON);
+            long bWon = firstMoveResults.get(p * RESULTS + B_WON);
+            long draws = firstMoveResults.get(p * RESULTS + DRAW);
+            long total = aWon + bWon + draws;
+            System.out.printf("A%d        %7d  %6.2f%%  %6.2f%%  %6.2f%%%n", p + 1, total,
+                    percent(aWon, total), percent(bWon, total), percent(draws, total));
+        }
+    }
+
+    private static double percent(long count, long total)
+    {
+        return total == 0 ? 0 : count * 100.0 / total;
+    }
+
+    /**
+     * Plays games on one thread, keeping the counts locally until the batch is done
+     */
+    private class Player
+    {
+        private final MovePolicy a;
+        private final MovePolicy b;
+        private final long[] board = new long[PackedBoard.STATE_LENGTH];
+        private final long[] start = new long[PackedBoard.STATE_LENGTH];
+        private final long[] localResults = new long[RESULTS];
+        private final long[] localMargins = new long[MARGINS];
+        private final long[] localFirstMoves = new long[PITS_PER_SIDE * RESULTS];
+
+        Player(MovePolicy a, MovePolicy b)
+        {
+            this.a = a;
+            this.b = b;
+            MancalaLogic model = new MancalaLogic();
+            model.fillPitsWithStartingMarbles(marbles);
+            model.packInto(start, 0);
+        }
+
+        void play(long games)
+        {
+            long localMoves = 0;
+            for (long g = 0; g < games; g++)
+            {
+                PackedBoard.copy(start, 0, board, 0);
+                int firstMove = SearchEngine.NO_MOVE;
+                while (!PackedBoard.isGameOver(board, 0))
+                {
+                    MovePolicy policy = PackedBoard.isPlayerATurn(board, 0) ? a : b;
+                    int pit = policy.chooseMove(board, 0);
+                    if (PackedBoard.move(board, 0, board, 0, pit) == PackedBoard.ILLEGAL_MOVE)
+                    {
+                        throw new IllegalStateException("A policy chose a pit it can't play: " + pit);
+                    }
+                    if (firstMove == SearchEngine.NO_MOVE)
+                    {
+                        firstMove = pit;
+                    }
+                    localMoves++;
+                }
+
+                int margin = PackedBoard.mancalaDifference(board, 0);
+                int result = margin > 0 ? A_WON : margin < 0 ? B_WON : DRAW;
+                localResults[result]++;
+                localMargins[margin + MAX_MARGIN]++;
+                localFirstMoves[(firstMove - MancalaLogic.FIRST_PIT_A_INDEX) * RESULTS + result]++;
+            }
+
+            /*
+            This block of code merges the batch into the shared counters
+             */
+            moves.addAndGet(localMoves);
+            flush(localResults, results);
+            flush(localMargins, margins);
+            flush(localFirstMoves, firstMoveResults);
+        }
+
+        private void flush(long[] local, AtomicLongArray shared)
+        {
+            for (int i = 0; i < local.length; i++)
+            {
+                if (local[i] != 0)
+                {
+                    shared.addAndGet(i, local[i]);
+                    local[i] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes a policy from its name: random, greedy, search:depth or mcts:playouts
+     */
+    private static LongFunction<MovePolicy> policy(String name)
+    {
+        if (name.equals("random"))
+        {
+            return RandomPolicy::new;
+        }
+        if (name.equals("greedy"))
+        {
+            return seed -> new GreedyPolicy();
+        }
+        if (name.startsWith("search"))
+        {
+            int depth = name.contains(":") ? Integer.parseInt(name.substring(name.indexOf(':') + 1)) : 4;
+            return seed -> new SearchPolicy(depth, 0, 0);
+        }
+        if (name.startsWith("mcts"))
+        {
+            long playouts = name.contains(":") ? Long.parseLong(name.substring(name.indexOf(':') + 1)) : 1000;
+            return seed -> new MonteCarloPolicy(1, TREE_MEGABYTES, playouts, 0, seed);
+        }
+        throw new IllegalArgumentException("Unknown policy: " + name);
+    }
+
+    /**
+     * Runs the simulator
+     * @param args see the class comment
+     */
+    public static void main(String[] args) throws InterruptedException
+    {
+        long games = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+        int marbles = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        String a = args.length > 2 ? args[2] : "random";
+        String b = args.length > 3 ? args[3] : "random";
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+
+        SelfPlaySimulator simulator = new SelfPlaySimulator(policy(a), policy(b), marbles);
+        System.out.println("Player A: " + a + ", player B: " + b + ", " + marbles + " marbles, " + threads + " threads");
+        simulator.run(games, threads, 1);
+        simulator.printReport();
+    }
+}
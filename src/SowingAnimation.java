@@ -0,0 +1,296 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
+
+/**
+ * Animates a move by carrying the marbles of the pit that was played one at a time along the
+ * path MancalaLogic.move drops them on, skipping the opponent's mancala. The captures and the
+ * end of the game show up when the last marble lands.
+ *
+ * The animation runs on a fixed clock of TICKS_PER_SECOND ticks. Each tick works out where the
+ * animation should be from the time since it started, so when the event dispatch thread is busy
+ * the late frames are skipped (and counted as dropped) instead of the animation falling behind.
+ * The path and the counts shown are worked out when the move starts, so a frame only does
+ * arithmetic on arrays made beforehand and allocates nothing.
+ *
+ * The time between frames is kept for the last FRAME_HISTORY frames, to report percentiles.
+ * When the game is run with -Dmancala.timing=true they are printed after each move.
+ * The animation is only used from the event dispatch thread.
+ */
+public class SowingAnimation
+{
+    public static final int TICKS_PER_SECOND = 60;
+    public static final long TICK_NANOS = 1000000000L / TICKS_PER_SECOND;
+    public static final long MARBLE_NANOS = 150000000L;    //Time a marble takes to go to the next pit
+    public static final long MAX_MOVE_NANOS = 1500000000L; //Longer moves go faster so they fit in this time
+    public static final int FRAME_HISTORY = 1024;
+    private static final boolean PRINT = Boolean.getBoolean("mancala.timing");
+
+    private final MancalaLabel view;
+    private final Timer timer;
+    private final Runnable onFinish;
+    private final int[] counts = new int[MancalaLogic.NUMBER_OF_PITS];      //The number of marbles shown in each pit
+    private final int[] finalCounts = new int[MancalaLogic.NUMBER_OF_PITS];
+    private final double[] centerX = new double[MancalaLogic.NUMBER_OF_PITS];
+    private final double[] centerY = new double[MancalaLogic.NUMBER_OF_PITS];
+    private int[] path = new int[MancalaLogic.NUMBER_OF_PITS * 4];  //The pit each marble lands in, in order
+    private int pathLength;
+    private int marblesDropped;
+    private int sourcePit;
+    private long marbleNanos;
+    private long startNanos;
+    private long lastFrameNanos;
+    private long tick;
+    private boolean running;
+    private double marbleX;     //The center of the marble being carried
+    private double marbleY;
+    private int marbleWidth = Layout.MARBLE_WIDTH;     //The size of the marble in the view
+    private int marbleHeight = Layout.MARBLE_HEIGHT;
+
+    private final long[] frameNanos = new long[FRAME_HISTORY];  //The time between frames, as a ring
+    private final long[] sortedFrameNanos = new long[FRAME_HISTORY];
+    private long frames;
+    private long droppedFrames;
+
+    /**
+     * Constructor that initializes the instance variables
+     * @param view the view the animation is drawn on
+     * @param onFinish called when an animation ends
+     */
+    public SowingAnimation(MancalaLabel view, Runnable onFinish)
+    {
+        this.view = view;
+        this.onFinish = onFinish;
+        timer = new Timer((int) (TICK_NANOS / 1000000), e -> tick(System.nanoTime()));
+        timer.setCoalesce(true);    //Ticks that pile up while the thread is busy become one tick
+    }
+
+    /**
+     * Sets where the marbles go, from the bounding boxes of the pits
+     * @param pitBounds the bounding box of each pit
+     * @param scale the scale of the board
+     */
+    public void setPits(Rectangle2D[] pitBounds, double scale)
+    {
+        marbleWidth = (int) Math.ceil(Layout.MARBLE_WIDTH * scale);
+        marbleHeight = (int) Math.ceil(Layout.MARBLE_HEIGHT * scale);
+        for (int i = 0; i < MancalaLogic.NUMBER_OF_PITS; i++)
+        {
+            centerX[i] = pitBounds[i].getCenterX();
+            centerY[i] = pitBounds[i].getCenterY();
+        }
+    }
+
+    /**
+     * Starts animating the move between two snapshots. A running animation is ended first
+     * @param before the state the view shows
+     * @param after the state after the move
+     * @return false if the change isn't one move that can be animated, such as an undo, a
+     * new game or several moves that were delivered as one snapshot
+     */
+    public boolean start(BoardSnapshot before, BoardSnapshot after)
+    {
+        if (running)
+        {
+            finish();
+        }
+        int pit = after.getMovedPit();
+        if (pit == SearchEngine.NO_MOVE || after.getVersion() != before.getVersion() + 1 || before.getPit(pit) == 0)
+        {
+            return false;
+        }
+
+        /*
+        This block of code finds the pits the marbles land in, the same way MancalaLogic.move drops them
+         */
+        int marbles = before.getPit(pit);
+        int opponentMancala = pit <= MancalaLogic.LAST_PIT_A_INDEX ? MancalaLogic.MANCALA_B_INDEX : MancalaLogic.MANCALA_A_INDEX;
+        if (path.length < marbles)
+        {
+            path = new int[marbles];
+        }
+        pathLength = 0;
+        for (int i = pit + 1; pathLength < marbles; i++)
+        {
+            if (i % MancalaLogic.NUMBER_OF_PITS != opponentMancala)
+            {
+                path[pathLength++] = i % MancalaLogic.NUMBER_OF_PITS;
+            }
+        }
+
+        for (int i = 0; i < MancalaLogic.NUMBER_OF_PITS; i++)
+        {
+            counts[i] = before.getPit(i);
+            finalCounts[i] = after.getPit(i);
+        }
+        counts[pit] = 0;    //The player picks up the marbles
+        sourcePit = pit;
+        marblesDropped = 0;
+        marbleNanos = Math.min(MARBLE_NANOS, MAX_MOVE_NANOS / marbles);
+        marbleX = centerX[pit];
+        marbleY = centerY[pit];
+        tick = 0;
+        startNanos = System.nanoTime();
+        lastFrameNanos = startNanos;
+        running = true;
+        view.repaint(view.getPitRegion(pit));
+        timer.start();
+        return true;
+    }
+
+    /**
+     * Moves the animation to where it should be at a time. The ticks missed since the last
+     * frame are counted as dropped frames
+     * @param now the time from System.nanoTime
+     */
+    public void tick(long now)
+    {
+        if (!running)
+        {
+            return;
+        }
+        long dueTick = (now - startNanos) / TICK_NANOS;
+        if (dueTick <= tick)
+        {
+            return;     //The timer fired early
+        }
+        droppedFrames += dueTick - tick - 1;
+        tick = dueTick;
+        frameNanos[(int) (frames % FRAME_HISTORY)] = now - lastFrameNanos;
+        frames++;
+        lastFrameNanos = now;
+
+        repaintMarble();    //Where the carried marble was
+        long time = dueTick * TICK_NANOS;
+        long landed = Math.min(pathLength, time / marbleNanos);
+        while (marblesDropped < landed)
+        {
+            int pit = path[marblesDropped];
+            counts[pit]++;
+            view.repaint(view.getPitRegion(pit));
+            marblesDropped++;
+        }
+        if (marblesDropped == pathLength)
+        {
+            finish();
+            return;
+        }
+
+        /*
+        This block of code moves the carried marble part of the way to the pit it lands in next
+         */
+        int from = marblesDropped == 0 ? sourcePit : path[marblesDropped - 1];
+        int to = path[marblesDropped];
+        double fraction = (time - marblesDropped * marbleNanos) / (double) marbleNanos;
+        marbleX = centerX[from] + (centerX[to] - centerX[from]) * fraction;
+        marbleY = centerY[from] + (centerY[to] - centerY[from]) * fraction;
+        repaintMarble();
+    }
+
+    /**
+     * Ends the animation, showing the state after the move
+     */
+    public void finish()
+    {
+        if (!running)
+        {
+            return;
+        }
+        running = false;
+        timer.stop();
+        for (int i = 0; i < MancalaLogic.NUMBER_OF_PITS; i++)
+        {
+            if (counts[i] != finalCounts[i])
+            {
+                counts[i] = finalCounts[i];
+                view.repaint(view.getPitRegion(i));
+            }
+        }
+        if (PRINT)
+        {
+            printReport();
+        }
+        onFinish.run();
+    }
+
+    /**
+     * Checks if a move is being animated
+     */
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    /**
+     * Gets the number of marbles to show in a pit while a move is animated
+     * @param index the index of the pit
+     */
+    public int getCount(int index)
+    {
+        return counts[index];
+    }
+
+    /**
+     * Draws the marble being carried to the next pit
+     * @param g2 the graphics to draw with
+     * @param marble the image of a marble, scaled to the pixels of the graphics
+     * @param pixels the number of pixels of the graphics in each pixel of the view
+     */
+    public void drawMarble(Graphics2D g2, Image marble, double pixels)
+    {
+        if (running)
+        {
+            g2.drawImage(marble, (int) (marbleX * pixels) - marble.getWidth(null) / 2,
+                    (int) (marbleY * pixels) - marble.getHeight(null) / 2, null);
+        }
+    }
+
+    private void repaintMarble()
+    {
+        view.repaint((int) marbleX - marbleWidth, (int) marbleY - marbleHeight, marbleWidth * 2, marbleHeight * 2);
+    }
+
+    /**
+     * Gets the number of frames animated so far
+     */
+    public long getFrames()
+    {
+        return frames;
+    }
+
+    /**
+     * Gets the number of ticks skipped because a frame came late
+     */
+    public long getDroppedFrames()
+    {
+        return droppedFrames;
+    }
+
+    /**
+     * Gets a percentile of the time between frames, over the last FRAME_HISTORY frames
+     * @param percentile the percentile, from 0 to 100
+     * @return the time in milliseconds, or 0 if no frame was animated
+     */
+    public double getFrameMillis(double percentile)
+    {
+        int n = (int) Math.min(frames, FRAME_HISTORY);
+        if (n == 0)
+        {
+            return 0;
+        }
+        System.arraycopy(frameNanos, 0, sortedFrameNanos, 0, n);
+        Arrays.sort(sortedFrameNanos, 0, n);
+        int i = (int) Math.ceil(percentile / 100 * n) - 1;
+        return sortedFrameNanos[Math.max(0, Math.min(n - 1, i))] / 1e6;
+    }
+
+    /**
+     * Prints the frame times and dropped frames so far
+     */
+    public void printReport()
+    {
+        System.out.printf("Animation: %d frames, %d dropped, frame time p50 %.1f ms, p95 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                frames, droppedFrames, getFrameMillis(50), getFrameMillis(95), getFrameMillis(99), getFrameMillis(100));
+    }
+}
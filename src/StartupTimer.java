@@ -0,0 +1,85 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times the phases of starting the game from the moment main starts, such as the frame
+ * showing, the dialogs being answered and the first frame of the board being painted.
+ * The phases are printed as they happen when the game is run with -Dmancala.timing=true.
+ * Phases can be marked from any thread.
+ */
+public class StartupTimer
+{
+    private static final boolean PRINT = Boolean.getBoolean("mancala.timing");
+    private static long start = System.nanoTime();
+    private static final List<String> phases = new ArrayList<>();
+    private static final List<Long> phaseNanos = new ArrayList<>();
+    private static volatile boolean firstFramePainted;
+
+    private StartupTimer()
+    {
+    }
+
+    /**
+     * Starts timing, called first thing in main
+     */
+    public static synchronized void start()
+    {
+        start = System.nanoTime();
+        phases.clear();
+        phaseNanos.clear();
+        firstFramePainted = false;
+    }
+
+    /**
+     * Marks the end of a phase
+     * @param phase the name of the phase
+     */
+    public static synchronized void mark(String phase)
+    {
+        long nanos = System.nanoTime() - start;
+        phases.add(phase);
+        phaseNanos.add(nanos);
+        if (PRINT)
+        {
+            System.out.printf("Startup: %-28s %8.1f ms  (%s)%n", phase, nanos / 1e6, Thread.currentThread().getName());
+        }
+    }
+
+    /**
+     * Marks the first frame of the board being painted. Only the first call counts, and the
+     * calls after it cost one read of a field
+     */
+    public static void framePainted()
+    {
+        if (!firstFramePainted)
+        {
+            synchronized (StartupTimer.class)
+            {
+                if (!firstFramePainted)
+                {
+                    firstFramePainted = true;
+                    mark("first frame painted");
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the milliseconds from the start to a phase
+     * @param phase the name of the phase
+     * @return the milliseconds, or -1 if the phase hasn't happened
+     */
+    public static synchronized double getMillis(String phase)
+    {
+        int i = phases.indexOf(phase);
+        return i < 0 ? -1 : phaseNanos.get(i) / 1e6;
+    }
+
+    /**
+     * Gets the milliseconds from the start to the first frame of the board, or -1 if it hasn't been painted
+     */
+    public static double getTimeToFirstFrameMillis()
+    {
+        return getMillis("first frame painted");
+    }
+}
@@ -0,0 +1,234 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size table of search results shared by all the search threads, so a position
+ * searched by one thread (or reached again through another move order) doesn't have to be
+ * searched again. Entries are found by the ZobristHash of the state and keep the bound found
+ * for it, the depth it was searched to, the best pit and the search it was stored in (its age).
+ *
+ * The table takes no locks. Each entry is two longs, the data and the data XOR the hash,
+ * so an entry half written by another thread doesn't match its hash and is read as a miss.
+ * Each bucket has two entries: a new result replaces the entry of the same state, otherwise
+ * the entry left by an older search, otherwise the one searched to the smallest depth.
+ */
+public class TranspositionTable
+{
+    /*
+    These are the kinds of bound an entry can hold
+     */
+    public static final int EXACT = 0;
+    public static final int LOWER_BOUND = 1;   //The score is at least the stored score
+    public static final int UPPER_BOUND = 2;   //The score is at most the stored score
+
+    public static final long MISS = 0;
+
+    private static final int ENTRIES_PER_BUCKET = 2;
+    private static final int LONGS_PER_ENTRY = 2;
+    private static final int LONGS_PER_BUCKET = ENTRIES_PER_BUCKET * LONGS_PER_ENTRY;
+    private static final int BYTES_PER_BUCKET = LONGS_PER_BUCKET * Long.BYTES;
+    private static final long VALID = 1L << 40;
+    private static final int AGE_MASK = 0xFF;
+    private static final int OLD_ENTRY_PENALTY = 256;  //More than any depth, so older entries always go first
+
+    private final long[] buckets;
+    private final int bucketMask;
+    private volatile int age;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+
+    /**
+     * Constructor that initializes the instance variables
+     * @param megabytes the memory the table may use, rounded down to a power of two
+     */
+    public TranspositionTable(int megabytes)
+    {
+        if (megabytes < 1)
+        {
+            throw new IllegalArgumentException("The table needs at least 1 MB: " + megabytes);
+        }
+        long numberOfBuckets = Long.highestOneBit((long) megabytes * 1024 * 1024 / BYTES_PER_BUCKET);
+        numberOfBuckets = Math.min(numberOfBuckets, Integer.highestOneBit(Integer.MAX_VALUE / LONGS_PER_BUCKET));
+        buckets = new long[(int) numberOfBuckets * LONGS_PER_BUCKET];
+        bucketMask = (int) numberOfBuckets - 1;
+    }
+
+    /**
+     * Looks up a state
+     * @param hash the ZobristHash of the state
+     * @return the packed entry for the state, or MISS if the state isn't in the table
+     */
+    public long probe(long hash)
+    {
+        int bucket = bucketIndex(hash);
+        boolean occupied = false;
+        for (int slot = bucket; slot < bucket + LONGS_PER_BUCKET; slot += LONGS_PER_ENTRY)
+        {
+            long data = buckets[slot + 1];
+            if (data != 0)
+            {
+                if ((buckets[slot] ^ data) == hash)
+                {
+                    hits.increment();
+                    return data;
+                }
+                occupied = true;
+            }
+        }
+
+        if (occupied)
+        {
+            collisions.increment();
+        }
+        misses.increment();
+        return MISS;
+    }
+
+    /**
+     * Stores the result of a search
+     * @param hash the ZobristHash of the state
+     * @param depth the depth the state was searched to
+     * @param score the score of the state from the side of the player to move
+     * @param bound EXACT, LOWER_BOUND or UPPER_BOUND
+     * @param move the best pit found, or SearchEngine.NO_MOVE
+     */
+    public void store(long hash, int depth, int score, int bound, int move)
+    {
+        int currentAge = age;
+        int bucket = bucketIndex(hash);
+        int replace = bucket;
+        int lowestPriority = Integer.MAX_VALUE;
+        for (int slot = bucket; slot < bucket + LONGS_PER_BUCKET; slot += LONGS_PER_ENTRY)
+        {
+            long data = buckets[slot + 1];
+            if (data == 0 || (buckets[slot] ^ data) == hash)
+            {
+                /*
+                A deeper result for the same state from this search is kept, unless the new one is exact
+                 */
+                if (data != 0 && age(data) == currentAge && depth(data) > depth && bound != EXACT)
+                {
+                    return;
+                }
+                replace = slot;
+                break;
+            }
+
+            int priority = depth(data) - (age(data) == currentAge ? 0 : OLD_ENTRY_PENALTY);
+            if (priority < lowestPriority)
+            {
+                lowestPriority = priority;
+                replace = slot;
+            }
+        }
+
+        long data = VALID | (long) currentAge << 32 | (long) (move + 1) << 26 | (long) bound << 24
+                | (long) (depth & 0xFF) << 16 | (score & 0xFFFF);
+        buckets[replace] = hash ^ data;
+        buckets[replace + 1] = data;
+    }
+
+    /**
+     * Starts a new search, so the entries of the previous searches are replaced first.
+     * This is called once per search by whoever owns the table, not by each thread
+     */
+    public void newSearch()
+    {
+        age = (age + 1) & AGE_MASK;
+    }
+
+    /**
+     * Empties the table and resets the counters. This must not be called while a search is using the table
+     */
+    public void clear()
+    {
+        Arrays.fill(buckets, 0);
+        hits.reset();
+        misses.reset();
+        collisions.reset();
+    }
+
+    /**
+     * Gets the number of probes that found their state
+     */
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * Gets the number of probes that didn't find their state
+     */
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * Gets the number of misses where the bucket was full of other states
+     */
+    public long getCollisions()
+    {
+        return collisions.sum();
+    }
+
+    /**
+     * Gets the number of entries the table can hold
+     */
+    public int getNumberOfEntries()
+    {
+        return buckets.length / LONGS_PER_ENTRY;
+    }
+
+    /**
+     * Gets the memory used by the entries in megabytes
+     */
+    public int getMegabytes()
+    {
+        return (int) ((long) buckets.length * Long.BYTES / (1024 * 1024));
+    }
+
+    /**
+     * Gets the score from a packed entry
+     */
+    public static int score(long entry)
+    {
+        return (short) entry;
+    }
+
+    /**
+     * Gets the depth from a packed entry
+     */
+    public static int depth(long entry)
+    {
+        return (int) (entry >>> 16) & 0xFF;
+    }
+
+    /**
+     * Gets the kind of bound from a packed entry
+     */
+    public static int bound(long entry)
+    {
+        return (int) (entry >>> 24) & 0x3;
+    }
+
+    /**
+     * Gets the best pit from a packed entry
+     */
+    public static int move(long entry)
+    {
+        return ((int) (entry >>> 26) & 0xF) - 1;
+    }
+
+    private static int age(long entry)
+    {
+        return (int) (entry >>> 32) & AGE_MASK;
+    }
+
+    private int bucketIndex(long hash)
+    {
+        return ((int) hash & bucketMask) * LONGS_PER_BUCKET;
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.Random;
+
+/**
+ * Zobrist hashing of PackedBoard states. Each (pit, number of marbles) pair and the
+ * player B's turn flag has a random 64 bit key, and the hash of a state is the XOR of the
+ * keys that apply to it. After a move only the pits that changed need to be hashed again,
+ * so the search can keep the hash up to date as it goes down the tree.
+ */
+public final class ZobristHash
+{
+    private static final int BITS_PER_PIT = 6;
+    private static final int PITS_PER_WORD = 7;
+    private static final int COUNTS = PackedBoard.MAX_MARBLES_PER_PIT + 1;
+    private static final long PIT_MASK = 0x3FL;
+    private static final long FIELDS_MASK = (1L << (PITS_PER_WORD * BITS_PER_PIT)) - 1;
+
+    private static final long[] PIT_KEYS = new long[MancalaLogic.NUMBER_OF_PITS * COUNTS];
+    private static final long PLAYER_B_TURN_KEY;
+
+    /*
+    This block of code fills the keys from a fixed seed, so hashes are the same on every run
+     */
+    static
+    {
+        Random random = new Random(0x4D414E43414C41L);
+        for (int i = 0; i < PIT_KEYS.length; i++)
+        {
+            PIT_KEYS[i] = random.nextLong();
+        }
+        PLAYER_B_TURN_KEY = random.nextLong();
+    }
+
+    private ZobristHash()
+    {
+    }
+
+    /**
+     * Hashes a state from scratch
+     * @param board the array holding the state
+     * @param offset the index of the state in the array
+     * @return the hash of the state
+     */
+    public static long hash(long[] board, int offset)
+    {
+        long hash = PackedBoard.isPlayerATurn(board, offset) ? 0 : PLAYER_B_TURN_KEY;
+        for (int i = 0; i < MancalaLogic.NUMBER_OF_PITS; i++)
+        {
+            hash ^= PIT_KEYS[i * COUNTS + PackedBoard.get(board, offset, i)];
+        }
+        return hash;
+    }
+
+    /**
+     * Updates the hash of a state for the state that follows it, only hashing the pits that changed
+     * @param hash the hash of the state before
+     * @param before the array holding the state before
+     * @param beforeOffset the index of the state before
+     * @param after the array holding the state after
+     * @param afterOffset the index of the state after
+     * @return the hash of the state after
+     */
+    public static long update(long hash, long[] before, int beforeOffset, long[] after, int afterOffset)
+    {
+        if (PackedBoard.isPlayerATurn(before, beforeOffset) != PackedBoard.isPlayerATurn(after, afterOffset))
+        {
+            hash ^= PLAYER_B_TURN_KEY;
+        }
+        hash = updateWord(hash, before[beforeOffset], after[afterOffset], 0);
+        return updateWord(hash, before[beforeOffset + 1], after[afterOffset + 1], PITS_PER_WORD);
+    }
+
+    /**
+     * Rehashes the pits of one word that changed
+     */
+    private static long updateWord(long hash, long before, long after, int firstIndex)
+    {
+        long changed = (before ^ after) & FIELDS_MASK;
+        while (changed != 0)
+        {
+            int field = Long.numberOfTrailingZeros(changed) / BITS_PER_PIT;
+            int shift = field * BITS_PER_PIT;
+            int index = (firstIndex + field) * COUNTS;
+            hash ^= PIT_KEYS[index + (int) (before >>> shift & PIT_MASK)]
+                    ^ PIT_KEYS[index + (int) (after >>> shift & PIT_MASK)];
+            changed &= ~(PIT_MASK << shift);
+        }
+        return hash;
+    }
+}